@@ -0,0 +1,28 @@
+package org.openmrs.module.dbevent;
+
+import java.util.List;
+
+/**
+ * Implementations should implement this interface to provide logic for handling Events from a DbEventSource
+ * in batches.  Each batch contains all the events returned by a single poll of the underlying engine, in the order
+ * in which they were emitted, and offsets are committed once the entire batch has been successfully processed.
+ * @see EventConsumer for a single-event implementation built on top of this
+ */
+public interface BatchEventConsumer {
+
+    /**
+     * Processes the given batch of events.  If this throws an Exception, the entire batch will be retried.
+     * @param events the events to process, in the order in which they were emitted
+     */
+    void acceptBatch(List<DbEvent> events);
+
+    /**
+     * Any logic that should be executed at startup (prior to any Event processing) can be implemented here
+     */
+    default void startup() {}
+
+    /**
+     * Any logic that should be executed at shutdown can be implemented here.
+     */
+    default void shutdown() {}
+}
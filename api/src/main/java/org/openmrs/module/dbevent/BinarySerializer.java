@@ -0,0 +1,315 @@
+package org.openmrs.module.dbevent;
+
+import org.apache.commons.lang3.SerializationUtils;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Serializer that uses a compact, tagged binary format for common types: null, String, Integer, Long, Short, Byte,
+ * Double, Float, BigDecimal, Date, Boolean, byte[], and Lists and Maps of these, including ObjectMaps such as DbEvent
+ * row images.  These include all the values that Debezium produces for the columns of a typical OpenMRS table.
+ * Integers, Longs, Shorts, Bytes and Dates (as epoch millis) are written as variable-length zig-zag encoded values,
+ * and Strings as length-prefixed UTF-8.  Floats and Doubles are written as fixed-length 4 and 8 byte values, and
+ * BigDecimals as their scale followed by the length-prefixed bytes of their unscaled value.
+ * Any other value falls back to Java serialization.  As the Java serialization stream header can never be produced by
+ * this format, values previously written with the JavaSerializer can also be read by this serializer.
+ * Keys are not compatible, however, as a key is looked up by its serialized bytes: a Rocks DB whose keys were written
+ * with the JavaSerializer must continue to use the JavaSerializer for its keys, or be rewritten.
+ */
+public class BinarySerializer implements Serializer {
+
+    static final byte NULL = 0;
+    static final byte STRING = 1;
+    static final byte INTEGER = 2;
+    static final byte LONG = 3;
+    static final byte DOUBLE = 4;
+    static final byte FLOAT = 5;
+    static final byte TRUE = 6;
+    static final byte FALSE = 7;
+    static final byte BYTES = 8;
+    static final byte LIST = 9;
+    static final byte MAP = 10;
+    static final byte OBJECT_MAP = 11;
+    static final byte SHORT = 12;
+    static final byte BYTE = 13;
+    static final byte BIG_DECIMAL = 14;
+    static final byte DATE = 15;
+    static final byte JAVA = (byte) 0xAC; // First byte of the Java serialization stream magic number
+    static final byte JAVA_STREAM = (byte) 0xED; // Second byte of the magic number, never the start of an even length
+
+    @Override
+    public byte[] serialize(Serializable value) {
+        Output out = new Output();
+        write(out, value);
+        return out.toByteArray();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends Serializable> T deserialize(byte[] bytes) {
+        if (bytes.length > 1 && bytes[0] == JAVA && bytes[1] == JAVA_STREAM) {
+            return SerializationUtils.deserialize(bytes);
+        }
+        Input in = new Input(bytes);
+        return (T) read(in);
+    }
+
+    protected void write(Output out, Object value) {
+        if (value == null) {
+            out.write(NULL);
+        }
+        else if (value instanceof String) {
+            out.write(STRING);
+            writeString(out, (String) value);
+        }
+        else if (value instanceof Integer) {
+            out.write(INTEGER);
+            out.writeVarLong((Integer) value);
+        }
+        else if (value instanceof Long) {
+            out.write(LONG);
+            out.writeVarLong((Long) value);
+        }
+        else if (value instanceof Short) {
+            out.write(SHORT);
+            out.writeVarLong((Short) value);
+        }
+        else if (value instanceof Byte) {
+            out.write(BYTE);
+            out.writeVarLong((Byte) value);
+        }
+        else if (value instanceof Double) {
+            out.write(DOUBLE);
+            out.writeFixedLong(Double.doubleToLongBits((Double) value));
+        }
+        else if (value instanceof Float) {
+            out.write(FLOAT);
+            out.writeFixedInt(Float.floatToIntBits((Float) value));
+        }
+        else if (value instanceof Boolean) {
+            out.write((Boolean) value ? TRUE : FALSE);
+        }
+        else if (value.getClass() == BigDecimal.class) {
+            BigDecimal decimal = (BigDecimal) value;
+            byte[] unscaled = decimal.unscaledValue().toByteArray();
+            out.write(BIG_DECIMAL);
+            out.writeVarLong(decimal.scale());
+            out.writeVarLong(unscaled.length);
+            out.write(unscaled, 0, unscaled.length);
+        }
+        else if (value.getClass() == Date.class) { // Subclasses such as java.sql.Timestamp carry more than the millis
+            out.write(DATE);
+            out.writeVarLong(((Date) value).getTime());
+        }
+        else if (value instanceof byte[]) {
+            out.write(BYTES);
+            byte[] bytes = (byte[]) value;
+            out.writeVarLong(bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+        else if (value.getClass() == ArrayList.class || value.getClass() == Arrays.asList().getClass()) {
+            List<?> list = (List<?>) value;
+            out.write(LIST);
+            out.writeVarLong(list.size());
+            for (Object element : list) {
+                write(out, element);
+            }
+        }
+        else if (value instanceof ObjectMap || value.getClass() == LinkedHashMap.class) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            if (!map.keySet().stream().allMatch(k -> k instanceof String)) {
+                writeJava(out, value);
+                return;
+            }
+            out.write(value instanceof ObjectMap ? OBJECT_MAP : MAP);
+            out.writeVarLong(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                writeString(out, (String) entry.getKey());
+                write(out, entry.getValue());
+            }
+        }
+        else {
+            writeJava(out, value);
+        }
+    }
+
+    protected Object read(Input in) {
+        byte tag = in.read();
+        switch (tag) {
+            case NULL: return null;
+            case STRING: return readString(in);
+            case INTEGER: return (int) in.readVarLong();
+            case LONG: return in.readVarLong();
+            case SHORT: return (short) in.readVarLong();
+            case BYTE: return (byte) in.readVarLong();
+            case DOUBLE: return Double.longBitsToDouble(in.readFixedLong());
+            case FLOAT: return Float.intBitsToFloat(in.readFixedInt());
+            case TRUE: return Boolean.TRUE;
+            case FALSE: return Boolean.FALSE;
+            case BYTES: return in.read((int) in.readVarLong());
+            case BIG_DECIMAL: {
+                int scale = (int) in.readVarLong();
+                return new BigDecimal(new BigInteger(in.read((int) in.readVarLong())), scale);
+            }
+            case DATE: return new Date(in.readVarLong());
+            case LIST: {
+                int size = (int) in.readVarLong();
+                List<Object> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(read(in));
+                }
+                return list;
+            }
+            case MAP:
+            case OBJECT_MAP: {
+                int size = (int) in.readVarLong();
+                Map<String, Object> map = (tag == MAP ? new LinkedHashMap<>() : new ObjectMap());
+                for (int i = 0; i < size; i++) {
+                    String key = readString(in);
+                    map.put(key, read(in));
+                }
+                return map;
+            }
+            case JAVA: {
+                int length = (int) in.readVarLong();
+                return SerializationUtils.deserialize(in.read(length));
+            }
+            default: throw new IllegalArgumentException("Unknown serialization tag: " + tag);
+        }
+    }
+
+    private void writeString(Output out, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeVarLong(bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private String readString(Input in) {
+        int length = (int) in.readVarLong();
+        String ret = new String(in.bytes, in.position, length, StandardCharsets.UTF_8);
+        in.position += length;
+        return ret;
+    }
+
+    private void writeJava(Output out, Object value) {
+        byte[] bytes = SerializationUtils.serialize((Serializable) value);
+        out.write(JAVA);
+        out.writeVarLong(bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Growable byte buffer that supports writing variable-length values
+     */
+    protected static class Output {
+
+        private byte[] bytes = new byte[64];
+        private int size = 0;
+
+        void write(byte b) {
+            ensureCapacity(1);
+            bytes[size++] = b;
+        }
+
+        void write(byte[] b, int offset, int length) {
+            ensureCapacity(length);
+            System.arraycopy(b, offset, bytes, size, length);
+            size += length;
+        }
+
+        void writeVarLong(long value) {
+            long zigZag = (value << 1) ^ (value >> 63);
+            ensureCapacity(10);
+            while ((zigZag & ~0x7FL) != 0) {
+                bytes[size++] = (byte) ((zigZag & 0x7F) | 0x80);
+                zigZag >>>= 7;
+            }
+            bytes[size++] = (byte) zigZag;
+        }
+
+        void writeFixedLong(long value) {
+            ensureCapacity(8);
+            for (int i = 7; i >= 0; i--) {
+                bytes[size++] = (byte) (value >>> (i * 8));
+            }
+        }
+
+        void writeFixedInt(int value) {
+            ensureCapacity(4);
+            for (int i = 3; i >= 0; i--) {
+                bytes[size++] = (byte) (value >>> (i * 8));
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+
+        private void ensureCapacity(int additional) {
+            if (size + additional > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + additional));
+            }
+        }
+    }
+
+    /**
+     * Reads values from a byte array that was written with an Output
+     */
+    protected static class Input {
+
+        private final byte[] bytes;
+        private int position = 0;
+
+        Input(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        byte read() {
+            return bytes[position++];
+        }
+
+        byte[] read(int length) {
+            byte[] ret = Arrays.copyOfRange(bytes, position, position + length);
+            position += length;
+            return ret;
+        }
+
+        long readVarLong() {
+            long zigZag = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = bytes[position++];
+                zigZag |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            }
+            while ((b & 0x80) != 0);
+            return (zigZag >>> 1) ^ -(zigZag & 1);
+        }
+
+        long readFixedLong() {
+            long ret = 0;
+            for (int i = 0; i < 8; i++) {
+                ret = (ret << 8) | (bytes[position++] & 0xFF);
+            }
+            return ret;
+        }
+
+        int readFixedInt() {
+            int ret = 0;
+            for (int i = 0; i < 4; i++) {
+                ret = (ret << 8) | (bytes[position++] & 0xFF);
+            }
+            return ret;
+        }
+    }
+}
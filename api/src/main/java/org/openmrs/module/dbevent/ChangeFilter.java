@@ -0,0 +1,113 @@
+package org.openmrs.module.dbevent;
+
+import lombok.Data;
+import org.apache.kafka.connect.data.Field;
+import org.apache.kafka.connect.data.Struct;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Declarative filter of the changes to a table, which is evaluated against the raw Debezium Structs of each change,
+ * prior to constructing a DbEvent.  A change is accepted only if:
+ * its operation is one of the configured operations, if any are configured;
+ * the row has the required value for each column with a required value (eg. voided = 0), after the change,
+ * or prior to the change if the row was deleted;
+ * and, for updates, at least one column changed other than the ignored columns (eg. date_changed, changed_by).
+ * Updates that do not change the value of any column, such as when the same value is rewritten, are not accepted.
+ * @see DbEventSourceConfig#addChangeFilter(String, ChangeFilter)
+ */
+@Data
+public class ChangeFilter implements Serializable {
+
+    private Set<Operation> operations = EnumSet.allOf(Operation.class);
+    private Set<String> ignoredColumns = new HashSet<>();
+    private Map<String, Object> requiredValues = new LinkedHashMap<>();
+
+    /**
+     * @param operations the only operations to accept
+     * @return this filter, for chaining
+     */
+    public ChangeFilter includeOperations(Operation... operations) {
+        this.operations = EnumSet.copyOf(Arrays.asList(operations));
+        return this;
+    }
+
+    /**
+     * @param columnNames columns whose changes alone do not cause an update to be accepted
+     * @return this filter, for chaining
+     */
+    public ChangeFilter ignoreColumns(String... columnNames) {
+        ignoredColumns.addAll(Arrays.asList(columnNames));
+        return this;
+    }
+
+    /**
+     * @param columnName the column to check
+     * @param value the value the column must have for the change to be accepted
+     * @return this filter, for chaining
+     */
+    public ChangeFilter requireValue(String columnName, Object value) {
+        requiredValues.put(columnName, value);
+        return this;
+    }
+
+    /**
+     * @param operation the operation of the change
+     * @param before the row prior to the change, or null if not available
+     * @param after the row after the change, or null if the row was deleted
+     * @return true if the change should be passed to the consumer
+     */
+    public boolean accept(Operation operation, Struct before, Struct after) {
+        if (!operations.contains(operation)) {
+            return false;
+        }
+        Struct row = (operation == Operation.DELETE ? before : after);
+        for (Map.Entry<String, Object> requiredValue : requiredValues.entrySet()) {
+            Field field = (row == null ? null : row.schema().field(requiredValue.getKey()));
+            if (field == null || !valueEquals(requiredValue.getValue(), row.get(field))) {
+                return false;
+            }
+        }
+        if (operation == Operation.UPDATE && before != null && after != null) {
+            for (Field field : after.schema().fields()) {
+                if (!ignoredColumns.contains(field.name())) {
+                    Field beforeField = before.schema().field(field.name());
+                    if (beforeField == null || !Objects.deepEquals(before.get(beforeField), after.get(field))) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Numbers are compared by value, and Booleans are equal to the numbers 1 and 0, as tinyint and bit columns may
+     * be represented by Debezium as Booleans, Shorts, or Integers depending on their type and the connector settings
+     */
+    protected boolean valueEquals(Object expected, Object actual) {
+        if (expected instanceof Boolean) {
+            expected = ((Boolean) expected) ? 1 : 0;
+        }
+        if (actual instanceof Boolean) {
+            actual = ((Boolean) actual) ? 1 : 0;
+        }
+        if (expected instanceof Number && actual instanceof Number) {
+            Number e = (Number) expected;
+            Number a = (Number) actual;
+            if (e instanceof Double || e instanceof Float || a instanceof Double || a instanceof Float) {
+                return e.doubleValue() == a.doubleValue();
+            }
+            return e.longValue() == a.longValue();
+        }
+        return Objects.equals(expected, actual == null ? null : (expected instanceof String ? actual.toString() : actual));
+    }
+}
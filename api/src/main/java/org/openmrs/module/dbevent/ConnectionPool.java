@@ -0,0 +1,388 @@
+package org.openmrs.module.dbevent;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * Simple bounded pool of database connections.  At most maxSize connections are open at any time, and callers wait
+ * up to maxWaitMillis for a connection to become available.  Connections returned to the pool are reused most
+ * recently used first, and connections that have been idle for longer than idleTimeoutMillis are closed by a
+ * background thread.  Connections handed out by the pool are returned to it when closed.
+ * When a connection is returned, any transaction is rolled back, and its read only, catalog, transaction isolation and
+ * holdability settings are restored.  A connection whose session state was changed in a way that cannot be restored,
+ * such as with a SET or USE statement, is closed rather than returned to the pool.
+ * Pools are shared by all Database instances with the same url, username and pool settings.
+ */
+public class ConnectionPool {
+
+    private static final Logger log = LogManager.getLogger(ConnectionPool.class);
+
+    private static final long VALIDATE_AFTER_IDLE_MILLIS = 5000;
+    private static final Pattern SESSION_STATEMENT = Pattern.compile("^\\s*(set|use)\\b", Pattern.CASE_INSENSITIVE);
+    private static final Map<String, ConnectionPool> pools = new ConcurrentHashMap<>();
+    private static ScheduledExecutorService evictor;
+
+    private final String name;
+    private final Callable<Connection> connectionFactory;
+    private final int maxSize;
+    private final long idleTimeoutMillis;
+    private final long maxWaitMillis;
+    private final Semaphore permits;
+    private final ConcurrentLinkedDeque<IdleConnection> idleConnections = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private final ScheduledFuture<?> evictionTask;
+    private volatile boolean closed = false;
+
+    public ConnectionPool(String name, Callable<Connection> connectionFactory, int maxSize,
+                          long idleTimeoutMillis, long maxWaitMillis) {
+        this.name = name;
+        this.connectionFactory = connectionFactory;
+        this.maxSize = maxSize;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.maxWaitMillis = maxWaitMillis;
+        this.permits = new Semaphore(maxSize, true);
+        long evictionInterval = Math.max(idleTimeoutMillis / 2, 1000);
+        this.evictionTask = getEvictor().scheduleWithFixedDelay(
+                this::evictIdleConnections, evictionInterval, evictionInterval, TimeUnit.MILLISECONDS
+        );
+    }
+
+    /**
+     * @param database the database to connect to
+     * @return the pool shared by all Database instances with the same url, username and pool settings, creating it if
+     * necessary
+     */
+    public static ConnectionPool getInstance(Database database) {
+        String key = database.getUrl() + "|" + database.getUsername() + "|" + database.getPoolMaxSize() + "|" +
+                database.getPoolIdleTimeoutSeconds() + "|" + database.getPoolMaxWaitSeconds() + "|" +
+                database.getPrepStmtCacheSize();
+        return pools.computeIfAbsent(key, k -> new ConnectionPool(
+                database.toString(),
+                database::openPhysicalConnection,
+                database.getPoolMaxSize(),
+                TimeUnit.SECONDS.toMillis(database.getPoolIdleTimeoutSeconds()),
+                TimeUnit.SECONDS.toMillis(database.getPoolMaxWaitSeconds()))
+        );
+    }
+
+    /**
+     * Closes all shared pools
+     */
+    public static void closeAll() {
+        for (Iterator<ConnectionPool> i = pools.values().iterator(); i.hasNext(); ) {
+            i.next().close();
+            i.remove();
+        }
+    }
+
+    /**
+     * @return a connection from the pool, opening a new connection if no idle connection is available
+     * @throws SQLException if no connection becomes available within maxWaitMillis, or a connection cannot be opened
+     */
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool " + name + " is closed");
+        }
+        try {
+            if (!permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLException("Timed out waiting for a connection from pool " + name + " after " + maxWaitMillis + " ms");
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for a connection from pool " + name, e);
+        }
+        try {
+            IdleConnection idle;
+            while ((idle = idleConnections.pollFirst()) != null) {
+                long idleMillis = System.currentTimeMillis() - idle.idleSince;
+                if (idleMillis < VALIDATE_AFTER_IDLE_MILLIS || isValid(idle.connection)) {
+                    return wrap(idle.connection);
+                }
+                closePhysical(idle.connection);
+            }
+            Connection connection = connectionFactory.call();
+            openConnections.incrementAndGet();
+            return wrap(connection);
+        }
+        catch (Exception e) {
+            permits.release();
+            throw (e instanceof SQLException ? (SQLException) e : new SQLException("Unable to open connection", e));
+        }
+    }
+
+    /**
+     * Closes any connections that have been idle for longer than the idle timeout
+     */
+    public void evictIdleConnections() {
+        long now = System.currentTimeMillis();
+        for (Iterator<IdleConnection> i = idleConnections.descendingIterator(); i.hasNext(); ) {
+            IdleConnection idle = i.next();
+            if (now - idle.idleSince >= idleTimeoutMillis && idleConnections.removeFirstOccurrence(idle)) {
+                log.debug("Closing connection idle for " + (now - idle.idleSince) + " ms in pool " + name);
+                closePhysical(idle.connection);
+            }
+        }
+    }
+
+    /**
+     * Closes all idle connections, and any connections subsequently returned to the pool
+     */
+    public void close() {
+        closed = true;
+        evictionTask.cancel(false);
+        IdleConnection idle;
+        while ((idle = idleConnections.pollFirst()) != null) {
+            closePhysical(idle.connection);
+        }
+    }
+
+    /**
+     * @return the number of connections currently open, both idle and in use
+     */
+    public int getOpenConnections() {
+        return openConnections.get();
+    }
+
+    /**
+     * @return the number of open connections that are not currently in use
+     */
+    public int getIdleConnections() {
+        return idleConnections.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the given connection to the pool, resetting any transaction state and restoring any changed settings.
+     * The connection is closed instead if the pool is closed, or its session state cannot be restored.
+     */
+    protected void release(PooledConnection pooledConnection) {
+        Connection connection = pooledConnection.connection;
+        try {
+            if (closed || connection.isClosed() || pooledConnection.sessionChanged) {
+                closePhysical(connection);
+            }
+            else {
+                if (!connection.getAutoCommit()) {
+                    connection.rollback();
+                    connection.setAutoCommit(true);
+                }
+                pooledConnection.restoreSettings();
+                idleConnections.addFirst(new IdleConnection(connection));
+            }
+        }
+        catch (Exception e) {
+            log.debug("Unable to return connection to pool " + name + ", closing", e);
+            closePhysical(connection);
+        }
+        finally {
+            permits.release();
+        }
+    }
+
+    private boolean isValid(Connection connection) {
+        try {
+            return connection.isValid(2);
+        }
+        catch (Exception e) {
+            return false;
+        }
+    }
+
+    private void closePhysical(Connection connection) {
+        openConnections.decrementAndGet();
+        try {
+            connection.close();
+        }
+        catch (Exception e) {
+            log.debug("An error occurred closing connection in pool " + name, e);
+        }
+    }
+
+    private Connection wrap(Connection connection) {
+        return (Connection) Proxy.newProxyInstance(
+                ConnectionPool.class.getClassLoader(), new Class<?>[] {Connection.class}, new PooledConnection(connection)
+        );
+    }
+
+    private static synchronized ScheduledExecutorService getEvictor() {
+        if (evictor == null) {
+            evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "dbevent-connection-pool-evictor");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return evictor;
+    }
+
+    /**
+     * A connection that has been returned to the pool, and the time at which it was returned
+     */
+    private static class IdleConnection {
+
+        private final Connection connection;
+        private final long idleSince = System.currentTimeMillis();
+
+        private IdleConnection(Connection connection) {
+            this.connection = connection;
+        }
+    }
+
+    /**
+     * Handles calls to a connection handed out by the pool, returning it to the pool rather than closing it.
+     * The original value of each setting that is changed is recorded so that it can be restored, and any statement
+     * that may change session state is detected so that the connection is not reused.
+     */
+    private class PooledConnection implements InvocationHandler {
+
+        private final Connection connection;
+        private final Map<String, Object> originalSettings = new HashMap<>(); // By the name of the setter
+        private volatile boolean closed = false;
+        private volatile boolean sessionChanged = false;
+
+        private PooledConnection(Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close": {
+                    if (!closed) {
+                        closed = true;
+                        release(this);
+                    }
+                    return null;
+                }
+                case "isClosed": {
+                    return closed || connection.isClosed();
+                }
+                case "equals": {
+                    return proxy == args[0];
+                }
+                case "hashCode": {
+                    return System.identityHashCode(proxy);
+                }
+                case "toString": {
+                    return "Pooled connection from " + name + (closed ? " (closed)" : "");
+                }
+            }
+            if (closed) {
+                throw new SQLException("Connection has been returned to the pool");
+            }
+            switch (method.getName()) {
+                case "setReadOnly": {
+                    recordOriginal(method.getName(), connection.isReadOnly());
+                    break;
+                }
+                case "setCatalog": {
+                    recordOriginal(method.getName(), connection.getCatalog());
+                    break;
+                }
+                case "setTransactionIsolation": {
+                    recordOriginal(method.getName(), connection.getTransactionIsolation());
+                    break;
+                }
+                case "setHoldability": {
+                    recordOriginal(method.getName(), connection.getHoldability());
+                    break;
+                }
+                case "setSchema":
+                case "setClientInfo":
+                case "setTypeMap": {
+                    sessionChanged = true;
+                    break;
+                }
+                case "prepareStatement":
+                case "prepareCall": {
+                    checkSql(args[0]);
+                    break;
+                }
+            }
+            Object ret = invokeTarget(connection, method, args);
+            if (ret instanceof Statement) {
+                return Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(), new Class<?>[] {method.getReturnType()},
+                        (statementProxy, statementMethod, statementArgs) -> {
+                            if (statementMethod.getName().equals("getConnection")) {
+                                return proxy;
+                            }
+                            if (statementArgs != null && statementArgs.length > 0 &&
+                                    (statementMethod.getName().startsWith("execute") || statementMethod.getName().equals("addBatch"))) {
+                                checkSql(statementArgs[0]);
+                            }
+                            return invokeTarget(ret, statementMethod, statementArgs);
+                        });
+            }
+            return ret;
+        }
+
+        private void recordOriginal(String setter, Object value) {
+            if (!originalSettings.containsKey(setter)) {
+                originalSettings.put(setter, value);
+            }
+        }
+
+        private void checkSql(Object sql) {
+            if (sql instanceof String && SESSION_STATEMENT.matcher((String) sql).find()) {
+                sessionChanged = true;
+            }
+        }
+
+        private void restoreSettings() throws SQLException {
+            for (Map.Entry<String, Object> entry : originalSettings.entrySet()) {
+                switch (entry.getKey()) {
+                    case "setReadOnly": {
+                        connection.setReadOnly((Boolean) entry.getValue());
+                        break;
+                    }
+                    case "setCatalog": {
+                        connection.setCatalog((String) entry.getValue());
+                        break;
+                    }
+                    case "setTransactionIsolation": {
+                        connection.setTransactionIsolation((Integer) entry.getValue());
+                        break;
+                    }
+                    case "setHoldability": {
+                        connection.setHoldability((Integer) entry.getValue());
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    private static Object invokeTarget(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        }
+        catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
@@ -1,8 +1,11 @@
 package org.openmrs.module.dbevent;
 
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.Setter;
 import org.apache.commons.dbutils.QueryRunner;
 import org.apache.commons.dbutils.ResultSetHandler;
+import org.apache.commons.lang.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -11,9 +14,16 @@ import java.sql.Connection;
 import java.sql.Driver;
 import java.sql.DriverManager;
 import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
 import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Represents metadata for a Database
@@ -30,11 +40,24 @@ public class Database implements Serializable {
     private String port;
     private String databaseName;
     private DatabaseMetadata metadata;
+    private int poolMaxSize = 10; // Set to 0 to disable connection pooling
+    private int poolIdleTimeoutSeconds = 300;
+    private int poolMaxWaitSeconds = 30;
+    private int prepStmtCacheSize = 250;
+    private String metadataLoaderType; // Set to "jdbc" to use the generic JDBC metadata loader with MySQL
+    private transient DatabaseMetadataLoader metadataLoader;
+    private transient DatabaseMetadataCache metadataCache; // If set, metadata is persisted between restarts
+    @Setter(AccessLevel.NONE) private transient List<DatabaseMetadataListener> metadataListeners = new CopyOnWriteArrayList<>();
 
     public Database(Properties properties) {
         this.url = properties.getProperty("connection.url");
         this.username = properties.getProperty("connection.username");
         this.password = properties.getProperty("connection.password");
+        this.poolMaxSize = getIntProperty(properties, "dbevent.pool.maxSize", poolMaxSize);
+        this.poolIdleTimeoutSeconds = getIntProperty(properties, "dbevent.pool.idleTimeoutSeconds", poolIdleTimeoutSeconds);
+        this.poolMaxWaitSeconds = getIntProperty(properties, "dbevent.pool.maxWaitSeconds", poolMaxWaitSeconds);
+        this.prepStmtCacheSize = getIntProperty(properties, "dbevent.pool.prepStmtCacheSize", prepStmtCacheSize);
+        this.metadataLoaderType = properties.getProperty("dbevent.metadata.loader");
         try {
             Driver driver = DriverManager.getDriver(url);
             for (DriverPropertyInfo driverPropertyInfo : driver.getPropertyInfo(url, null)) {
@@ -60,67 +83,152 @@ public class Database implements Serializable {
     }
 
     /**
-     * @return a new connection to the database specified in the runtime properties
+     * @return a connection to the database specified in the runtime properties.  Unless pooling is disabled, this is
+     * obtained from the ConnectionPool shared by all Database instances for this url, username and pool settings, and
+     * is returned to the pool when closed.
      */
     public Connection openConnection() {
         try {
-            return DriverManager.getConnection(url, username, password);
+            if (poolMaxSize > 0) {
+                return ConnectionPool.getInstance(this).getConnection();
+            }
+            return openPhysicalConnection();
         }
         catch (Exception e) {
             throw new RuntimeException("An error occurred opening a database connection", e);
         }
     }
 
+    /**
+     * @return a new, unpooled connection to the database specified in the runtime properties, with the
+     * prepared statement cache and batched statement rewriting of the driver enabled
+     */
+    public Connection openPhysicalConnection() throws SQLException {
+        Properties connectionProperties = new Properties();
+        if (username != null) {
+            connectionProperties.setProperty("user", username);
+        }
+        if (password != null) {
+            connectionProperties.setProperty("password", password);
+        }
+        if (prepStmtCacheSize > 0) {
+            connectionProperties.setProperty("cachePrepStmts", "true");
+            connectionProperties.setProperty("prepStmtCacheSize", Integer.toString(prepStmtCacheSize));
+            connectionProperties.setProperty("prepStmtCacheSqlLimit", "2048");
+        }
+        connectionProperties.setProperty("rewriteBatchedStatements", "true");
+        return DriverManager.getConnection(url, connectionProperties);
+    }
+
     /**
      * @return a DatabaseMetadata that contains information on the tables in the configured database
      */
     public synchronized DatabaseMetadata getMetadata() {
         if (metadata == null) {
-            metadata = new DatabaseMetadata();
-            metadata.setDatabaseName(databaseName);
+            DatabaseMetadataLoader loader = getMetadataLoader();
+            String source = "cache";
+            long startTime = System.currentTimeMillis();
             try (Connection connection = openConnection();) {
-                try (ResultSet tableRs = connection.getMetaData().getTables(databaseName, null, "%", new String[]{"TABLE"})) {
-                    while (tableRs.next()) {
-                        String tableName = tableRs.getString("TABLE_NAME").toLowerCase();
-                        DatabaseTable table = new DatabaseTable(databaseName, tableName);
-                        try (ResultSet columnRs = connection.getMetaData().getColumns(databaseName, null, tableName, "%")) {
-                            while (columnRs.next()) {
-                                String columnName = columnRs.getString("COLUMN_NAME").toLowerCase();
-                                boolean nullable = "YES".equals(columnRs.getString("IS_NULLABLE"));
-                                table.addColumn(new DatabaseColumn(databaseName, tableName, columnName, nullable));
-                            }
-                        }
-                        try (ResultSet pkRs = connection.getMetaData().getPrimaryKeys(databaseName, null, tableName)) {
-                            while (pkRs.next()) {
-                                String columnName = pkRs.getString("COLUMN_NAME").toLowerCase();
-                                table.getColumns().get(columnName).setPrimaryKey(true);
-                            }
-                        }
-                        metadata.addTable(table);
+                String fingerprint = null;
+                if (metadataCache != null) {
+                    fingerprint = loader.getSchemaFingerprint(connection, databaseName);
+                    if (fingerprint != null) {
+                        metadata = metadataCache.get(url, fingerprint);
                     }
                 }
-                for (DatabaseTable table : metadata.getTables().values()) {
-                    String tableName = table.getTableName();
-                    try (ResultSet fkRs = connection.getMetaData().getExportedKeys(databaseName, null, tableName)) {
-                        while (fkRs.next()) {
-                            String fkTableName = fkRs.getString("FKTABLE_NAME").toLowerCase();
-                            String fkColumnName = fkRs.getString("FKCOLUMN_NAME").toLowerCase();
-                            String pkColumnName = fkRs.getString("PKCOLUMN_NAME").toLowerCase();
-                            DatabaseColumn pkColumn = table.getColumns().get(pkColumnName);
-                            DatabaseTable fkTable = metadata.getTables().get(fkTableName);
-                            DatabaseColumn fkColumn = fkTable.getColumns().get(fkColumnName);
-                            pkColumn.getReferencedBy().add(fkColumn);
-                            fkColumn.getReferences().add(pkColumn);
-                        }
+                if (metadata == null) {
+                    source = loader.getClass().getSimpleName();
+                    metadata = loader.loadMetadata(connection, databaseName);
+                    if (fingerprint != null) {
+                        metadataCache.put(url, fingerprint, metadata);
                     }
                 }
             } catch (Exception e) {
                 throw new RuntimeException("Unable to retrieve included tables", e);
             }
+            log.debug("Loaded metadata for " + metadata.getTables().size() + " tables from " + source +
+                    " in " + (System.currentTimeMillis() - startTime) + " ms");
         }
         return metadata;
     }
 
+    /**
+     * Reloads the given tables in the loaded metadata, if any, and notifies all registered listeners of the change.
+     * This is used to keep the metadata up-to-date as schema changes are received from an event source.
+     * The tables are reloaded into a copy of the metadata, which then replaces it, so that other threads that are
+     * reading the existing metadata never see it partially updated.  Callers should therefore get the metadata from
+     * this Database each time it is needed, rather than holding on to it.
+     * @param tableNames the names of the tables that have been added, changed, or removed
+     */
+    public void refreshTables(Collection<String> tableNames) {
+        Set<String> tables = new TreeSet<>();
+        tableNames.forEach(t -> tables.add(t.toLowerCase()));
+        DatabaseMetadata updatedMetadata;
+        synchronized (this) {
+            if (metadata == null || tables.isEmpty()) {
+                return; // Metadata is loaded with the current schema when first needed
+            }
+            DatabaseMetadataLoader loader = getMetadataLoader();
+            updatedMetadata = metadata.copy();
+            try (Connection connection = openConnection();) {
+                loader.reloadTables(connection, updatedMetadata, tables);
+                if (metadataCache != null) {
+                    String fingerprint = loader.getSchemaFingerprint(connection, databaseName);
+                    if (fingerprint != null) {
+                        metadataCache.put(url, fingerprint, updatedMetadata);
+                    }
+                }
+            }
+            catch (Exception e) {
+                throw new RuntimeException("Unable to reload tables " + tables, e);
+            }
+            metadata = updatedMetadata;
+        }
+        log.debug("Reloaded metadata for tables " + tables);
+        for (DatabaseMetadataListener listener : getMetadataListeners()) {
+            listener.tablesChanged(updatedMetadata, tables);
+        }
+    }
+
+    /**
+     * @param listener to be notified whenever tables are reloaded
+     */
+    public void addMetadataListener(DatabaseMetadataListener listener) {
+        getMetadataListeners().add(listener);
+    }
+
+    /**
+     * @param listener to no longer be notified when tables are reloaded
+     */
+    public void removeMetadataListener(DatabaseMetadataListener listener) {
+        getMetadataListeners().remove(listener);
+    }
+
+    private synchronized List<DatabaseMetadataListener> getMetadataListeners() {
+        if (metadataListeners == null) {
+            metadataListeners = new CopyOnWriteArrayList<>(); // If deserialized
+        }
+        return metadataListeners;
+    }
+
+    /**
+     * @return the loader to use for metadata.  Unless set explicitly or configured with the dbevent.metadata.loader
+     * runtime property, this is the information_schema loader for MySQL and MariaDB urls, and the generic JDBC
+     * loader for any other database
+     */
+    public DatabaseMetadataLoader getMetadataLoader() {
+        if (metadataLoader == null) {
+            boolean mysql = url != null && (url.startsWith("jdbc:mysql:") || url.startsWith("jdbc:mariadb:"));
+            if ("jdbc".equalsIgnoreCase(metadataLoaderType) || (StringUtils.isBlank(metadataLoaderType) && !mysql)) {
+                metadataLoader = new JdbcDatabaseMetadataLoader();
+            }
+            else {
+                metadataLoader = new MysqlDatabaseMetadataLoader();
+            }
+        }
+        return metadataLoader;
+    }
+
     /**
      * Executes the given statement with parameter values against the database specified in the runtime properties
      * @param sql the statement to execute
@@ -154,6 +262,71 @@ public class Database implements Serializable {
         }
     }
 
+    /**
+     * Executes the given statement once for each of the given rows of parameter values, using JDBC batching in a
+     * single transaction.  The driver rewrites batched inserts into multi-row statements, so that many rows are
+     * written in each round trip.
+     * @param sql the statement to execute
+     * @param rows the values for each parameter in the statement, for each execution
+     * @return the number of rows updated by each execution, as reported by the driver
+     */
+    public int[] executeBatch(String sql, List<Object[]> rows) {
+        if (log.isTraceEnabled()) {
+            log.trace(sql + " (" + rows.size() + " rows)");
+        }
+        if (rows.isEmpty()) {
+            return new int[0];
+        }
+        try (Connection conn = openConnection(); ) {
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            try {
+                QueryRunner qr = new QueryRunner();
+                int[] ret = qr.batch(conn, sql, rows.toArray(new Object[0][]));
+                conn.commit();
+                return ret;
+            }
+            catch (Exception e) {
+                conn.rollback();
+                throw e;
+            }
+            finally {
+                conn.setAutoCommit(autoCommit);
+            }
+        }
+        catch (Exception e) {
+            throw new RuntimeException("An error occurred executing batch statement " + sql, e);
+        }
+    }
+
+    /**
+     * Executes the given query with parameter values, passing each row to the given handler as it is read.
+     * Rows are streamed from the server rather than buffered, so that large results are processed in constant memory.
+     * The connection is dedicated to the query until all rows have been read, so handlers should not block for long.
+     * @param sql the query to execute
+     * @param handler the handler to pass each row to
+     * @param values the values for each parameter in the query
+     * @return the number of rows handled
+     */
+    public long executeStreamingQuery(String sql, RowHandler handler, Object... values) {
+        try (Connection conn = openConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            stmt.setFetchSize(Integer.MIN_VALUE); // Instructs the MySQL driver to stream results row by row
+            new QueryRunner().fillStatement(stmt, values);
+            long numRows = 0;
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    handler.handleRow(rs);
+                    numRows++;
+                }
+            }
+            return numRows;
+        }
+        catch (Exception e) {
+            throw new RuntimeException("An error occurred executing streaming query " + sql, e);
+        }
+    }
+
     /**
      * Closes the given database connection, logging a warning if an exception is thrown
      * @param connection to close
@@ -167,6 +340,11 @@ public class Database implements Serializable {
         }
     }
 
+    private static int getIntProperty(Properties properties, String key, int defaultValue) {
+        String value = properties.getProperty(key);
+        return StringUtils.isBlank(value) ? defaultValue : Integer.parseInt(value.trim());
+    }
+
     @Override
     public String toString() {
         return url;
@@ -0,0 +1,226 @@
+package org.openmrs.module.dbevent;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Immutable index of the foreign key graph of a DatabaseMetadata, built once when first needed.  Each table is
+ * assigned an integer id, and the foreign key joins from each table and the tables that reference each table are held
+ * in arrays indexed by these ids, so that traversals do not allocate new collections at each step.
+ * The results of these traversals are the same as computing these directly from the DatabaseTable and DatabaseColumn
+ * references, but reachability is computed with a breadth-first search, and join paths are only followed through
+ * tables from which the target column can be reached.  The distances to each target column and the patient table names
+ * are computed once and retained, as the graph does not change.
+ */
+public class DatabaseGraph {
+
+    public static final String[] PATIENT_EXCLUDED_TABLES = {"users", "provider"};
+
+    private final DatabaseMetadata metadata;
+    private final String[] tableNames;
+    private final Map<String, Integer> tableIds;
+    private final DatabaseJoin[][] joins; // The foreign key joins from each table, in column order
+    private final int[][] joinTargets; // The id of the primary key table of each join from each table
+    private final int[][] referencedBy; // The ids of the tables that reference each table
+    private final Map<String, int[]> distancesToColumns = new ConcurrentHashMap<>();
+    private Set<String> patientTableNames;
+
+    public DatabaseGraph(DatabaseMetadata metadata) {
+        this.metadata = metadata;
+        int numTables = metadata.getTables().size();
+        tableNames = metadata.getTables().keySet().toArray(new String[0]);
+        tableIds = new HashMap<>(numTables * 2);
+        for (int i = 0; i < numTables; i++) {
+            tableIds.put(tableNames[i], i);
+        }
+        joins = new DatabaseJoin[numTables][];
+        joinTargets = new int[numTables][];
+        List<Set<Integer>> referencingTables = new ArrayList<>(numTables);
+        for (int i = 0; i < numTables; i++) {
+            referencingTables.add(new TreeSet<>());
+        }
+        for (int i = 0; i < numTables; i++) {
+            List<DatabaseJoin> tableJoins = metadata.getTable(tableNames[i]).getForeignKeyReferences();
+            joins[i] = tableJoins.toArray(new DatabaseJoin[0]);
+            joinTargets[i] = new int[joins[i].length];
+            for (int j = 0; j < joins[i].length; j++) {
+                Integer target = tableIds.get(joins[i][j].getPrimaryKey().getTableName());
+                joinTargets[i][j] = (target == null ? -1 : target);
+                if (target != null) {
+                    referencingTables.get(target).add(i);
+                }
+            }
+        }
+        referencedBy = new int[numTables][];
+        for (int i = 0; i < numTables; i++) {
+            referencedBy[i] = referencingTables.get(i).stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+
+    /**
+     * @see DatabaseMetadata#getTablesWithReferencesTo(String, String...)
+     */
+    public Set<String> getTablesWithReferencesTo(String tableName, String... excludedTables) {
+        Set<String> ret = new TreeSet<>();
+        Integer start = tableIds.get(tableName);
+        if (start == null) {
+            return ret;
+        }
+        boolean[] visited = toTableFlags(Arrays.asList(excludedTables));
+        Deque<Integer> queue = new ArrayDeque<>();
+        queue.add(start);
+        while (!queue.isEmpty()) {
+            for (int referencingTable : referencedBy[queue.poll()]) {
+                if (!visited[referencingTable]) {
+                    visited[referencingTable] = true;
+                    ret.add(tableNames[referencingTable]);
+                    queue.add(referencingTable);
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return the patient table names, which are computed once and cannot be modified
+     * @see DatabaseMetadata#getPatientTableNames()
+     */
+    public synchronized Set<String> getPatientTableNames() {
+        if (patientTableNames == null) {
+            Set<String> ret = getTablesWithReferencesTo("person", PATIENT_EXCLUDED_TABLES);
+            ret.add("person");
+            patientTableNames = Collections.unmodifiableSet(ret);
+        }
+        return patientTableNames;
+    }
+
+    /**
+     * @see DatabaseMetadata#getPathsToColumn(DatabaseTable, DatabaseColumn, List)
+     */
+    public List<DatabaseJoinPath> getPathsToColumn(DatabaseTable fromTable, DatabaseColumn toColumn, Collection<String> tablesToExclude) {
+        Integer start = tableIds.get(fromTable.getTableName());
+        if (start == null) {
+            return new ArrayList<>();
+        }
+        boolean[] excluded = toTableFlags(tablesToExclude);
+        String distancesKey = toColumn.getTableAndColumn() + new TreeSet<>(tablesToExclude);
+        int[] distances = distancesToColumns.computeIfAbsent(distancesKey, k -> getDistancesToColumn(toColumn, excluded));
+        if (distances[start] == Integer.MAX_VALUE) {
+            return new ArrayList<>();
+        }
+        return collectPaths(start, toColumn, excluded, distances);
+    }
+
+    /**
+     * Returns the paths from the given table to the given column that do not pass through any excluded table.
+     * The given table is excluded while the paths from it are collected.  Of the paths found, if any of the shortest
+     * are non-nullable, only these are returned, otherwise all are returned.  This is applied at each step, as the
+     * paths from each referenced table are collected.  Tables from which the column cannot be reached are not followed.
+     */
+    protected List<DatabaseJoinPath> collectPaths(int table, DatabaseColumn toColumn, boolean[] excluded, int[] distances) {
+        boolean wasExcluded = excluded[table];
+        excluded[table] = true;
+        List<DatabaseJoinPath> allPaths = new ArrayList<>();
+        int minPathSize = Integer.MAX_VALUE;
+        for (int j = 0; j < joins[table].length; j++) {
+            DatabaseJoin join = joins[table][j];
+            int target = joinTargets[table][j];
+            if (target < 0 || excluded[target]) {
+                continue;
+            }
+            if (join.getPrimaryKey().equals(toColumn)) {
+                DatabaseJoinPath path = new DatabaseJoinPath();
+                path.add(join);
+                allPaths.add(path);
+                minPathSize = Math.min(minPathSize, path.size());
+            }
+            else if (distances[target] != Integer.MAX_VALUE) {
+                for (DatabaseJoinPath pathFromTarget : collectPaths(target, toColumn, excluded, distances)) {
+                    DatabaseJoinPath path = new DatabaseJoinPath();
+                    path.add(join);
+                    path.addAll(pathFromTarget);
+                    allPaths.add(path);
+                    minPathSize = Math.min(minPathSize, path.size());
+                }
+            }
+        }
+        excluded[table] = wasExcluded;
+        List<DatabaseJoinPath> shortestNonNullablePaths = new ArrayList<>();
+        for (DatabaseJoinPath path : allPaths) {
+            if (path.size() == minPathSize && !path.isNullable()) {
+                shortestNonNullablePaths.add(path);
+            }
+        }
+        return shortestNonNullablePaths.isEmpty() ? allPaths : shortestNonNullablePaths;
+    }
+
+    /**
+     * @return the minimum number of joins from each table to the given column, not passing through any excluded
+     * tables, or Integer.MAX_VALUE if the column cannot be reached from the table.  No table can reach a column whose
+     * table is excluded or not in this graph.  This is computed with a breadth-first search outwards from the tables
+     * that reference the given column.
+     */
+    protected int[] getDistancesToColumn(DatabaseColumn toColumn, boolean[] excluded) {
+        int[] distances = new int[tableNames.length];
+        Arrays.fill(distances, Integer.MAX_VALUE);
+        int toTable = tableIdOf(toColumn);
+        if (toTable < 0 || excluded[toTable]) {
+            return distances;
+        }
+        Deque<Integer> queue = new ArrayDeque<>();
+        for (int i = 0; i < tableNames.length; i++) {
+            for (DatabaseJoin join : joins[i]) {
+                if (join.getPrimaryKey().equals(toColumn) && distances[i] != 1) {
+                    distances[i] = 1;
+                    queue.add(i);
+                }
+            }
+        }
+        while (!queue.isEmpty()) {
+            int table = queue.poll();
+            if (excluded[table]) {
+                continue; // Excluded tables cannot be passed through
+            }
+            for (int referencingTable : referencedBy[table]) {
+                if (distances[referencingTable] == Integer.MAX_VALUE) {
+                    distances[referencingTable] = distances[table] + 1;
+                    queue.add(referencingTable);
+                }
+            }
+        }
+        return distances;
+    }
+
+    /**
+     * @return the metadata that this graph indexes
+     */
+    public DatabaseMetadata getMetadata() {
+        return metadata;
+    }
+
+    private int tableIdOf(DatabaseColumn column) {
+        Integer id = tableIds.get(column.getTableName());
+        return id == null ? -1 : id;
+    }
+
+    private boolean[] toTableFlags(Collection<String> tables) {
+        boolean[] ret = new boolean[tableNames.length];
+        for (String table : tables) {
+            Integer id = tableIds.get(table);
+            if (id != null) {
+                ret[id] = true;
+            }
+        }
+        return ret;
+    }
+}
@@ -1,15 +1,16 @@
 package org.openmrs.module.dbevent;
 
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Setter;
+import lombok.ToString;
 
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
 
 /**
  * Represents metadata for a Database
@@ -20,12 +21,86 @@ public class DatabaseMetadata implements Serializable {
     private String databaseName;
     private Map<String, DatabaseTable> tables = new LinkedHashMap<>();
 
+    @Setter(AccessLevel.NONE) @ToString.Exclude @EqualsAndHashCode.Exclude
+    private transient DatabaseGraph graph;
+
     /**
      * Convenience method to add a table to the metadata
      * @param table the table to add
      */
-    public void addTable(DatabaseTable table) {
+    public synchronized void addTable(DatabaseTable table) {
         tables.put(table.getTableName(), table);
+        graph = null;
+    }
+
+    /**
+     * Replaces the table with the given name, retaining its position, or removes it if the given table is null.
+     * All foreign key references to and from the columns of the existing table are removed from the other tables,
+     * so these need to be added again for the new table with addReference.
+     * @param tableName the name of the table to replace
+     * @param table the new table, or null to remove the table
+     */
+    public synchronized void replaceTable(String tableName, DatabaseTable table) {
+        graph = null;
+        DatabaseTable existing = tables.get(tableName);
+        if (existing != null) {
+            for (DatabaseColumn column : existing.getColumns().values()) {
+                for (DatabaseColumn reference : column.getReferences()) {
+                    reference.getReferencedBy().remove(column);
+                }
+                for (DatabaseColumn dependentColumn : column.getReferencedBy()) {
+                    dependentColumn.getReferences().remove(column);
+                }
+            }
+        }
+        if (table == null) {
+            tables.remove(tableName);
+        }
+        else {
+            tables.put(tableName, table);
+        }
+    }
+
+    /**
+     * Adds a foreign key reference between the given columns, if both exist
+     * @return true if both columns exist and the reference was added
+     */
+    public synchronized boolean addReference(String fkTableName, String fkColumnName, String pkTableName, String pkColumnName) {
+        DatabaseColumn fkColumn = getColumn(fkTableName, fkColumnName);
+        DatabaseColumn pkColumn = getColumn(pkTableName, pkColumnName);
+        if (fkColumn == null || pkColumn == null) {
+            return false;
+        }
+        pkColumn.getReferencedBy().add(fkColumn);
+        fkColumn.getReferences().add(pkColumn);
+        graph = null;
+        return true;
+    }
+
+    /**
+     * @return a copy of this metadata, with new tables and columns that have the same foreign key references between
+     * them, which can be changed without affecting any threads that are reading this metadata
+     */
+    public synchronized DatabaseMetadata copy() {
+        DatabaseMetadata ret = new DatabaseMetadata();
+        ret.setDatabaseName(databaseName);
+        for (DatabaseTable table : tables.values()) {
+            DatabaseTable tableCopy = new DatabaseTable(table.getDatabaseName(), table.getTableName());
+            for (DatabaseColumn column : table.getColumns().values()) {
+                DatabaseColumn columnCopy = new DatabaseColumn(column.getDatabaseName(), column.getTableName(), column.getColumnName(), column.isNullable());
+                columnCopy.setPrimaryKey(column.isPrimaryKey());
+                tableCopy.addColumn(columnCopy);
+            }
+            ret.addTable(tableCopy);
+        }
+        for (DatabaseTable table : tables.values()) {
+            for (DatabaseColumn column : table.getColumns().values()) {
+                for (DatabaseColumn reference : column.getReferences()) {
+                    ret.addReference(column.getTableName(), column.getColumnName(), reference.getTableName(), reference.getColumnName());
+                }
+            }
+        }
+        return ret;
     }
 
     /**
@@ -41,32 +116,17 @@ public class DatabaseMetadata implements Serializable {
      * @return all tables directly or indirectly referenced by the given table, but not excluded
      */
     public Set<String> getTablesWithReferencesTo(String tableName, String... excludedTables) {
-        Set<String> ret = new TreeSet<>();
-        DatabaseTable table = tables.get(tableName);
-        if (table != null) {
-            ret.addAll(table.getTablesReferencedBy());
-            Arrays.asList(excludedTables).forEach(ret::remove);
-            List<String> nestedTables = new ArrayList<>(ret);
-            for (String nestedTable : nestedTables) {
-                List<String> nestedExclusions = new ArrayList<>(Arrays.asList(excludedTables));
-                nestedExclusions.addAll(ret);
-                ret.addAll(getTablesWithReferencesTo(nestedTable, nestedExclusions.toArray(new String[0])));
-            }
-        }
-        return ret;
+        return getGraph().getTablesWithReferencesTo(tableName, excludedTables);
     }
 
     /**
      * Returns all tables related to patient data in the system.  This is based on all tables with person-related
      * data but which is not user-specific or provider-specific data.
-     * @return all tables that relate to a patient
+     * @return all tables that relate to a patient, which are computed once for the current graph and cannot be modified
      * @see DatabaseMetadata#getTablesWithReferencesTo(String, String...)
      */
     public Set<String> getPatientTableNames() {
-        String[] excludedTables = {"users", "provider"};
-        Set<String> ret = new TreeSet<>(getTablesWithReferencesTo("person", excludedTables));
-        ret.add("person");
-        return ret;
+        return getGraph().getPatientTableNames();
     }
 
     /**
@@ -78,47 +138,18 @@ public class DatabaseMetadata implements Serializable {
      * @return the List of DatabaseJoinPaths from the given table to the given column
      */
     public List<DatabaseJoinPath> getPathsToColumn(DatabaseTable fromTable, DatabaseColumn toColumn, List<String> tablesToExclude) {
+        return getGraph().getPathsToColumn(fromTable, toColumn, tablesToExclude);
+    }
 
-        // Ensure the exclusions list includes the current table for this and recursive invocations
-        List<String> exclusions = new ArrayList<>(tablesToExclude);
-        exclusions.add(fromTable.getTableName());
-
-        // Collect all join pathways
-        List<DatabaseJoinPath> allPaths = new ArrayList<>();
-        Integer minPathSize = null;
-        for (DatabaseJoin join : fromTable.getForeignKeyReferences()) {
-            if (!exclusions.contains(join.getPrimaryKey().getTableName())) {
-                DatabaseJoinPath path = new DatabaseJoinPath();
-                path.add(join);
-                if (join.getPrimaryKey().equals(toColumn)) {
-                    allPaths.add(path);
-                    minPathSize = (minPathSize == null || minPathSize > path.size() ? path.size() : minPathSize);
-                } else {
-                    DatabaseTable refTable = getTable(join.getPrimaryKey().getTableName());
-                    List<DatabaseJoinPath> pathsFromRef = getPathsToColumn(refTable, toColumn, exclusions);
-                    for (DatabaseJoinPath pathFromRef : pathsFromRef) {
-                        DatabaseJoinPath refPath = path.clone();
-                        refPath.addAll(pathFromRef);
-                        allPaths.add(refPath);
-                        minPathSize = (minPathSize == null || minPathSize > refPath.size() ? refPath.size() : minPathSize);
-                    }
-                }
-            }
-        }
-
-        // Identify if there are any non-nullable paths.  If so, return all that have the shortest length
-        List<DatabaseJoinPath> shortestNonNullablePaths = new ArrayList<>();
-        for (DatabaseJoinPath path : allPaths) {
-            if (path.size() == minPathSize && !path.isNullable()) {
-                shortestNonNullablePaths.add(path);
-            }
-        }
-
-        if (!shortestNonNullablePaths.isEmpty()) {
-            return shortestNonNullablePaths;
+    /**
+     * @return the index of the foreign key graph of this metadata, which is built when first needed, and built again
+     * after any tables or references are added or replaced
+     */
+    public synchronized DatabaseGraph getGraph() {
+        if (graph == null) {
+            graph = new DatabaseGraph(this);
         }
-
-        return allPaths;
+        return graph;
     }
 
     /**
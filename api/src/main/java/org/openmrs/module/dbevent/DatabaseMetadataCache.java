@@ -0,0 +1,141 @@
+package org.openmrs.module.dbevent;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Persists DatabaseMetadata to files in a directory, one per connection url, along with the schema fingerprint it was
+ * loaded with.  The metadata is only returned if the fingerprint still matches, so that a restart can skip metadata
+ * introspection unless the schema has changed.  Metadata is written in a flat form, as tables, columns and foreign
+ * keys, as the column reference graph is too deeply nested to serialize directly.
+ */
+public class DatabaseMetadataCache {
+
+    private static final Logger log = LogManager.getLogger(DatabaseMetadataCache.class);
+
+    private final File directory;
+    private final Serializer serializer = new BinarySerializer();
+
+    public DatabaseMetadataCache(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @param url the connection url of the database
+     * @param fingerprint the current schema fingerprint of the database
+     * @return the persisted metadata for the given url if it was stored with the given fingerprint, otherwise null
+     */
+    public DatabaseMetadata get(String url, String fingerprint) {
+        File file = getFile(url);
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            List<Object> cached = serializer.deserialize(FileUtils.readFileToByteArray(file));
+            if (!fingerprint.equals(cached.get(0))) {
+                log.debug("Schema fingerprint has changed, not using cached metadata for " + url);
+                return null;
+            }
+            return fromList(cached);
+        }
+        catch (Exception e) {
+            log.warn("Unable to read cached metadata from " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Persists the given metadata for the given url and fingerprint, replacing any previously persisted metadata
+     * @param url the connection url of the database
+     * @param fingerprint the schema fingerprint of the database at the time the metadata was loaded
+     * @param metadata the metadata to persist
+     */
+    public void put(String url, String fingerprint, DatabaseMetadata metadata) {
+        File file = getFile(url);
+        File tmpFile = new File(directory, file.getName() + ".tmp");
+        try {
+            FileUtils.writeByteArrayToFile(tmpFile, serializer.serialize(toList(fingerprint, metadata)));
+            FileUtils.deleteQuietly(file);
+            FileUtils.moveFile(tmpFile, file);
+        }
+        catch (Exception e) {
+            log.warn("Unable to write cached metadata to " + file, e);
+            FileUtils.deleteQuietly(tmpFile);
+        }
+    }
+
+    /**
+     * Removes any persisted metadata for the given url
+     * @param url the connection url of the database
+     */
+    public void remove(String url) {
+        FileUtils.deleteQuietly(getFile(url));
+    }
+
+    protected File getFile(String url) {
+        return new File(directory, UUID.nameUUIDFromBytes(url.getBytes(StandardCharsets.UTF_8)) + ".dat");
+    }
+
+    /**
+     * @return a list of fingerprint, database name, tables as [name, [column, nullable, primaryKey]...], and
+     * foreign keys as [fkTable, fkColumn, pkTable, pkColumn]
+     */
+    protected ArrayList<Object> toList(String fingerprint, DatabaseMetadata metadata) {
+        ArrayList<Object> tables = new ArrayList<>();
+        ArrayList<Object> foreignKeys = new ArrayList<>();
+        for (DatabaseTable table : metadata.getTables().values()) {
+            ArrayList<Object> tableList = new ArrayList<>();
+            tableList.add(table.getTableName());
+            for (DatabaseColumn column : table.getColumns().values()) {
+                tableList.add(column.getColumnName());
+                tableList.add(column.isNullable());
+                tableList.add(column.isPrimaryKey());
+                for (DatabaseColumn reference : column.getReferences()) {
+                    foreignKeys.add(column.getTableName());
+                    foreignKeys.add(column.getColumnName());
+                    foreignKeys.add(reference.getTableName());
+                    foreignKeys.add(reference.getColumnName());
+                }
+            }
+            tables.add(tableList);
+        }
+        ArrayList<Object> ret = new ArrayList<>();
+        ret.add(fingerprint);
+        ret.add(metadata.getDatabaseName());
+        ret.add(tables);
+        ret.add(foreignKeys);
+        return ret;
+    }
+
+    @SuppressWarnings("unchecked")
+    protected DatabaseMetadata fromList(List<Object> cached) {
+        DatabaseMetadata metadata = new DatabaseMetadata();
+        String databaseName = (String) cached.get(1);
+        metadata.setDatabaseName(databaseName);
+        for (Object tableObject : (List<Object>) cached.get(2)) {
+            List<Object> tableList = (List<Object>) tableObject;
+            DatabaseTable table = new DatabaseTable(databaseName, (String) tableList.get(0));
+            for (int i = 1; i < tableList.size(); i += 3) {
+                DatabaseColumn column = new DatabaseColumn(databaseName, table.getTableName(), (String) tableList.get(i), (Boolean) tableList.get(i + 1));
+                column.setPrimaryKey((Boolean) tableList.get(i + 2));
+                table.addColumn(column);
+            }
+            metadata.addTable(table);
+        }
+        List<Object> foreignKeys = (List<Object>) cached.get(3);
+        for (int i = 0; i < foreignKeys.size(); i += 4) {
+            DatabaseColumn fkColumn = metadata.getColumn((String) foreignKeys.get(i), (String) foreignKeys.get(i + 1));
+            DatabaseColumn pkColumn = metadata.getColumn((String) foreignKeys.get(i + 2), (String) foreignKeys.get(i + 3));
+            fkColumn.getReferences().add(pkColumn);
+            pkColumn.getReferencedBy().add(fkColumn);
+        }
+        return metadata;
+    }
+}
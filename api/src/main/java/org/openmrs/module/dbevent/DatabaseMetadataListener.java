@@ -0,0 +1,18 @@
+package org.openmrs.module.dbevent;
+
+import java.util.Set;
+
+/**
+ * Implementations are notified when tables in the DatabaseMetadata of a Database are reloaded, so that anything
+ * derived from the metadata for those tables can be invalidated
+ * @see Database#refreshTables(java.util.Collection)
+ */
+@FunctionalInterface
+public interface DatabaseMetadataListener {
+
+    /**
+     * @param metadata the updated metadata
+     * @param tableNames the names of the tables that were added, changed, or removed
+     */
+    void tablesChanged(DatabaseMetadata metadata, Set<String> tableNames);
+}
@@ -0,0 +1,37 @@
+package org.openmrs.module.dbevent;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collection;
+
+/**
+ * Loads the DatabaseMetadata for a database, including tables, columns, primary keys, and foreign key references
+ */
+public interface DatabaseMetadataLoader {
+
+    /**
+     * @param connection the connection to use to query the database
+     * @param databaseName the name of the database to load
+     * @return the DatabaseMetadata for all base tables in the given database
+     */
+    DatabaseMetadata loadMetadata(Connection connection, String databaseName) throws SQLException;
+
+    /**
+     * Reloads the given tables into the given metadata, replacing their columns and the foreign key references to and
+     * from them.  Tables that no longer exist are removed, and new tables are added.
+     * @param connection the connection to use to query the database
+     * @param metadata the metadata to update
+     * @param tableNames the names of the tables to reload
+     */
+    void reloadTables(Connection connection, DatabaseMetadata metadata, Collection<String> tableNames) throws SQLException;
+
+    /**
+     * @param connection the connection to use to query the database
+     * @param databaseName the name of the database
+     * @return a value that changes whenever the tables, columns, or keys of the given database change, or null if
+     * this loader is unable to compute one cheaply, in which case metadata is not persisted between restarts
+     */
+    default String getSchemaFingerprint(Connection connection, String databaseName) throws SQLException {
+        return null;
+    }
+}
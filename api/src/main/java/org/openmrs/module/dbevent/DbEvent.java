@@ -1,60 +1,223 @@
 package org.openmrs.module.dbevent;
 
 import io.debezium.engine.ChangeEvent;
-import lombok.Data;
+import lombok.Getter;
+import org.apache.kafka.connect.data.Field;
 import org.apache.kafka.connect.data.Struct;
 import org.apache.kafka.connect.source.SourceRecord;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.Objects;
 
 /**
  * Represents a Database Change Event
+ * The table, operation, timestamp, and source name are decoded when the event is constructed.  The key, before, after,
+ * and source values are read directly from the underlying Struct when requested with getValue, and are only
+ * materialized into compact RowMaps the first time they are requested with getKey, getBefore, getAfter, getValues or getSource
+ * Values from other tables may be attached as enrichments before the event is passed to the consumer.  If enrichment
+ * fails and the RetryPolicy is exhausted, the event is passed to the consumer marked with isEnrichmentFailed.
  */
-@Data
 public class DbEvent implements Serializable {
 
-    private final ChangeEvent<SourceRecord, SourceRecord> changeEvent;
-    private final Long timestamp;
-    private final String sourceName;
-    private final String table;
-    private final Operation operation;
-    private final ObjectMap key;
-    private final ObjectMap before;
-    private final ObjectMap after;
-    private final ObjectMap values;
-    private final ObjectMap source;
+    @Getter private transient ChangeEvent<SourceRecord, SourceRecord> changeEvent;
+    @Getter private final Long timestamp;
+    @Getter private final String sourceName;
+    @Getter private final String table;
+    @Getter private final Operation operation;
+
+    private transient Struct keyStruct;
+    private transient Struct beforeStruct;
+    private transient Struct afterStruct;
+    private transient Struct sourceStruct;
+
+    private ObjectMap key;
+    private ObjectMap before;
+    private ObjectMap after;
+    private ObjectMap source;
+    private ObjectMap enrichments;
+    private boolean enrichmentFailed;
 
     /**
-     * Constructor that creates a DbEvent from a Debezium ChangeEvent.
-     * Note, that if tombstones are enabled, this will need to become null-safe on record.getValue()
+     * Constructor that creates a DbEvent from a Debezium ChangeEvent, retaining a reference to the ChangeEvent
      * @param changeEvent the Debezium ChangeEvent
      */
     public DbEvent(ChangeEvent<SourceRecord, SourceRecord> changeEvent) {
+        this(changeEvent.value());
         this.changeEvent = changeEvent;
+    }
+
+    /**
+     * Constructor that creates a DbEvent from the SourceRecord of a Debezium ChangeEvent.
+     * Note, that if tombstones are enabled, this will need to become null-safe on record.getValue()
+     * @param record the SourceRecord
+     */
+    public DbEvent(SourceRecord record) {
         try {
-            SourceRecord record = changeEvent.value();
-            key = new ObjectMap((Struct) record.key());
+            keyStruct = (Struct) record.key();
             Struct valueStruct = (Struct) record.value();
             timestamp = valueStruct.getInt64("ts_ms");
             operation = Operation.parse(valueStruct.getString("op"));
-            before = new ObjectMap(valueStruct.getStruct("before"));
-            after = new ObjectMap(valueStruct.getStruct("after"));
-            values = (operation == Operation.DELETE ? before : after);
-            source = new ObjectMap(valueStruct.getStruct("source"));
-            table = source.getString("table");
-            sourceName = source.getString("name");
+            beforeStruct = valueStruct.getStruct("before");
+            afterStruct = valueStruct.getStruct("after");
+            sourceStruct = valueStruct.getStruct("source");
+            table = sourceStruct.getString("table");
+            sourceName = sourceStruct.getString("name");
         }
         catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * @return the primary key values of the row
+     */
+    public ObjectMap getKey() {
+        if (key == null) {
+            key = new RowMap(keyStruct);
+        }
+        return key;
+    }
+
+    /**
+     * @return the values of the row prior to the change
+     */
+    public ObjectMap getBefore() {
+        if (before == null) {
+            before = new RowMap(beforeStruct);
+        }
+        return before;
+    }
+
+    /**
+     * @return the values of the row after the change
+     */
+    public ObjectMap getAfter() {
+        if (after == null) {
+            after = new RowMap(afterStruct);
+        }
+        return after;
+    }
+
+    /**
+     * @return the values of the row after the change, or prior to the change if the row was deleted
+     */
+    public ObjectMap getValues() {
+        return operation == Operation.DELETE ? getBefore() : getAfter();
+    }
+
+    /**
+     * @return the Debezium source information of the change
+     */
+    public ObjectMap getSource() {
+        if (source == null) {
+            source = new RowMap(sourceStruct);
+        }
+        return source;
+    }
+
+    /**
+     * This reads the value directly from the underlying Struct, if available, without materializing the values
+     * @param column the column for which to retrieve the value
+     * @return the value of the given column after the change, or prior to the change if the row was deleted
+     */
+    public Object getValue(String column) {
+        Struct struct = (operation == Operation.DELETE ? beforeStruct : afterStruct);
+        if (struct == null) {
+            return getValues().get(column);
+        }
+        Field field = struct.schema().field(column);
+        return field == null ? null : struct.get(field);
+    }
+
+    /**
+     * @return the values attached to this event by the configured EventEnricher, by name
+     */
+    public ObjectMap getEnrichments() {
+        if (enrichments == null) {
+            enrichments = new ObjectMap();
+        }
+        return enrichments;
+    }
+
+    /**
+     * @param name the name of the enrichment
+     * @return the value attached to this event with the given name, or null if none is attached
+     */
+    public Object getEnrichment(String name) {
+        return enrichments == null ? null : enrichments.get(name);
+    }
+
+    /**
+     * @param name the name of the enrichment
+     * @param value the value to attach to this event
+     */
+    public void setEnrichment(String name, Object value) {
+        getEnrichments().put(name, value);
+    }
+
+    /**
+     * @return true if the configured EventEnricher failed for this event, in which case its enrichments are missing
+     * or incomplete
+     */
+    public boolean isEnrichmentFailed() {
+        return enrichmentFailed;
+    }
+
+    /**
+     * @param enrichmentFailed true if the configured EventEnricher failed for this event
+     */
+    public void setEnrichmentFailed(boolean enrichmentFailed) {
+        this.enrichmentFailed = enrichmentFailed;
+    }
+
     public String getUuid() {
-        return getValues().getString("uuid");
+        Object uuid = getValue("uuid");
+        return uuid == null ? null : uuid.toString();
+    }
+
+    /**
+     * Ensures all values are materialized, as the underlying Structs and ChangeEvent are not serializable
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        getKey();
+        getBefore();
+        getAfter();
+        getSource();
+        out.defaultWriteObject();
+    }
+
+    /**
+     * Events are equal if they have the same timestamp, source, table, operation, and row values, whether or not they
+     * retain the ChangeEvent they were decoded from.  Enrichments are not compared.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof DbEvent)) {
+            return false;
+        }
+        DbEvent that = (DbEvent) o;
+        return Objects.equals(timestamp, that.timestamp) &&
+                Objects.equals(sourceName, that.sourceName) &&
+                Objects.equals(table, that.table) &&
+                operation == that.operation &&
+                getKey().equals(that.getKey()) &&
+                getBefore().equals(that.getBefore()) &&
+                getAfter().equals(that.getAfter()) &&
+                getSource().equals(that.getSource());
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(timestamp, sourceName, table, operation, getKey());
     }
 
     @Override
     public String toString() {
-        return operation + " " + table + " " + key;
+        return operation + " " + table + " " + getKey();
     }
-}
\ No newline at end of file
+}
@@ -18,17 +18,23 @@ import javax.management.MBeanServer;
 import javax.management.ObjectName;
 import java.lang.management.ManagementFactory;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * This class provides access to statistics and current status of any executing DbEventSources
+ * Logging an event does not acquire any shared lock, so that multiple sources and parallel workers can log
+ * events concurrently.
  */
 public class DbEventLog {
 
 	private static final MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
 	private static final Logger log = LogManager.getLogger(DbEventLog.class);
-	private static final Map<String, DbEventStatus> latestEvents = new HashMap<>();
-	private static final Map<String, Map<String, Integer>> tableCounts = new HashMap<>();
+	private static final Map<String, SourceLog> sourceLogs = new ConcurrentHashMap<>();
 
 	/**
 	 * Provides a mechanism to log each event, in order to
@@ -36,49 +42,167 @@ public class DbEventLog {
 	 * @param event the event to log
 	 * @return a new DbEventStatus for the given event
 	 */
-	public static synchronized DbEventStatus log(DbEvent event) {
+	public static DbEventStatus log(DbEvent event) {
 		// Log the event, if enabled
 		if (log.isTraceEnabled()) {
 			log.trace(event);
 		}
 
 		// Track the total number of table rows processed for a given source
-		getTableCounts(event.getSourceName()).merge(event.getTable(), 1, Integer::sum);
+		SourceLog sourceLog = getSourceLog(event.getSourceName());
+		sourceLog.getTableCount(event.getTable()).increment();
 
 		// Construct an Event status and set it as the most recent for the associated source and return it
 		DbEventStatus status = new DbEventStatus(event);
-		latestEvents.put(event.getSourceName(), status);
+		sourceLog.latestEvent.set(status);
 		return status;
 	}
 
+	/**
+	 * Marks each of the given statuses as processed, and records the processing time and lag of each event in the
+	 * metrics of the associated source and table.  The processing time is divided evenly across the given events.
+	 * @param statuses the statuses of the events that were processed together
+	 * @param processingTimeNanos the total time taken to process the events
+	 */
+	public static void logProcessed(List<DbEventStatus> statuses, long processingTimeNanos) {
+		long processingTimePerEvent = statuses.isEmpty() ? 0 : processingTimeNanos / statuses.size();
+		long now = System.currentTimeMillis();
+		for (DbEventStatus status : statuses) {
+			status.setProcessed(true);
+			DbEvent event = status.getEvent();
+			long lag = event.getTimestamp() == null ? 0 : now - event.getTimestamp();
+			SourceLog sourceLog = getSourceLog(event.getSourceName());
+			sourceLog.metrics.recordProcessed(processingTimePerEvent, lag);
+			sourceLog.getTableMetrics(event.getTable()).recordProcessed(processingTimePerEvent, lag);
+		}
+	}
+
+	/**
+	 * Records the given error on each of the given statuses, and records a retry in the metrics of the
+	 * associated source and table
+	 * @param statuses the statuses of the events that failed and will be retried
+	 * @param error the error that occurred
+	 */
+	public static void logRetry(List<DbEventStatus> statuses, Throwable error) {
+		for (DbEventStatus status : statuses) {
+			status.setError(error);
+			DbEvent event = status.getEvent();
+			SourceLog sourceLog = getSourceLog(event.getSourceName());
+			sourceLog.metrics.recordRetry();
+			sourceLog.getTableMetrics(event.getTable()).recordRetry();
+		}
+	}
+
+	/**
+	 * Records the given error on each of the given statuses, and records a dead letter in the metrics of the
+	 * associated source and table
+	 * @param statuses the statuses of the events that exhausted all retries
+	 * @param error the last error that occurred
+	 */
+	public static void logDeadLetter(List<DbEventStatus> statuses, Throwable error) {
+		for (DbEventStatus status : statuses) {
+			status.setError(error);
+			DbEvent event = status.getEvent();
+			SourceLog sourceLog = getSourceLog(event.getSourceName());
+			sourceLog.metrics.recordDeadLetter();
+			sourceLog.getTableMetrics(event.getTable()).recordDeadLetter();
+		}
+	}
+
+	/**
+	 * Records that a change was dropped by a ChangeFilter in the metrics of the given source and table
+	 * @param source the source of the change
+	 * @param table the table of the change
+	 */
+	public static void logFiltered(String source, String table) {
+		SourceLog sourceLog = getSourceLog(source);
+		sourceLog.metrics.recordFiltered();
+		sourceLog.getTableMetrics(table).recordFiltered();
+	}
+
+	/**
+	 * Records the outcome of the engine finishing a batch in the metrics of the given source
+	 * @param source the source that finished the batch
+	 * @param commitPolicy the commit policy of the source, which determined whether offsets were committed
+	 * @param nanos the time taken to finish the batch, including any commit
+	 */
+	public static void logBatchFinished(String source, EventCommitPolicy commitPolicy, long nanos) {
+		getSourceLog(source).metrics.recordBatchFinished(commitPolicy.isCommitRequested(), commitPolicy.isCommitted(),
+				commitPolicy.getEventsSinceLastCommit(), nanos);
+	}
+
+	/**
+	 * @param source the source to query
+	 * @return the processing metrics of the given source, across all tables
+	 */
+	public static DbEventMetrics getMetrics(String source) {
+		return getSourceLog(source).metrics;
+	}
+
+	/**
+	 * @param source the source to query
+	 * @param table the table to query
+	 * @return the processing metrics of the given table in the given source
+	 */
+	public static DbEventMetrics getMetrics(String source, String table) {
+		return getSourceLog(source).getTableMetrics(table);
+	}
+
 	/**
 	 * @param source the source to query
 	 * @return the DbEventStatus representing the status of the most recently logged DbEvent
 	 */
 	public static DbEventStatus getLatestEventStatus(String source) {
-		return latestEvents.get(source);
+		SourceLog sourceLog = sourceLogs.get(source);
+		return sourceLog == null ? null : sourceLog.latestEvent.get();
 	}
 
 	/**
 	 * @return the DbEventStatus representing the status of the most recently logged DbEvent for each source
 	 */
-	public Map<String, DbEventStatus> getLatestEventStatuses() {
-		return latestEvents;
+	public static Map<String, DbEventStatus> getLatestEventStatuses() {
+		Map<String, DbEventStatus> ret = new TreeMap<>();
+		for (Map.Entry<String, SourceLog> e : sourceLogs.entrySet()) {
+			DbEventStatus status = e.getValue().latestEvent.get();
+			if (status != null) {
+				ret.put(e.getKey(), status);
+			}
+		}
+		return ret;
 	}
 
 	/**
-	 * @return the running count of events processed by source and table, since the server has started
+	 * @return a snapshot of the running count of events processed by source and table, since the server has started
 	 */
-	public static Map<String, Map<String, Integer>> getTableCounts() {
-		return tableCounts;
+	public static Map<String, Map<String, Long>> getTableCounts() {
+		Map<String, Map<String, Long>> ret = new TreeMap<>();
+		for (String source : sourceLogs.keySet()) {
+			ret.put(source, getTableCounts(source));
+		}
+		return ret;
 	}
 
 	/**
 	 * @param source the source to query
-	 * @return the running count of events processed by table for the given source, since the server has started
+	 * @return a snapshot of the running count of events processed by table for the given source, since the server has started
 	 */
-	public static Map<String, Integer> getTableCounts(String source) {
-		return tableCounts.computeIfAbsent(source, k -> new HashMap<>());
+	public static Map<String, Long> getTableCounts(String source) {
+		Map<String, Long> ret = new TreeMap<>();
+		SourceLog sourceLog = sourceLogs.get(source);
+		if (sourceLog != null) {
+			for (Map.Entry<String, LongAdder> e : sourceLog.tableCounts.entrySet()) {
+				ret.put(e.getKey(), e.getValue().sum());
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * @return the SourceLog for the given source, creating it if necessary
+	 */
+	private static SourceLog getSourceLog(String source) {
+		SourceLog sourceLog = sourceLogs.get(source);
+		return sourceLog != null ? sourceLog : sourceLogs.computeIfAbsent(source, SourceLog::new);
 	}
 
 	/**
@@ -99,6 +223,37 @@ public class DbEventLog {
 		return getMBeanAttributes(name);
 	}
 
+	/**
+	 * @param sourceName the sourceName to query
+	 * @return the value of the all dbevent processing metrics attributes for the given source
+	 */
+	public static Map<String, Object> getEventMetricsAttributes(String sourceName) {
+		return getMBeanAttributes(getMetricsName(sourceName, null));
+	}
+
+	/**
+	 * @return the name of the mbean that exposes the metrics of the given source, and table if specified
+	 */
+	private static String getMetricsName(String sourceName, String table) {
+		return "dbevent:type=event-metrics,source=" + sourceName + (table == null ? "" : ",table=" + table);
+	}
+
+	/**
+	 * Registers the given metrics as an mbean with the given name, replacing any existing mbean with the same name
+	 */
+	private static void registerMetrics(DbEventMetrics metrics, String name) {
+		try {
+			ObjectName n = new ObjectName(name);
+			if (mbeanServer.isRegistered(n)) {
+				mbeanServer.unregisterMBean(n);
+			}
+			mbeanServer.registerMBean(metrics, n);
+		}
+		catch (Exception e) {
+			log.warn("Unable to register metrics mbean " + name, e);
+		}
+	}
+
 	/**
 	 * @param name the mbean name to query
 	 * @return the value of the all monitoring bean attributes with the given name
@@ -118,4 +273,35 @@ public class DbEventLog {
 		}
 		return ret;
 	}
+
+	/**
+	 * Holds the counts, metrics, and latest event status for a given source
+	 */
+	private static class SourceLog {
+
+		private final String source;
+		private final AtomicReference<DbEventStatus> latestEvent = new AtomicReference<>();
+		private final Map<String, LongAdder> tableCounts = new ConcurrentHashMap<>();
+		private final DbEventMetrics metrics = new DbEventMetrics();
+		private final Map<String, DbEventMetrics> tableMetrics = new ConcurrentHashMap<>();
+
+		SourceLog(String source) {
+			this.source = source;
+			registerMetrics(metrics, getMetricsName(source, null));
+		}
+
+		LongAdder getTableCount(String table) {
+			LongAdder count = tableCounts.get(table);
+			return count != null ? count : tableCounts.computeIfAbsent(table, k -> new LongAdder());
+		}
+
+		DbEventMetrics getTableMetrics(String table) {
+			DbEventMetrics ret = tableMetrics.get(table);
+			return ret != null ? ret : tableMetrics.computeIfAbsent(table, k -> {
+				DbEventMetrics m = new DbEventMetrics();
+				registerMetrics(m, getMetricsName(source, table));
+				return m;
+			});
+		}
+	}
 }
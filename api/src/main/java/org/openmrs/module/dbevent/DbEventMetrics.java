@@ -0,0 +1,189 @@
+package org.openmrs.module.dbevent;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Processing metrics for a DbEventSource, or for a single table within a DbEventSource.
+ * Processing time is the time taken by the consumer to process each event.  Lag is the time between the event
+ * timestamp and the time at which the consumer finished processing the event.
+ * All metrics are held in fixed-size structures, so that they are safe to leave enabled in production.
+ */
+public class DbEventMetrics implements DbEventMetricsMBean {
+
+    private final Histogram processingTimeMicros = new Histogram();
+    private final Histogram lagMillis = new Histogram();
+    private final Meter events = new Meter();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder deadLetters = new LongAdder();
+    private final LongAdder filtered = new LongAdder();
+    private final Histogram commitTimeMicros = new Histogram();
+    private volatile long eventsSinceLastCommit = 0;
+    private volatile long requestedCommitNanos = 0; // The time taken by the last requested commit, until confirmed
+
+    /**
+     * @param processingTimeNanos the time taken to process the event
+     * @param lagMillis the time between the event timestamp and the completion of processing
+     */
+    public void recordProcessed(long processingTimeNanos, long lagMillis) {
+        this.processingTimeMicros.record(processingTimeNanos / 1000);
+        this.lagMillis.record(lagMillis);
+        this.events.mark(1);
+    }
+
+    /**
+     * Records that processing of an event is being retried
+     */
+    public void recordRetry() {
+        retries.increment();
+    }
+
+    /**
+     * Records that an event has exhausted all retries and has been moved to the dead letter store
+     */
+    public void recordDeadLetter() {
+        deadLetters.increment();
+    }
+
+    /**
+     * Records that an event was dropped by a ChangeFilter without being passed to the consumer
+     */
+    public void recordFiltered() {
+        filtered.increment();
+    }
+
+    /**
+     * Records the outcome of the engine finishing a batch, which commits offsets if the commit policy allows.
+     * The time taken by a requested commit is only recorded once the commit is confirmed to have completed.
+     * @param commitRequested whether the commit policy requested a commit of offsets when this batch finished
+     * @param committed whether the previously requested commit was confirmed to have completed
+     * @param eventsSinceLastCommit the number of events processed that have not yet been committed
+     * @param commitTimeNanos the time taken to finish the batch, including any commit
+     */
+    public void recordBatchFinished(boolean commitRequested, boolean committed, long eventsSinceLastCommit,
+                                    long commitTimeNanos) {
+        if (committed) {
+            commitTimeMicros.record(requestedCommitNanos / 1000);
+        }
+        if (commitRequested) {
+            requestedCommitNanos = commitTimeNanos;
+        }
+        this.eventsSinceLastCommit = eventsSinceLastCommit;
+    }
+
+    public Histogram getCommitTimeHistogram() {
+        return commitTimeMicros;
+    }
+
+    public Histogram getProcessingTimeHistogram() {
+        return processingTimeMicros;
+    }
+
+    public Histogram getLagHistogram() {
+        return lagMillis;
+    }
+
+    @Override
+    public long getEventCount() {
+        return events.getCount();
+    }
+
+    @Override
+    public double getEventsPerSecond() {
+        return events.getOneMinuteRate();
+    }
+
+    @Override
+    public double getMeanEventsPerSecond() {
+        return events.getMeanRate();
+    }
+
+    @Override
+    public long getRetryCount() {
+        return retries.sum();
+    }
+
+    @Override
+    public long getDeadLetterCount() {
+        return deadLetters.sum();
+    }
+
+    @Override
+    public long getFilteredCount() {
+        return filtered.sum();
+    }
+
+    @Override
+    public long getCommitCount() {
+        return commitTimeMicros.getCount();
+    }
+
+    @Override
+    public double getCommitTimeMean() {
+        return commitTimeMicros.getMean() / 1000;
+    }
+
+    @Override
+    public double getCommitTime99thPercentile() {
+        return commitTimeMicros.getPercentile(99) / 1000.0;
+    }
+
+    @Override
+    public double getCommitTimeMax() {
+        return commitTimeMicros.getMax() / 1000.0;
+    }
+
+    @Override
+    public long getEventsSinceLastCommit() {
+        return eventsSinceLastCommit;
+    }
+
+    @Override
+    public double getProcessingTimeMean() {
+        return processingTimeMicros.getMean() / 1000;
+    }
+
+    @Override
+    public double getProcessingTime50thPercentile() {
+        return processingTimeMicros.getPercentile(50) / 1000.0;
+    }
+
+    @Override
+    public double getProcessingTime95thPercentile() {
+        return processingTimeMicros.getPercentile(95) / 1000.0;
+    }
+
+    @Override
+    public double getProcessingTime99thPercentile() {
+        return processingTimeMicros.getPercentile(99) / 1000.0;
+    }
+
+    @Override
+    public double getProcessingTimeMax() {
+        return processingTimeMicros.getMax() / 1000.0;
+    }
+
+    @Override
+    public double getLagMean() {
+        return lagMillis.getMean();
+    }
+
+    @Override
+    public double getLag50thPercentile() {
+        return lagMillis.getPercentile(50);
+    }
+
+    @Override
+    public double getLag95thPercentile() {
+        return lagMillis.getPercentile(95);
+    }
+
+    @Override
+    public double getLag99thPercentile() {
+        return lagMillis.getPercentile(99);
+    }
+
+    @Override
+    public double getLagMax() {
+        return lagMillis.getMax();
+    }
+}
@@ -0,0 +1,50 @@
+package org.openmrs.module.dbevent;
+
+/**
+ * JMX interface for the processing metrics of a DbEventSource, or of a single table within a DbEventSource
+ * All times are in milliseconds
+ */
+public interface DbEventMetricsMBean {
+
+    long getEventCount();
+
+    double getEventsPerSecond();
+
+    double getMeanEventsPerSecond();
+
+    long getRetryCount();
+
+    long getDeadLetterCount();
+
+    long getFilteredCount();
+
+    long getCommitCount();
+
+    double getCommitTimeMean();
+
+    double getCommitTime99thPercentile();
+
+    double getCommitTimeMax();
+
+    long getEventsSinceLastCommit();
+
+    double getProcessingTimeMean();
+
+    double getProcessingTime50thPercentile();
+
+    double getProcessingTime95thPercentile();
+
+    double getProcessingTime99thPercentile();
+
+    double getProcessingTimeMax();
+
+    double getLagMean();
+
+    double getLag50thPercentile();
+
+    double getLag95thPercentile();
+
+    double getLag99thPercentile();
+
+    double getLagMax();
+}
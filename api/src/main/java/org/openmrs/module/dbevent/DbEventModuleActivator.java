@@ -27,6 +27,8 @@ public class DbEventModuleActivator extends BaseModuleActivator {
 	
 	@Override
 	public void stopped() {
+		EventContext.clearDatabases();
+		ConnectionPool.closeAll();
 		log.info("DB Event Module Stopped");
 	}
 }
@@ -4,11 +4,14 @@ import io.debezium.embedded.Connect;
 import io.debezium.engine.ChangeEvent;
 import io.debezium.engine.DebeziumEngine;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.apache.kafka.connect.source.SourceRecord;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -21,22 +24,33 @@ public class DbEventSource {
     private static final Logger log = LogManager.getLogger(DbEventSource.class);
 
     private final DbEventSourceConfig config;
+    private final DeadLetterStore deadLetterStore;
     private DebeziumConsumer debeziumConsumer;
-    private EventConsumer eventConsumer;
+    private BatchEventConsumer eventConsumer;
     private ExecutorService executor;
     private DebeziumEngine<ChangeEvent<SourceRecord, SourceRecord>> engine;
+    private volatile boolean running = false;
 
     public DbEventSource(DbEventSourceConfig config) {
         this.config = config;
+        this.deadLetterStore = new DeadLetterStore(config.getDeadLetterDirectory(), config.getRocksConfig());
     }
 
     /**
-     * Allows for resetting the source.  This deletes any existing history and offset files.
+     * Allows for resetting the source.  This deletes any existing history, offset, dead letter, and foreign key index files.
      */
     public void reset() {
         log.info("Resetting Event Source: " + config.getSourceId());
         FileUtils.deleteQuietly(config.getOffsetsFile());
+        if (config.getMigrateOffsetsFile() != null) {
+            FileUtils.deleteQuietly(config.getMigrateOffsetsFile());
+        }
         FileUtils.deleteQuietly(config.getDatabaseHistoryFile());
+        if (config.getMigrateDatabaseHistoryFile() != null) {
+            FileUtils.deleteQuietly(config.getMigrateDatabaseHistoryFile());
+        }
+        deadLetterStore.delete();
+        FileUtils.deleteQuietly(config.getForeignKeyIndexDirectory());
     }
 
     /**
@@ -44,6 +58,7 @@ public class DbEventSource {
      */
     public void start() {
         log.info("Starting Event Source: " + config.getSourceId() + " - " + config.getSourceName());
+        running = true;
         log.warn(config.getSourceName() + " - monitoring tables: " + config.getMonitoredTables());
         log.debug(config.getSourceName() + " - configuration: " + config);
 
@@ -56,10 +71,13 @@ public class DbEventSource {
 
         log.info("Starting event consumer: " + eventConsumer);
         eventConsumer.startup();
-        debeziumConsumer = new DebeziumConsumer(eventConsumer, config);
+        debeziumConsumer = new DebeziumConsumer(eventConsumer, config, deadLetterStore);
+        config.updateRocksProperties();
 
         engine = DebeziumEngine.create(Connect.class)
                 .using(config.getConfig())
+                .using(getClass().getClassLoader())
+                .using(config.getCommitPolicy())
                 .notifying(debeziumConsumer)
                 .build();
 
@@ -74,6 +92,7 @@ public class DbEventSource {
      */
     public void stop() {
         log.info("Stopping Event Source: " + config.getSourceId());
+        running = false;
         try {
             log.info("Stopping event consumer: " + eventConsumer);
             eventConsumer.shutdown();
@@ -107,6 +126,99 @@ public class DbEventSource {
         catch ( InterruptedException e ) {
             Thread.currentThread().interrupt();
         }
+
+        close(config.getEventPartitioner(), "event partitioner");
+        close(config.getEventEnricher(), "event enricher");
+        close(config.getForeignKeyIndex(), "foreign key index");
+
+        deadLetterStore.close();
+    }
+
+    /**
+     * Closes the given component of the source, if it is AutoCloseable, such as to release any listeners it has
+     * registered on the shared Database
+     */
+    protected void close(Object component, String description) {
+        if (component instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) component).close();
+            }
+            catch (Exception e) {
+                log.warn("An error occurred closing the " + description, e);
+            }
+        }
+    }
+
+    /**
+     * @return the events that have exhausted all retries and have been moved to the dead letter store
+     */
+    public List<DeadLetter> getDeadLetters() {
+        return deadLetterStore.getDeadLetters();
+    }
+
+    /**
+     * Passes the DeadLetter with the given id to the configured event consumer, and removes it from the
+     * dead letter store if it is successfully processed.  If it fails, the error and attempts are updated.
+     * Dead letters can only be replayed while the source is stopped, so that the consumer is never called
+     * concurrently with live events, and a replayed event is never processed after newer changes to the same row
+     * that are still in flight.  Replayed events are logged in the DbEventLog as for live events.
+     * @param id the id of the DeadLetter to replay
+     * @return true if the event was successfully processed
+     * @throws IllegalStateException if the source is running
+     */
+    public boolean replayDeadLetter(Long id) {
+        if (running) {
+            throw new IllegalStateException("Dead letters can only be replayed while the event source is stopped");
+        }
+        DeadLetter deadLetter = deadLetterStore.getDeadLetter(id);
+        if (deadLetter == null) {
+            throw new IllegalArgumentException("No dead letter found with id: " + id);
+        }
+        List<DbEventStatus> statuses = Collections.singletonList(DbEventLog.log(deadLetter.getEvent()));
+        long startTime = System.nanoTime();
+        try {
+            eventConsumer.acceptBatch(Collections.singletonList(deadLetter.getEvent()));
+            DbEventLog.logProcessed(statuses, System.nanoTime() - startTime);
+            deadLetterStore.remove(id);
+            log.info("Successfully replayed dead letter: " + deadLetter);
+            return true;
+        }
+        catch (Exception e) {
+            log.warn("Unable to replay dead letter: " + deadLetter, e);
+            DbEventLog.logRetry(statuses, e);
+            deadLetter.setAttempts(deadLetter.getAttempts() + 1);
+            deadLetter.setError(ExceptionUtils.getStackTrace(e));
+            deadLetterStore.update(deadLetter);
+            return false;
+        }
+    }
+
+    /**
+     * Replays all events in the dead letter store, in the order in which they were added.  The source must be stopped.
+     * @return the number of events that were successfully processed
+     */
+    public int replayDeadLetters() {
+        int numReplayed = 0;
+        for (DeadLetter deadLetter : deadLetterStore.getDeadLetters()) {
+            if (replayDeadLetter(deadLetter.getId())) {
+                numReplayed++;
+            }
+        }
+        return numReplayed;
+    }
+
+    /**
+     * @return true if the source has been started and not yet stopped
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @return the DeadLetterStore for this source
+     */
+    public DeadLetterStore getDeadLetterStore() {
+        return deadLetterStore;
     }
 
     /**
@@ -117,16 +229,16 @@ public class DbEventSource {
     }
 
     /**
-     * @return the EventConsumer configured to consume events on this source
+     * @return the BatchEventConsumer configured to consume events on this source
      */
-    public EventConsumer getEventConsumer() {
+    public BatchEventConsumer getEventConsumer() {
         return eventConsumer;
     }
 
     /**
-     * @param eventConsumer the EventConsumer to consume events on this source
+     * @param eventConsumer the BatchEventConsumer or EventConsumer to consume events on this source
      */
-    public void setEventConsumer(EventConsumer eventConsumer) {
+    public void setEventConsumer(BatchEventConsumer eventConsumer) {
         this.eventConsumer = eventConsumer;
     }
 }
@@ -1,6 +1,11 @@
 package org.openmrs.module.dbevent;
 
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
 import org.apache.commons.lang.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -8,8 +13,14 @@ import org.apache.logging.log4j.Logger;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 /**
@@ -24,7 +35,18 @@ public class DbEventSourceConfig {
     private final String sourceName;
     private final Properties config;
     private final EventContext context;
-    private Integer retryIntervalSeconds = 60; // By default, retry every minute on error
+    private RetryPolicy retryPolicy = new RetryPolicy(); // By default, retry every minute on error
+    private Integer parallelism = 1; // By default, process all events serially on the engine thread
+    private EventPartitioner eventPartitioner = new KeyEventPartitioner();
+    private EventEnricher eventEnricher; // If set, each batch of events is enriched before it is consumed
+    private ForeignKeyIndex foreignKeyIndex; // If set, updated from each batch of events before these are enriched
+    private Map<String, ChangeFilter> changeFilters = new HashMap<>(); // Filters of the changes to each table, by table name
+    private boolean retainChangeEvents = true; // If false, DbEvents do not retain a reference to the Debezium ChangeEvent
+    private EventCommitPolicy commitPolicy = new EventCommitPolicy(); // Determines how often offsets are committed
+    private RocksConfig rocksConfig = new RocksConfig(); // Tuning profile for all Rocks DBs used by this source
+
+    @Getter(AccessLevel.NONE) @Setter(AccessLevel.NONE) @ToString.Exclude @EqualsAndHashCode.Exclude
+    private transient volatile TableFilter tableFilter; // Compiled from the table include and exclude properties
 
     public DbEventSourceConfig(Integer sourceId, String sourceName, EventContext context) {
         this.sourceId = sourceId;
@@ -40,8 +62,8 @@ public class DbEventSourceConfig {
         setProperty("connector.class", "io.debezium.connector.mysql.MySqlConnector");
         setProperty("offset.storage", "org.apache.kafka.connect.storage.FileOffsetBackingStore");
         setProperty("offset.storage.file.filename", offsetsDataFile.getAbsolutePath());
-        setProperty("offset.flush.interval.ms", "0");
         setProperty("offset.flush.timeout.ms", "5000");
+        setProperty("heartbeat.interval.ms", "5000"); // Allows the EventCommitPolicy to commit while the stream is idle
         setProperty("include.schema.changes", "false");
         setProperty("database.server.id", Integer.toString(sourceId));
         setProperty("database.server.name", sourceName);
@@ -50,12 +72,13 @@ public class DbEventSourceConfig {
         setProperty("decimal.handling.mode", "double");
         setProperty("tombstones.on.delete", "false");
         setProperty("snapshot.mode", "when_needed");
-        setProperty("database.user", context.getDatabase().getUsername());
-        setProperty("database.password", context.getDatabase().getPassword());
-        setProperty("database.hostname", context.getDatabase().getHostname());
-        setProperty("database.port", context.getDatabase().getPort());
-        setProperty("database.dbname", context.getDatabase().getDatabaseName());
-        setProperty("database.include.list", context.getDatabase().getDatabaseName());
+        Database database = context.getDatabase();
+        setProperty("database.user", database.getUsername());
+        setProperty("database.password", database.getPassword());
+        setProperty("database.hostname", database.getHostname());
+        setProperty("database.port", database.getPort());
+        setProperty("database.dbname", database.getDatabaseName());
+        setProperty("database.include.list", database.getDatabaseName());
     }
 
     /**
@@ -127,27 +150,49 @@ public class DbEventSourceConfig {
      * @return true if the table is included in the configuration
      */
     public boolean isIncluded(DatabaseTable table) {
-        String name = table.getDatabaseName() + "." + table.getTableName();
-        List<String> includePatterns = getIncludedTablePatterns();
-        if (!includePatterns.isEmpty()) {
-            for (String pattern : includePatterns) {
-                if (name.matches(pattern)) {
-                    return true;
-                }
-            }
-            return false;
-        }
-        else {
-            List<String> excludePatterns = getExcludedTablePatterns();
-            if (!excludePatterns.isEmpty()) {
-                for (String pattern : excludePatterns) {
-                    if (name.matches(pattern)) {
-                        return false;
-                    }
-                }
-            }
-            return true;
+        return isIncluded(table.getDatabaseName(), table.getTableName());
+    }
+
+    /**
+     * The result for each table is memoized until the table.include.list or table.exclude.list properties change,
+     * so that this can be used to filter individual events
+     * @param databaseName the database of the table to check
+     * @param tableName the name of the table to check
+     * @return true if the table is included in the configuration
+     */
+    public boolean isIncluded(String databaseName, String tableName) {
+        return getTableFilter().isIncluded(databaseName + "." + tableName);
+    }
+
+    /**
+     * @param tableName the table to filter
+     * @param changeFilter the filter of the changes to the given table that are passed to the consumer
+     */
+    public void addChangeFilter(String tableName, ChangeFilter changeFilter) {
+        changeFilters.put(tableName, changeFilter);
+    }
+
+    /**
+     * @param tableName the table to filter
+     * @return the filter of the changes to the given table, or null if all changes are passed to the consumer
+     */
+    public ChangeFilter getChangeFilter(String tableName) {
+        return changeFilters.get(tableName);
+    }
+
+    /**
+     * @return the TableFilter for the current table.include.list and table.exclude.list properties, which is compiled
+     * again only if either of these has changed since it was last compiled
+     */
+    protected TableFilter getTableFilter() {
+        String include = config.getProperty("table.include.list");
+        String exclude = config.getProperty("table.exclude.list");
+        TableFilter filter = tableFilter;
+        if (filter == null || !filter.isCompiledFrom(include, exclude)) {
+            filter = new TableFilter(include, exclude, getIncludedTablePatterns(), getExcludedTablePatterns());
+            tableFilter = filter;
         }
+        return filter;
     }
 
     /**
@@ -180,6 +225,116 @@ public class DbEventSourceConfig {
         config.setProperty(key, value);
     }
 
+    /**
+     * @return the initial interval between retries, in seconds
+     */
+    public Integer getRetryIntervalSeconds() {
+        return (int) TimeUnit.MILLISECONDS.toSeconds(retryPolicy.getInitialIntervalMillis());
+    }
+
+    /**
+     * @param retryIntervalSeconds the initial interval between retries, in seconds
+     */
+    public void setRetryIntervalSeconds(Integer retryIntervalSeconds) {
+        retryPolicy.setInitialIntervalMillis(TimeUnit.SECONDS.toMillis(retryIntervalSeconds));
+    }
+
+    /**
+     * Configures this source to store offsets in a Rocks DB, using the RocksOffsetBackingStore.
+     * Any offsets in the currently configured offsets file are migrated on the next startup.
+     */
+    public void configureRocksOffsetBackingStore() {
+        if (!RocksOffsetBackingStore.class.getName().equals(config.getProperty("offset.storage"))) {
+            setProperty(RocksOffsetBackingStore.MIGRATE_FILENAME_PROPERTY, getOffsetsFile().getAbsolutePath());
+        }
+        File offsetsDirectory = new File(context.getModuleDataDir(), sourceId + "_offsets");
+        setProperty("offset.storage", RocksOffsetBackingStore.class.getName());
+        setProperty("offset.storage.file.filename", offsetsDirectory.getAbsolutePath());
+        updateRocksProperties();
+    }
+
+    /**
+     * Configures this source to store schema history in a Rocks DB, using the RocksDatabaseHistory, which compacts
+     * the history on each startup.  Any history in the currently configured file is migrated on the next startup.
+     */
+    public void configureRocksDatabaseHistory() {
+        if (!RocksDatabaseHistory.class.getName().equals(config.getProperty("database.history"))) {
+            setProperty(RocksDatabaseHistory.MIGRATE_FILENAME_PROPERTY, getDatabaseHistoryFile().getAbsolutePath());
+        }
+        File historyDirectory = new File(context.getModuleDataDir(), sourceId + "_schema_history");
+        setProperty("database.history", RocksDatabaseHistory.class.getName());
+        setProperty("database.history.file.filename", historyDirectory.getAbsolutePath());
+        updateRocksProperties();
+    }
+
+    /**
+     * Writes the current RocksConfig into the properties read by the RocksOffsetBackingStore and RocksDatabaseHistory,
+     * if these are configured, so that the Rocks DBs opened by the engine use the same tuning profile as this source.
+     * This is called again when the source is started, so that changes made to the RocksConfig after configuring the
+     * stores are applied.
+     */
+    public void updateRocksProperties() {
+        if (rocksConfig == null) {
+            return;
+        }
+        if (RocksOffsetBackingStore.class.getName().equals(config.getProperty("offset.storage"))) {
+            config.putAll(rocksConfig.toProperties(RocksOffsetBackingStore.ROCKS_CONFIG_PREFIX));
+        }
+        if (RocksDatabaseHistory.class.getName().equals(config.getProperty("database.history"))) {
+            config.putAll(rocksConfig.toProperties(RocksDatabaseHistory.ROCKS_CONFIG_PREFIX));
+        }
+    }
+
+    /**
+     * Opens a Rocks DB in the module data directory, using the RocksConfig of this source
+     * @param name the name of the Rocks DB, which is prefixed with the sourceId to form the directory name
+     * @param keySerializer the Serializer to use for keys
+     * @param valueSerializer the Serializer to use for values
+     * @param columnFamilies the column families to open, in addition to the default column family
+     * @return the opened Rocks DB
+     */
+    public Rocks openRocks(String name, Serializer keySerializer, Serializer valueSerializer, String... columnFamilies) {
+        File dbFile = new File(context.getModuleDataDir(), sourceId + "_" + name);
+        return new Rocks(dbFile, rocksConfig, keySerializer, valueSerializer, columnFamilies);
+    }
+
+    /**
+     * @return the directory in which events that have exhausted all retries are stored
+     */
+    public File getDeadLetterDirectory() {
+        return new File(context.getModuleDataDir(), sourceId + "_dead_letters");
+    }
+
+    /**
+     * @return the directory in which the ForeignKeyIndex of this source is stored, if one is configured
+     */
+    public File getForeignKeyIndexDirectory() {
+        return new File(context.getModuleDataDir(), sourceId + "_foreign_keys");
+    }
+
+    /**
+     * @return true if schema changes are included, in which case DDL events are used to refresh the metadata of the
+     * affected tables, rather than being passed to the consumer
+     */
+    public boolean isIncludeSchemaChanges() {
+        return Boolean.parseBoolean(config.getProperty("include.schema.changes"));
+    }
+
+    /**
+     * @param includeSchemaChanges if true, DDL events are used to refresh the metadata of the affected tables
+     */
+    public void setIncludeSchemaChanges(boolean includeSchemaChanges) {
+        setProperty("include.schema.changes", Boolean.toString(includeSchemaChanges));
+    }
+
+    /**
+     * @return the maximum number of events the engine returns in a single batch
+     */
+    public int getMaxBatchSize() {
+        String maxBatchSize = config.getProperty("max.batch.size");
+        return StringUtils.isBlank(maxBatchSize) ? 2048 : Integer.parseInt(maxBatchSize.trim());
+    }
+
     /**
      * @return the currently configured offsets file
      */
@@ -187,10 +342,72 @@ public class DbEventSourceConfig {
         return new File(config.getProperty("offset.storage.file.filename"));
     }
 
+    /**
+     * @return the offsets file that will be migrated to the RocksOffsetBackingStore, or null if none is configured
+     */
+    public File getMigrateOffsetsFile() {
+        String filename = config.getProperty(RocksOffsetBackingStore.MIGRATE_FILENAME_PROPERTY);
+        return filename == null ? null : new File(filename);
+    }
+
     /**
      * @return the currently configured database schema history file
      */
     public File getDatabaseHistoryFile() {
         return new File(config.getProperty("database.history.file.filename"));
     }
+
+    /**
+     * @return the schema history file that will be migrated to the RocksDatabaseHistory, or null if none is configured
+     */
+    public File getMigrateDatabaseHistoryFile() {
+        String filename = config.getProperty(RocksDatabaseHistory.MIGRATE_FILENAME_PROPERTY);
+        return filename == null ? null : new File(filename);
+    }
+
+    /**
+     * The table include and exclude patterns compiled from the values of the table.include.list and
+     * table.exclude.list properties, with the result for each table name memoized
+     */
+    protected static class TableFilter {
+
+        private final String include;
+        private final String exclude;
+        private final List<Pattern> includePatterns = new ArrayList<>();
+        private final List<Pattern> excludePatterns = new ArrayList<>();
+        private final Map<String, Boolean> included = new ConcurrentHashMap<>();
+
+        TableFilter(String include, String exclude, List<String> includePatterns, List<String> excludePatterns) {
+            this.include = include;
+            this.exclude = exclude;
+            includePatterns.forEach(p -> this.includePatterns.add(Pattern.compile(p)));
+            excludePatterns.forEach(p -> this.excludePatterns.add(Pattern.compile(p)));
+        }
+
+        boolean isCompiledFrom(String include, String exclude) {
+            return Objects.equals(this.include, include) && Objects.equals(this.exclude, exclude);
+        }
+
+        /**
+         * If any include patterns are configured, a table is included only if it matches one of them.
+         * Otherwise, a table is included unless it matches one of the exclude patterns.
+         */
+        boolean isIncluded(String name) {
+            return included.computeIfAbsent(name, n -> {
+                if (!includePatterns.isEmpty()) {
+                    return matchesAny(n, includePatterns);
+                }
+                return !matchesAny(n, excludePatterns);
+            });
+        }
+
+        private static boolean matchesAny(String name, List<Pattern> patterns) {
+            for (Pattern pattern : patterns) {
+                if (pattern.matcher(name).matches()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
 }
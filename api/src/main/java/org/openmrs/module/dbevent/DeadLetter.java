@@ -0,0 +1,28 @@
+package org.openmrs.module.dbevent;
+
+import lombok.Data;
+
+import java.io.Serializable;
+
+/**
+ * Represents an event that could not be processed after exhausting all retries, along with the last error
+ */
+@Data
+public class DeadLetter implements Serializable {
+
+    private final Long id;
+    private final DbEvent event;
+    private String error;
+    private int attempts;
+    private long timestamp = System.currentTimeMillis();
+
+    public DeadLetter(Long id, DbEvent event) {
+        this.id = id;
+        this.event = event;
+    }
+
+    @Override
+    public String toString() {
+        return id + ": " + event + " (" + attempts + " attempts)";
+    }
+}
@@ -0,0 +1,111 @@
+package org.openmrs.module.dbevent;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local store of events that could not be processed after exhausting all retries, backed by a Rocks DB.
+ * This is opened on first use, and enables parked events to be listed and replayed at a later time.
+ * Entries are keyed by id with an OrderedKeySerializer, so they are iterated in the order in which they were added.
+ * @see RetryPolicy
+ */
+public class DeadLetterStore {
+
+    private static final Logger log = LogManager.getLogger(DeadLetterStore.class);
+
+    private final File directory;
+    private final RocksConfig rocksConfig;
+    private Rocks rocks;
+    private AtomicLong lastId;
+
+    public DeadLetterStore(File directory) {
+        this(directory, null);
+    }
+
+    public DeadLetterStore(File directory, RocksConfig rocksConfig) {
+        this.directory = directory;
+        this.rocksConfig = rocksConfig;
+    }
+
+    /**
+     * Adds the given event to the store
+     * @param event the event that failed
+     * @param error the last error that occurred processing the event
+     * @param attempts the number of attempts made to process the event
+     * @return the new DeadLetter
+     */
+    public synchronized DeadLetter add(DbEvent event, Throwable error, int attempts) {
+        Rocks db = getRocks();
+        DeadLetter deadLetter = new DeadLetter(lastId.incrementAndGet(), event);
+        deadLetter.setError(ExceptionUtils.getStackTrace(error));
+        deadLetter.setAttempts(attempts);
+        db.put(deadLetter.getId(), deadLetter);
+        log.warn("Added to dead letter store: " + deadLetter);
+        return deadLetter;
+    }
+
+    /**
+     * @param deadLetter the DeadLetter to update
+     */
+    public synchronized void update(DeadLetter deadLetter) {
+        getRocks().put(deadLetter.getId(), deadLetter);
+    }
+
+    /**
+     * @param id the id of the DeadLetter to retrieve
+     * @return the DeadLetter with the given id, or null if none exists
+     */
+    public synchronized DeadLetter getDeadLetter(Long id) {
+        return getRocks().get(id);
+    }
+
+    /**
+     * @return all DeadLetters in the store, in the order in which they were added
+     */
+    public synchronized List<DeadLetter> getDeadLetters() {
+        List<DeadLetter> ret = new ArrayList<>();
+        getRocks().<Long, DeadLetter>forEachInRange(null, null, (id, deadLetter) -> ret.add(deadLetter));
+        return ret;
+    }
+
+    /**
+     * @param id the id of the DeadLetter to remove
+     */
+    public synchronized void remove(Long id) {
+        getRocks().delete(id);
+    }
+
+    /**
+     * Closes the underlying Rocks DB, if open
+     */
+    public synchronized void close() {
+        if (rocks != null) {
+            rocks.close();
+            rocks = null;
+        }
+    }
+
+    /**
+     * Closes and deletes the store
+     */
+    public synchronized void delete() {
+        close();
+        FileUtils.deleteQuietly(directory);
+    }
+
+    private Rocks getRocks() {
+        if (rocks == null) {
+            rocks = new Rocks(directory, rocksConfig, new OrderedKeySerializer(), new JavaSerializer());
+            lastId = new AtomicLong();
+            rocks.<Long, DeadLetter>forEachInRange(null, null, (id, deadLetter) -> lastId.set(id));
+        }
+        return rocks;
+    }
+}
@@ -1,67 +1,536 @@
 package org.openmrs.module.dbevent;
 
 import io.debezium.engine.ChangeEvent;
+import io.debezium.engine.DebeziumEngine;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.Struct;
 import org.apache.kafka.connect.source.SourceRecord;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
-import java.util.function.Consumer;
 
 /**
- * Implementation of a Debezium ChangeEvent consumer, which abstracts the Debezium API behind a DbEvent
- * and ensures that the registered DbEvent EventConsumer is successfully processed before moving onto the next
- * record, with a configurable retryInterval upon failure.
+ * Implementation of a Debezium ChangeConsumer, which abstracts the Debezium API behind a DbEvent
+ * and ensures that the registered BatchEventConsumer is successfully processed before moving onto the next
+ * records, with a configurable RetryPolicy upon failure.  Each batch of records polled by the engine is
+ * delivered to the consumer as a single List of DbEvents, and offsets are marked as processed only once the
+ * consumer has successfully processed them.  If the consumer is a single-event EventConsumer, then each event is
+ * processed and marked individually, so that a failure does not cause previously processed events to be retried.
+ * If the source is configured with a parallelism greater than 1, events are distributed across that number of
+ * worker lanes by the configured EventPartitioner.  Events within a lane are processed in order, and records are
+ * only marked as processed up to the point at which every preceding record in the batch has also been processed.
+ * Schema change events are not passed to the consumer, but are used to refresh the DatabaseMetadata of the source.
+ * If the source is configured with a ForeignKeyIndex, each batch of data change events is applied to the index before
+ * any of these events are passed to the consumer, retrying until this succeeds.  If the source is configured with an
+ * EventEnricher, each batch is then enriched before it is passed to the consumer.  Data change records that are
+ * dropped by the ChangeFilter of their table are never passed to the enricher or the consumer, but are marked as
+ * processed in order with the other records, so offsets still advance.  Heartbeat records are handled in the same
+ * way.  Filtered records are only converted to DbEvents if a ForeignKeyIndex is configured, as the index must
+ * reflect every change, whether or not it is consumed.
  */
-public class DebeziumConsumer implements Consumer<ChangeEvent<SourceRecord, SourceRecord>> {
+public class DebeziumConsumer implements DebeziumEngine.ChangeConsumer<ChangeEvent<SourceRecord, SourceRecord>> {
 
     private static final Logger log = LogManager.getLogger(DebeziumConsumer.class);
 
+    public static final String HEARTBEAT_SCHEMA_NAME = "io.debezium.connector.common.Heartbeat";
+
     private final DbEventSourceConfig eventSourceConfig;
-    private final EventConsumer eventConsumer;
-    private boolean stopped = false;
+    private final BatchEventConsumer eventConsumer;
+    private final DeadLetterStore deadLetterStore;
+    private final boolean ownsDeadLetterStore; // True if the DeadLetterStore was created, and so must be closed, here
+    private final ExecutorService[] lanes;
+    private volatile boolean stopped = false;
+    private volatile BatchProgress progress; // The progress of the batch being processed in parallel, if any
+
+    public DebeziumConsumer(BatchEventConsumer eventConsumer, DbEventSourceConfig eventSourceConfig) {
+        this(eventConsumer, eventSourceConfig,
+                new DeadLetterStore(eventSourceConfig.getDeadLetterDirectory(), eventSourceConfig.getRocksConfig()), true);
+    }
+
+    public DebeziumConsumer(BatchEventConsumer eventConsumer, DbEventSourceConfig eventSourceConfig,
+                            DeadLetterStore deadLetterStore) {
+        this(eventConsumer, eventSourceConfig, deadLetterStore, false);
+    }
 
-    public DebeziumConsumer(EventConsumer eventConsumer, DbEventSourceConfig eventSourceConfig) {
+    private DebeziumConsumer(BatchEventConsumer eventConsumer, DbEventSourceConfig eventSourceConfig,
+                             DeadLetterStore deadLetterStore, boolean ownsDeadLetterStore) {
         this.eventConsumer = eventConsumer;
         this.eventSourceConfig = eventSourceConfig;
+        this.deadLetterStore = deadLetterStore;
+        this.ownsDeadLetterStore = ownsDeadLetterStore;
+        Integer parallelism = eventSourceConfig.getParallelism();
+        if (parallelism != null && parallelism > 1) {
+            lanes = new ExecutorService[parallelism];
+            for (int i = 0; i < parallelism; i++) {
+                String threadName = eventSourceConfig.getSourceName() + "-lane-" + i;
+                lanes[i] = Executors.newSingleThreadExecutor(r -> {
+                    Thread thread = new Thread(r, threadName);
+                    thread.setDaemon(true); // A lane that is stuck in the consumer must not keep the JVM alive
+                    return thread;
+                });
+            }
+        }
+        else {
+            lanes = null;
+        }
     }
 
     /**
      * This the primary handler for all Debezium-generated change events.  Per the
      * <a href="https://debezium.io/documentation/reference/stable/development/engine.html">Debezium Documentation</a>
-     * this function should not throw any exceptions, as these will simply get logged and Debezium will continue onto
-     * the next source record.  So if any exception is caught, this logs the Exception, and retries again after
-     * a configurable retryInterval, until it passes.  This effectively blocks any subsequent processing.
-      * @param changeEvent the Debeziumn generated event to process
+     * records are only considered processed once they are marked as such with the given committer, and offsets
+     * are committed as determined by the configured EventCommitPolicy once the batch is marked as finished.
+     * @param changeEvents the Debezium generated events to process
+     * @param committer the committer used to mark events as processed
      */
     @Override
-    public final void accept(ChangeEvent<SourceRecord, SourceRecord> changeEvent) {
-        DbEventStatus status = null;
-        if (stopped) {
-            throw new RuntimeException("The Debezium consumer has been stopped prior to processing: " + changeEvent);
+    public final void handleBatch(List<ChangeEvent<SourceRecord, SourceRecord>> changeEvents,
+                                  DebeziumEngine.RecordCommitter<ChangeEvent<SourceRecord, SourceRecord>> committer)
+            throws InterruptedException {
+        List<ChangeEvent<SourceRecord, SourceRecord>> dataChangeEvents = new ArrayList<>(changeEvents.size());
+        for (ChangeEvent<SourceRecord, SourceRecord> changeEvent : changeEvents) {
+            if (isSchemaChange(changeEvent.value())) {
+                processDataChanges(dataChangeEvents, committer);
+                dataChangeEvents = new ArrayList<>();
+                processSchemaChange(changeEvent.value());
+                committer.markProcessed(changeEvent);
+            }
+            else {
+                dataChangeEvents.add(changeEvent);
+            }
+        }
+        processDataChanges(dataChangeEvents, committer);
+        EventCommitPolicy commitPolicy = eventSourceConfig.getCommitPolicy();
+        commitPolicy.batchProcessed(changeEvents.size(), eventSourceConfig.getMaxBatchSize());
+        long startTime = System.nanoTime();
+        committer.markBatchFinished();
+        DbEventLog.logBatchFinished(eventSourceConfig.getSourceName(), commitPolicy, System.nanoTime() - startTime);
+    }
+
+    /**
+     * Converts the given data change records to DbEvents, passes these to the consumer, and marks them as processed.
+     * Records that are dropped by the ChangeFilter of their table are not passed to the consumer, but are still marked
+     * as processed in order.  If a ForeignKeyIndex is configured, these are still converted and applied to the index
+     * along with all accepted events, so that the index is complete.  Any record that cannot be converted to a DbEvent
+     * is retried as for processing.
+     */
+    protected void processDataChanges(List<ChangeEvent<SourceRecord, SourceRecord>> changeEvents,
+                                      DebeziumEngine.RecordCommitter<ChangeEvent<SourceRecord, SourceRecord>> committer)
+            throws InterruptedException {
+        if (changeEvents.isEmpty()) {
+            return;
+        }
+        boolean indexed = eventSourceConfig.getForeignKeyIndex() != null;
+        List<DbEvent> events = new ArrayList<>(changeEvents.size()); // Null for each record that is filtered out
+        List<DbEvent> acceptedEvents = new ArrayList<>(changeEvents.size());
+        List<DbEvent> indexedEvents = new ArrayList<>(indexed ? changeEvents.size() : 0); // Including filtered events
+        for (ChangeEvent<SourceRecord, SourceRecord> changeEvent : changeEvents) {
+            DbEvent event = null;
+            if (!isHeartbeat(changeEvent.value())) {
+                boolean accepted = isAccepted(changeEvent.value());
+                if (accepted || indexed) {
+                    event = decode(changeEvent);
+                    if (event != null && indexed) {
+                        indexedEvents.add(event);
+                    }
+                }
+                if (!accepted) {
+                    event = null;
+                }
+                else if (event != null) {
+                    acceptedEvents.add(event);
+                }
+            }
+            events.add(event);
+        }
+        if (!indexedEvents.isEmpty()) {
+            updateIndex(indexedEvents);
+        }
+        if (!acceptedEvents.isEmpty()) {
+            enrich(acceptedEvents);
+        }
+        if (lanes != null) {
+            processInParallel(changeEvents, events, committer);
+        }
+        else if (eventConsumer instanceof EventConsumer) {
+            for (int i = 0; i < events.size(); i++) {
+                if (events.get(i) != null) {
+                    process(Collections.singletonList(events.get(i)));
+                }
+                committer.markProcessed(changeEvents.get(i));
+            }
+        }
+        else {
+            if (!acceptedEvents.isEmpty()) {
+                process(acceptedEvents);
+            }
+            for (ChangeEvent<SourceRecord, SourceRecord> changeEvent : changeEvents) {
+                committer.markProcessed(changeEvent);
+            }
+        }
+    }
+
+    /**
+     * Converts the given record to a DbEvent.  A failure to convert a record is deterministic, so it is not retried.
+     * The record cannot be passed to the consumer or stored as a DeadLetter, so it is logged in full and skipped.
+     * @param changeEvent the data change record to convert
+     * @return the DbEvent, or null if the record could not be converted
+     */
+    protected DbEvent decode(ChangeEvent<SourceRecord, SourceRecord> changeEvent) {
+        try {
+            return eventSourceConfig.isRetainChangeEvents() ? new DbEvent(changeEvent) : new DbEvent(changeEvent.value());
+        }
+        catch (Exception e) {
+            log.error("Unable to decode change event, skipping: " + changeEvent.value(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Performs the given action, and if any exception is caught, logs it and retries after the interval determined
+     * by the configured RetryPolicy, until it passes or the RetryPolicy is exhausted
+     * @param description a description of the action, for logging
+     * @param action the action to perform
+     * @return null if the action succeeded, or the last error if the RetryPolicy was exhausted
+     */
+    protected Throwable retry(String description, Runnable action) throws InterruptedException {
+        return retry(description, action, true);
+    }
+
+    /**
+     * Performs the given action as for retry, but does not stop retrying when the RetryPolicy is exhausted
+     * @param description a description of the action, for logging
+     * @param action the action to perform
+     */
+    protected void retryUntilSuccessful(String description, Runnable action) throws InterruptedException {
+        retry(description, action, false);
+    }
+
+    private Throwable retry(String description, Runnable action, boolean exhaustible) throws InterruptedException {
+        RetryPolicy retryPolicy = eventSourceConfig.getRetryPolicy();
+        int attempts = 0;
+        while (true) {
+            if (stopped) {
+                throw new RuntimeException("The Debezium consumer has been stopped prior to " + description);
+            }
+            try {
+                action.run();
+                return null;
+            }
+            catch (Throwable e) {
+                attempts++;
+                if (exhaustible && retryPolicy.isExhausted(attempts)) {
+                    return e;
+                }
+                long retryInterval = retryPolicy.getRetryIntervalMillis(attempts);
+                log.error("An error occurred " + description + ". Retrying in " + retryInterval + " ms", e);
+                TimeUnit.MILLISECONDS.sleep(retryInterval);
+            }
+        }
+    }
+
+    /**
+     * Evaluates the ChangeFilter configured for the table of the given record, if any, against the raw Structs of
+     * the record.  Records that are not accepted are counted in the DbEventLog.
+     * @param record the data change record
+     * @return true if the record should be passed to the consumer
+     */
+    protected boolean isAccepted(SourceRecord record) {
+        if (eventSourceConfig.getChangeFilters().isEmpty()) {
+            return true;
+        }
+        Struct value = (Struct) record.value();
+        Struct source = value.getStruct("source");
+        String table = source.getString("table");
+        ChangeFilter changeFilter = eventSourceConfig.getChangeFilter(table);
+        if (changeFilter == null) {
+            return true;
+        }
+        Operation operation = Operation.parse(value.getString("op"));
+        if (changeFilter.accept(operation, value.getStruct("before"), value.getStruct("after"))) {
+            return true;
+        }
+        DbEventLog.logFiltered(source.getString("name"), table);
+        return false;
+    }
+
+    /**
+     * Applies the given events to the configured ForeignKeyIndex, if any, which also attaches its target columns to
+     * each event.  If an exception is caught, this retries after the interval determined by the configured
+     * RetryPolicy until it succeeds, even if the RetryPolicy limits the number of attempts, as any batch that is
+     * skipped would leave the index incomplete.  This blocks any subsequent processing.
+     * @param events the events to apply
+     */
+    protected void updateIndex(List<DbEvent> events) throws InterruptedException {
+        ForeignKeyIndex index = eventSourceConfig.getForeignKeyIndex();
+        if (index == null) {
+            return;
+        }
+        retryUntilSuccessful("updating the foreign key index", () -> index.update(events));
+    }
+
+    /**
+     * Enriches the given events with the configured EventEnricher, if any.  If an exception is caught, this retries
+     * after the interval determined by the configured RetryPolicy.  If the RetryPolicy limits the number of attempts,
+     * and this limit is reached, each event is marked with setEnrichmentFailed, and passed to the consumer with
+     * whatever enrichments it has, so that the consumer can tell these apart from events that were fully enriched.
+     * @param events the events to enrich
+     */
+    protected void enrich(List<DbEvent> events) throws InterruptedException {
+        EventEnricher enricher = eventSourceConfig.getEventEnricher();
+        if (enricher == null) {
+            return;
+        }
+        Throwable error = retry("enriching change events", () -> enricher.enrich(events));
+        if (error != null) {
+            log.error("Unable to enrich " + events.size() + " change events. Marking these as not enriched", error);
+            for (DbEvent event : events) {
+                event.setEnrichmentFailed(true);
+            }
+        }
+    }
+
+    /**
+     * @param record the record to check
+     * @return true if the given record is a schema change event, rather than a data change event
+     */
+    protected boolean isSchemaChange(SourceRecord record) {
+        Schema schema = record.valueSchema();
+        return schema != null && schema.name() != null && schema.name().endsWith(".SchemaChangeValue");
+    }
+
+    /**
+     * Heartbeat records are emitted periodically, as configured by heartbeat.interval.ms, even while no changes occur.
+     * These are not passed to the consumer, but are marked as processed so that the engine can commit offsets.
+     * @param record the record to check
+     * @return true if the given record is a heartbeat
+     */
+    protected boolean isHeartbeat(SourceRecord record) {
+        Schema schema = record.valueSchema();
+        return schema != null && HEARTBEAT_SCHEMA_NAME.equals(schema.name());
+    }
+
+    /**
+     * Schema changes are received only if the source is configured to include schema changes.  All data change
+     * events that precede a schema change are processed before it, so the metadata of the affected tables is
+     * reloaded before any events that follow it are processed.  If reloading fails, this is retried according to the
+     * configured RetryPolicy.  If the RetryPolicy is exhausted, the error is logged and the previously loaded metadata
+     * for these tables remains in use.
+     * @param record the schema change record
+     */
+    protected void processSchemaChange(SourceRecord record) throws InterruptedException {
+        Struct value = (Struct) record.value();
+        Set<String> tableNames = new TreeSet<>();
+        if (value.schema().field("tableChanges") != null && value.getArray("tableChanges") != null) {
+            for (Object tableChange : value.getArray("tableChanges")) {
+                String id = ((Struct) tableChange).getString("id"); // In the format "database"."table"
+                tableNames.add(id.substring(id.lastIndexOf('.') + 1).replace("\"", "").toLowerCase());
+            }
+        }
+        log.debug("Received schema change for tables " + tableNames + ": " + value.getString("ddl"));
+        Throwable error = retry("reloading metadata for tables " + tableNames, () -> {
+            eventSourceConfig.getContext().getDatabase().refreshTables(tableNames);
+        });
+        if (error != null) {
+            log.error("Unable to reload metadata for tables " + tableNames + ". Continuing with previous metadata", error);
+        }
+    }
+
+    /**
+     * Distributes the given events across the worker lanes, and marks each record as processed once it and all
+     * records that precede it in the batch have been processed.  This blocks until the full batch is processed.
+     * Any record whose event is null has been filtered out, and is considered processed.  The partitioner is first
+     * prepared with all events of the batch, retrying as for enrichment.  If the RetryPolicy is exhausted, events are
+     * partitioned with whatever the partitioner was able to prepare, which may fall back to coarser partition keys.
+     */
+    protected void processInParallel(List<ChangeEvent<SourceRecord, SourceRecord>> changeEvents, List<DbEvent> events,
+                                     DebeziumEngine.RecordCommitter<ChangeEvent<SourceRecord, SourceRecord>> committer)
+            throws InterruptedException {
+        List<List<Integer>> eventsByLane = new ArrayList<>(lanes.length);
+        for (int i = 0; i < lanes.length; i++) {
+            eventsByLane.add(new ArrayList<>());
+        }
+        EventPartitioner partitioner = eventSourceConfig.getEventPartitioner();
+        List<DbEvent> partitionedEvents = new ArrayList<>(events.size());
+        for (DbEvent event : events) {
+            if (event != null) {
+                partitionedEvents.add(event);
+            }
+        }
+        Throwable error = retry("preparing change events for partitioning", () -> partitioner.prepare(partitionedEvents));
+        if (error != null) {
+            log.error("Unable to prepare " + partitionedEvents.size() + " change events for partitioning", error);
+        }
+        BatchProgress progress = new BatchProgress(events.size());
+        this.progress = progress;
+        for (int i = 0; i < events.size(); i++) {
+            if (events.get(i) == null) {
+                progress.completed(i);
+                continue;
+            }
+            Object partitionKey = partitioner.getPartitionKey(events.get(i));
+            eventsByLane.get(Math.floorMod(Objects.hashCode(partitionKey), lanes.length)).add(i);
+        }
+        for (int lane = 0; lane < lanes.length; lane++) {
+            List<Integer> indexes = eventsByLane.get(lane);
+            if (!indexes.isEmpty()) {
+                lanes[lane].execute(() -> {
+                    try {
+                        if (eventConsumer instanceof EventConsumer) {
+                            for (Integer index : indexes) {
+                                process(Collections.singletonList(events.get(index)));
+                                progress.completed(index);
+                            }
+                        }
+                        else {
+                            List<DbEvent> laneEvents = new ArrayList<>(indexes.size());
+                            for (Integer index : indexes) {
+                                laneEvents.add(events.get(index));
+                            }
+                            process(laneEvents);
+                            for (Integer index : indexes) {
+                                progress.completed(index);
+                            }
+                        }
+                    }
+                    catch (Throwable e) {
+                        progress.failed(e);
+                    }
+                });
+            }
         }
         try {
-            DbEvent event = new DbEvent(changeEvent);
-            status = DbEventLog.log(event);
-            eventConsumer.accept(event);
-            status.setProcessed(true);
+            for (int i = 0; i < changeEvents.size(); i++) {
+                progress.awaitCompleted(i);
+                committer.markProcessed(changeEvents.get(i));
+            }
+        }
+        finally {
+            this.progress = null;
+        }
+    }
+
+    /**
+     * Passes the given events to the registered consumer.  If any exception is caught, this logs the Exception,
+     * and retries again after the interval determined by the configured RetryPolicy, until it passes.
+     * This effectively blocks any subsequent processing.  If the RetryPolicy limits the number of attempts, and
+     * this limit is reached, the events are split in half and each half is retried on its own, so that only those
+     * events that still fail in isolation are moved to the DeadLetterStore, and processing continues.
+     * @param events the events to process
+     */
+    protected void process(List<DbEvent> events) throws InterruptedException {
+        List<DbEventStatus> statuses = new ArrayList<>(events.size());
+        for (DbEvent event : events) {
+            statuses.add(DbEventLog.log(event));
         }
-        catch (Throwable e) {
-            log.error("An error occurred processing change event: " + changeEvent  + ". Retrying in 1 minute", e);
-            if (status != null) {
-                status.setError(e);
+        process(events, statuses);
+    }
+
+    /**
+     * Processes the given events, bisecting them if the RetryPolicy is exhausted
+     * @param events the events to process
+     * @param statuses the statuses of the given events, in the same order
+     */
+    protected void process(List<DbEvent> events, List<DbEventStatus> statuses) throws InterruptedException {
+        RetryPolicy retryPolicy = eventSourceConfig.getRetryPolicy();
+        int attempts = 0;
+        while (true) {
+            if (stopped) {
+                throw new RuntimeException("The Debezium consumer has been stopped prior to processing: " + events);
             }
+            long startTime = System.nanoTime();
             try {
-                TimeUnit.SECONDS.sleep(eventSourceConfig.getRetryIntervalSeconds());
+                eventConsumer.acceptBatch(events);
+                DbEventLog.logProcessed(statuses, System.nanoTime() - startTime);
+                return;
             }
-            catch (Exception e2) {
-                log.error("An exception occurred while waiting to retry processing change event", e2);
+            catch (Throwable e) {
+                attempts++;
+                if (retryPolicy.isExhausted(attempts)) {
+                    if (events.size() > 1) {
+                        int mid = events.size() / 2;
+                        log.warn("Unable to process " + events.size() + " change events after " + attempts + " attempts. Retrying each half separately", e);
+                        process(events.subList(0, mid), statuses.subList(0, mid));
+                        process(events.subList(mid, events.size()), statuses.subList(mid, statuses.size()));
+                        return;
+                    }
+                    log.error("Unable to process change events after " + attempts + " attempts: " + events + ". Moving to dead letter store", e);
+                    for (DbEvent event : events) {
+                        deadLetterStore.add(event, e, attempts);
+                    }
+                    DbEventLog.logDeadLetter(statuses, e);
+                    return;
+                }
+                long retryInterval = retryPolicy.getRetryIntervalMillis(attempts);
+                log.error("An error occurred processing change events: " + events + ". Retrying in " + retryInterval + " ms", e);
+                DbEventLog.logRetry(statuses, e);
+                TimeUnit.MILLISECONDS.sleep(retryInterval);
             }
-            accept(changeEvent);
         }
     }
 
+    /**
+     * Stops this consumer, discarding any events still queued on its lanes.  A DeadLetterStore created by this
+     * consumer is closed, whereas one that was passed in remains open and is closed by its owner.
+     */
     public void cancel() {
         this.stopped = true;
+        if (lanes != null) {
+            for (ExecutorService lane : lanes) {
+                lane.shutdownNow();
+            }
+        }
+        BatchProgress progress = this.progress;
+        if (progress != null) {
+            progress.failed(new RuntimeException("The Debezium consumer has been stopped"));
+        }
+        if (ownsDeadLetterStore) {
+            deadLetterStore.close();
+        }
+    }
+
+    /**
+     * Tracks the completion of each event in a batch that is processed across multiple lanes.  Waiting for an event
+     * stops with an exception if the consumer is cancelled, as any tasks still queued on the lanes are discarded.
+     */
+    private class BatchProgress {
+
+        private final boolean[] completed;
+        private Throwable failure;
+
+        BatchProgress(int size) {
+            completed = new boolean[size];
+        }
+
+        synchronized void completed(int index) {
+            completed[index] = true;
+            notifyAll();
+        }
+
+        synchronized void failed(Throwable e) {
+            failure = e;
+            notifyAll();
+        }
+
+        synchronized void awaitCompleted(int index) throws InterruptedException {
+            while (!completed[index]) {
+                if (failure != null) {
+                    throw new RuntimeException("An error occurred processing change events in parallel", failure);
+                }
+                if (stopped) {
+                    throw new RuntimeException("The Debezium consumer has been stopped while processing change events in parallel");
+                }
+                wait(TimeUnit.SECONDS.toMillis(1));
+            }
+        }
     }
 }
@@ -0,0 +1,88 @@
+package org.openmrs.module.dbevent;
+
+import io.debezium.engine.spi.OffsetCommitPolicy;
+import lombok.AccessLevel;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.time.Duration;
+
+/**
+ * Determines when the offsets of processed events are committed.  Offsets are committed once maxEvents events have
+ * been processed, or maxIntervalMillis has elapsed since the last commit, whichever comes first.
+ * If commitWhenCaughtUp is true, offsets are also committed as soon as a batch is processed that is smaller than the
+ * maximum batch size, which indicates that the source has caught up with the database and the stream is idle.
+ * This enables commits to be infrequent while catching up on a large backlog, and immediate when the stream is quiet.
+ * Lower values reduce the number of events that are re-processed after a crash, at the cost of more frequent writes.
+ * The engine only consults this policy when a batch finishes, so an idle source relies on heartbeat records, as
+ * configured by heartbeat.interval.ms, to commit the offsets of a full batch that is followed by no further changes.
+ * The engine does not report whether a requested commit succeeded, but it only resets its count of events since the
+ * last commit once offsets are flushed, so the outcome of each requested commit is confirmed when the policy is next
+ * consulted, and committed is only true for the batch at which a completed flush is confirmed.
+ */
+@Data
+public class EventCommitPolicy implements OffsetCommitPolicy {
+
+    private static final Logger log = LogManager.getLogger(EventCommitPolicy.class);
+
+    private long maxEvents = 1000;
+    private long maxIntervalMillis = 5000;
+    private boolean commitWhenCaughtUp = true;
+
+    @Setter(AccessLevel.NONE) @ToString.Exclude @EqualsAndHashCode.Exclude
+    private volatile boolean caughtUp = false;
+
+    @Setter(AccessLevel.NONE) @ToString.Exclude @EqualsAndHashCode.Exclude
+    private volatile boolean commitRequested = false; // Whether a commit was requested when the last batch finished
+
+    @Setter(AccessLevel.NONE) @ToString.Exclude @EqualsAndHashCode.Exclude
+    private volatile boolean committed = false; // Whether a flush of a previously requested commit was confirmed
+
+    @Setter(AccessLevel.NONE) @ToString.Exclude @EqualsAndHashCode.Exclude
+    private volatile long eventsSinceLastCommit = 0;
+
+    @Getter(AccessLevel.NONE) @Setter(AccessLevel.NONE) @ToString.Exclude @EqualsAndHashCode.Exclude
+    private volatile boolean awaitingConfirmation = false;
+
+    @Getter(AccessLevel.NONE) @Setter(AccessLevel.NONE) @ToString.Exclude @EqualsAndHashCode.Exclude
+    private volatile long eventsSinceCommitRequested = 0;
+
+    /**
+     * Notifies the policy that a batch of events has been processed, prior to the engine deciding whether to commit
+     * @param batchSize the number of events in the batch, all of which have been marked as processed
+     * @param maxBatchSize the maximum number of events the engine returns in a batch
+     */
+    public void batchProcessed(int batchSize, int maxBatchSize) {
+        caughtUp = batchSize < maxBatchSize;
+        commitRequested = false;
+        committed = false;
+        eventsSinceCommitRequested += batchSize;
+    }
+
+    @Override
+    public boolean performCommit(long numberOfMessagesSinceLastCommit, Duration timeSinceLastCommit) {
+        if (awaitingConfirmation) {
+            awaitingConfirmation = false;
+            committed = numberOfMessagesSinceLastCommit == eventsSinceCommitRequested;
+            if (!committed) {
+                log.warn("Offsets were not flushed when last requested, these will be committed with the next commit");
+            }
+        }
+        commitRequested = numberOfMessagesSinceLastCommit > 0 && (
+                numberOfMessagesSinceLastCommit >= maxEvents ||
+                timeSinceLastCommit.toMillis() >= maxIntervalMillis ||
+                (commitWhenCaughtUp && caughtUp)
+        );
+        if (commitRequested) {
+            awaitingConfirmation = true;
+            eventsSinceCommitRequested = 0;
+        }
+        eventsSinceLastCommit = commitRequested ? 0 : numberOfMessagesSinceLastCommit;
+        return commitRequested;
+    }
+}
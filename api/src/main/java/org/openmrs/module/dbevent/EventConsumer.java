@@ -1,19 +1,22 @@
 package org.openmrs.module.dbevent;
 
+import java.util.List;
 import java.util.function.Consumer;
 
 /**
  * Implementations should implement this interface to provide logic for handing Events from a DbEventSource
+ * Events are delivered one at a time, and each event is successfully processed before moving onto the next
  */
-public interface EventConsumer extends Consumer<DbEvent> {
+public interface EventConsumer extends Consumer<DbEvent>, BatchEventConsumer {
 
     /**
-     * Any logic that should be executed at startup (prior to any Event processing) can be implemented here
+     * Default implementation that passes each event in the batch to the accept method in order
+     * @param events the events to process, in the order in which they were emitted
      */
-    default void startup() {}
-
-    /**
-     * Any logic that should be executed at shutdown can be implemented here.
-     */
-    default void shutdown() {}
+    @Override
+    default void acceptBatch(List<DbEvent> events) {
+        for (DbEvent event : events) {
+            accept(event);
+        }
+    }
 }
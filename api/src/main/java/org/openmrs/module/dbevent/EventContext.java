@@ -7,7 +7,9 @@ import org.openmrs.api.context.Context;
 import org.openmrs.util.OpenmrsUtil;
 
 import java.io.File;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Simple wrapper class access that provides access to the OpenMRS Context and related services
@@ -17,6 +19,8 @@ public class EventContext {
 
     private static final Logger log = LogManager.getLogger(EventContext.class);
 
+    private static final Map<String, Database> databases = new ConcurrentHashMap<>();
+
     private File applicationDataDir;
     private Properties runtimeProperties;
 
@@ -26,10 +30,31 @@ public class EventContext {
     }
 
     /**
-     * @return a database object constructed from the given runtime properties.
+     * @return a database object constructed from the given runtime properties.  This is shared by all contexts with
+     * the same connection url and username, so that metadata is only loaded once, and persists its metadata in the
+     * module data directory, so that it is only reloaded on restart if the schema has changed.
      */
     public Database getDatabase() {
-        return new Database(runtimeProperties);
+        String key = runtimeProperties.getProperty("connection.url") + "|" + runtimeProperties.getProperty("connection.username");
+        return databases.computeIfAbsent(key, k -> {
+            Database database = new Database(runtimeProperties);
+            database.setMetadataCache(new DatabaseMetadataCache(getMetadataCacheDir()));
+            return database;
+        });
+    }
+
+    /**
+     * @return the directory in which database metadata is persisted
+     */
+    public File getMetadataCacheDir() {
+        return new File(getModuleDataDir(), "metadata");
+    }
+
+    /**
+     * Removes all shared database objects, so that metadata is loaded again on next access
+     */
+    public static void clearDatabases() {
+        databases.clear();
     }
 
     /**
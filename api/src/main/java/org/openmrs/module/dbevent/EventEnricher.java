@@ -0,0 +1,18 @@
+package org.openmrs.module.dbevent;
+
+import java.util.List;
+
+/**
+ * Implementations of this interface attach additional context to events before they are passed to the consumer.
+ * Each batch of data change events is enriched as a whole, prior to any partitioning, so that implementations can
+ * retrieve the context for many events at once rather than querying for each event individually.
+ * @see DbEvent#setEnrichment(String, Object)
+ */
+public interface EventEnricher {
+
+    /**
+     * Attaches enrichments to the given events.  If this throws an Exception, the batch will be retried.
+     * @param events the events to enrich, in the order in which they were emitted
+     */
+    void enrich(List<DbEvent> events);
+}
@@ -0,0 +1,25 @@
+package org.openmrs.module.dbevent;
+
+import java.util.List;
+
+/**
+ * Implementations of this interface determine how events are distributed across worker lanes when a
+ * DbEventSource is configured with a parallelism greater than 1.  All events that return an equal partition key
+ * are processed on the same lane, in the order in which they were emitted.  Events with different partition keys
+ * may be processed concurrently, and in any order relative to each other.
+ */
+public interface EventPartitioner {
+
+    /**
+     * Called with the events of each batch before getPartitionKey is called for any of them, so that any values
+     * needed to partition them can be retrieved for the whole batch at once, rather than for each event
+     * @param events the events to partition, in the order in which they were emitted
+     */
+    default void prepare(List<DbEvent> events) {}
+
+    /**
+     * @param event the event to partition
+     * @return the key that identifies the partition of the given event.  Events with equal keys are kept in order.
+     */
+    Object getPartitionKey(DbEvent event);
+}
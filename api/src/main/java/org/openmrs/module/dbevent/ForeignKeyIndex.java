@@ -0,0 +1,334 @@
+package org.openmrs.module.dbevent;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Local index of the foreign key values of each row, backed by a Rocks DB, and maintained from the events of the source.
+ * For each event on a table with a single-column primary key, the values of its foreign key columns are stored under
+ * the table and primary key of the row, such as the encounter_id of each obs and the patient_id of each encounter.
+ * Join paths from a row to a target column, such as obs -> encounter -> patient, can then be followed in this index
+ * rather than in the database.  Each batch of events is applied in order before it is passed to the consumer, and any
+ * configured target columns are resolved for each event as of the point in the stream at which it occurred.
+ * Unlike an EventEnricher, the index must never skip a batch, as every later event would be resolved from an index
+ * that is missing its rows, so the source retries a failed update until it succeeds, regardless of the RetryPolicy.
+ * @see DbEventSourceConfig#setForeignKeyIndex(ForeignKeyIndex)
+ * The index is complete only if it is enabled before the initial snapshot, so the source should be reset if it is
+ * enabled on a source that has already been snapshotted.  Closing the index also stops it listening for metadata
+ * changes, until it is used again.
+ */
+public class ForeignKeyIndex implements AutoCloseable {
+
+    private static final Logger log = LogManager.getLogger(ForeignKeyIndex.class);
+
+    private final Database database;
+    private final File directory;
+    private final RocksConfig rocksConfig;
+    private final List<String> excludedTables;
+    private final Map<String, String[]> targetColumns = new LinkedHashMap<>();
+    private final Map<String, List<DatabaseJoin>> indexedJoins = new ConcurrentHashMap<>();
+    private final Map<String, List<DatabaseJoinPath>> paths = new ConcurrentHashMap<>();
+    private final Map<List<Object>, Map<String, Object>> pendingRows = new HashMap<>(); // Unwritten rows in the current batch
+    private final DatabaseMetadataListener metadataListener = this::tablesChanged;
+    private boolean listening = false;
+    private Rocks rocks;
+
+    /**
+     * @param config the source whose events maintain the index
+     * @param excludedTables foreign keys to these tables are not indexed, and join paths through them are not followed
+     */
+    public ForeignKeyIndex(DbEventSourceConfig config, List<String> excludedTables) {
+        this(config.getContext().getDatabase(), config.getForeignKeyIndexDirectory(), config.getRocksConfig(), excludedTables);
+    }
+
+    /**
+     * @param database the database whose metadata determines the foreign keys to index
+     * @param directory the directory of the Rocks DB
+     * @param rocksConfig the tuning profile to use, or null to use the RocksDB defaults
+     * @param excludedTables foreign keys to these tables are not indexed, and join paths through them are not followed
+     */
+    public ForeignKeyIndex(Database database, File directory, RocksConfig rocksConfig, List<String> excludedTables) {
+        this.database = database;
+        this.directory = directory;
+        this.rocksConfig = rocksConfig;
+        this.excludedTables = excludedTables;
+        listen();
+    }
+
+    /**
+     * @param name the name of the enrichment to attach
+     * @param tableName the table of the target column
+     * @param columnName the target column, whose value is resolved from the index and attached to each event
+     * @return this index, for chaining
+     */
+    public ForeignKeyIndex addTargetColumn(String name, String tableName, String columnName) {
+        targetColumns.put(name, new String[] {tableName, columnName});
+        return this;
+    }
+
+    /**
+     * Updates the index from each of the given events in order, resolving the configured target columns for each
+     * event once the index reflects it, and writes all updates in a single atomic write.  If this throws an exception,
+     * nothing is written, so the same batch can be applied again.
+     * @param events the events to apply, in the order in which they were emitted
+     */
+    public synchronized void update(List<DbEvent> events) {
+        DatabaseMetadata metadata = database.getMetadata();
+        Map<String, DatabaseColumn> targets = new LinkedHashMap<>();
+        for (Map.Entry<String, String[]> target : targetColumns.entrySet()) {
+            DatabaseColumn targetColumn = metadata.getColumn(target.getValue()[0], target.getValue()[1]);
+            if (targetColumn == null) {
+                log.warn("Unable to enrich events with " + target.getKey() + ", column not found: " + Arrays.toString(target.getValue()));
+            }
+            else {
+                targets.put(target.getKey(), targetColumn);
+            }
+        }
+        try (Rocks.Batch batch = getRocks().newBatch()) {
+            for (DbEvent event : events) {
+                update(event, batch);
+                for (Map.Entry<String, DatabaseColumn> target : targets.entrySet()) {
+                    Object value = resolve(event, target.getValue());
+                    if (value != null) {
+                        event.setEnrichment(target.getKey(), value);
+                    }
+                }
+            }
+            batch.write();
+        }
+        finally {
+            pendingRows.clear();
+        }
+    }
+
+    /**
+     * Adds the foreign key values of the row of the given event to the given batch, or removes the row if deleted
+     */
+    protected void update(DbEvent event, Rocks.Batch batch) {
+        DatabaseTable table = database.getMetadata().getTable(event.getTable());
+        if (table == null) {
+            return;
+        }
+        List<DatabaseJoin> joins = getIndexedJoins(table);
+        if (joins.isEmpty()) {
+            return;
+        }
+        DatabaseColumn primaryKey = getPrimaryKeyColumn(table);
+        Object id = (primaryKey == null ? null : toKey(event.getValue(primaryKey.getColumnName())));
+        if (id == null) {
+            return;
+        }
+        ArrayList<Object> key = new ArrayList<>(Arrays.asList(table.getTableName(), id));
+        if (event.getOperation() == Operation.DELETE) {
+            pendingRows.put(key, null);
+            batch.delete(key);
+        }
+        else {
+            LinkedHashMap<String, Object> row = new LinkedHashMap<>(); // Written compactly by the BinarySerializer
+            for (DatabaseJoin join : joins) {
+                String columnName = join.getForeignKey().getColumnName();
+                row.put(columnName, event.getValue(columnName));
+            }
+            pendingRows.put(key, row);
+            batch.put(key, row);
+        }
+    }
+
+    /**
+     * Only the columns needed by the join paths are read from the event, so its row values are not materialized
+     * @param event the event to resolve the value for
+     * @param targetColumn the column whose value to resolve
+     * @return the value of the target column for the row of the given event, or null if this cannot be determined
+     */
+    public Object resolve(DbEvent event, DatabaseColumn targetColumn) {
+        return resolve(event.getTable(), event::getValue, targetColumn);
+    }
+
+    /**
+     * @param tableName the table of the row
+     * @param values the values of the row, by column name
+     * @param targetColumn the column whose value to resolve
+     * @return the value of the target column for the given row, or null if this cannot be determined from the index
+     */
+    public Object resolve(String tableName, Map<String, Object> values, DatabaseColumn targetColumn) {
+        return resolve(tableName, values::get, targetColumn);
+    }
+
+    /**
+     * Follows each join path from the given table to the target column in turn, shortest first, until one resolves
+     * @param tableName the table of the row
+     * @param values returns the value of the row for a given column name
+     * @param targetColumn the column whose value to resolve
+     * @return the value of the target column for the given row, or null if this cannot be determined from the index
+     */
+    protected synchronized Object resolve(String tableName, Function<String, Object> values, DatabaseColumn targetColumn) {
+        if (tableName.equals(targetColumn.getTableName())) {
+            return values.apply(targetColumn.getColumnName());
+        }
+        for (DatabaseJoinPath path : getPaths(tableName, targetColumn)) {
+            Object value = values.apply(path.get(0).getForeignKey().getColumnName());
+            for (int i = 1; i < path.size() && value != null; i++) {
+                DatabaseJoin join = path.get(i);
+                if (!join.getForeignKey().equals(path.get(i - 1).getPrimaryKey())) {
+                    Map<String, Object> row = getRow(join.getForeignKey().getTableName(), value);
+                    value = (row == null ? null : row.get(join.getForeignKey().getColumnName()));
+                }
+            }
+            if (value != null) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param tableName the table of the row
+     * @param id the primary key value of the row
+     * @return the indexed foreign key values of the row, by column name, or null if the row is not indexed
+     */
+    public synchronized Map<String, Object> getRow(String tableName, Object id) {
+        Object key = toKey(id);
+        if (key == null) {
+            return null;
+        }
+        ArrayList<Object> rowKey = new ArrayList<>(Arrays.asList(tableName, key));
+        if (pendingRows.containsKey(rowKey)) {
+            return pendingRows.get(rowKey);
+        }
+        Map<String, Object> row = getRocks().get(rowKey);
+        return row;
+    }
+
+    /**
+     * @return the foreign key joins of the given table that are indexed, which are those that do not reference an
+     * excluded table
+     */
+    protected List<DatabaseJoin> getIndexedJoins(DatabaseTable table) {
+        listen();
+        return indexedJoins.computeIfAbsent(table.getTableName(), t -> {
+            List<DatabaseJoin> ret = new ArrayList<>();
+            for (DatabaseJoin join : table.getForeignKeyReferences()) {
+                if (!excludedTables.contains(join.getPrimaryKey().getTableName())) {
+                    ret.add(join);
+                }
+            }
+            return ret;
+        });
+    }
+
+    /**
+     * @return the shortest join paths from the given table to the given column, shortest first
+     */
+    protected List<DatabaseJoinPath> getPaths(String tableName, DatabaseColumn targetColumn) {
+        listen();
+        return paths.computeIfAbsent(tableName + "->" + targetColumn.getTableAndColumn(), k -> {
+            DatabaseMetadata metadata = database.getMetadata();
+            DatabaseTable table = metadata.getTable(tableName);
+            if (table == null) {
+                return Collections.emptyList();
+            }
+            List<DatabaseJoinPath> ret = new ArrayList<>(metadata.getPathsToColumn(table, targetColumn, excludedTables));
+            ret.sort(Comparator.comparingInt(DatabaseJoinPath::size));
+            return ret;
+        });
+    }
+
+    /**
+     * @return the primary key column of the given table, or null if it does not have a single-column primary key
+     */
+    protected DatabaseColumn getPrimaryKeyColumn(DatabaseTable table) {
+        DatabaseColumn ret = null;
+        for (DatabaseColumn column : table.getColumns().values()) {
+            if (column.isPrimaryKey()) {
+                if (ret != null) {
+                    return null;
+                }
+                ret = column;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Integer and Long keys are both stored as Longs, so that a foreign key matches the primary key that it references
+     * regardless of the width of either column
+     * @return the given value as a key that can be indexed, or null if it is not of a type that can be indexed
+     */
+    protected Object toKey(Object value) {
+        if (value instanceof Integer || value instanceof Short) {
+            return ((Number) value).longValue();
+        }
+        if (value instanceof Long || value instanceof String) {
+            return value;
+        }
+        return null;
+    }
+
+    /**
+     * Discards the indexed joins of the changed tables, and the join paths of all tables, as these may have changed.
+     * Rows that are already indexed are retained.
+     */
+    protected void tablesChanged(DatabaseMetadata metadata, Set<String> tableNames) {
+        indexedJoins.keySet().removeAll(tableNames);
+        paths.clear();
+    }
+
+    /**
+     * Registers this index to be notified of metadata changes, if it is not already
+     */
+    protected synchronized void listen() {
+        if (!listening) {
+            database.addMetadataListener(metadataListener);
+            listening = true;
+        }
+    }
+
+    /**
+     * Closes the underlying Rocks DB, if open, stops listening for metadata changes, and discards the cached joins
+     */
+    @Override
+    public synchronized void close() {
+        database.removeMetadataListener(metadataListener);
+        listening = false;
+        indexedJoins.clear();
+        paths.clear();
+        if (rocks != null) {
+            rocks.close();
+            rocks = null;
+        }
+    }
+
+    /**
+     * Closes and deletes the index
+     */
+    public synchronized void delete() {
+        close();
+        FileUtils.deleteQuietly(directory);
+    }
+
+    private Rocks getRocks() {
+        if (rocks == null) {
+            rocks = new Rocks(directory, rocksConfig, new OrderedKeySerializer(), new BinarySerializer());
+        }
+        return rocks;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + " " + targetColumns.keySet();
+    }
+}
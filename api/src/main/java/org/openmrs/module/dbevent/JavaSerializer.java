@@ -0,0 +1,21 @@
+package org.openmrs.module.dbevent;
+
+import org.apache.commons.lang3.SerializationUtils;
+
+import java.io.Serializable;
+
+/**
+ * Serializer that uses standard Java serialization.  This supports any Serializable value.
+ */
+public class JavaSerializer implements Serializer {
+
+    @Override
+    public byte[] serialize(Serializable value) {
+        return SerializationUtils.serialize(value);
+    }
+
+    @Override
+    public <T extends Serializable> T deserialize(byte[] bytes) {
+        return SerializationUtils.deserialize(bytes);
+    }
+}
@@ -0,0 +1,98 @@
+package org.openmrs.module.dbevent;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Loads DatabaseMetadata using the generic JDBC DatabaseMetaData methods.  This works with any driver, but
+ * requires several round trips to the database for each table.
+ */
+public class JdbcDatabaseMetadataLoader implements DatabaseMetadataLoader {
+
+    @Override
+    public DatabaseMetadata loadMetadata(Connection connection, String databaseName) throws SQLException {
+        DatabaseMetadata metadata = new DatabaseMetadata();
+        metadata.setDatabaseName(databaseName);
+        DatabaseMetaData jdbcMetadata = connection.getMetaData();
+        try (ResultSet tableRs = jdbcMetadata.getTables(databaseName, null, "%", new String[]{"TABLE"})) {
+            while (tableRs.next()) {
+                String tableName = tableRs.getString("TABLE_NAME").toLowerCase();
+                metadata.addTable(loadTable(jdbcMetadata, databaseName, tableName));
+            }
+        }
+        for (DatabaseTable table : metadata.getTables().values()) {
+            try (ResultSet fkRs = jdbcMetadata.getExportedKeys(databaseName, null, table.getTableName())) {
+                addReferences(metadata, fkRs);
+            }
+        }
+        return metadata;
+    }
+
+    @Override
+    public void reloadTables(Connection connection, DatabaseMetadata metadata, Collection<String> tableNames) throws SQLException {
+        String databaseName = metadata.getDatabaseName();
+        DatabaseMetaData jdbcMetadata = connection.getMetaData();
+        List<String> existingTables = new ArrayList<>();
+        for (String tableName : tableNames) {
+            boolean exists = false;
+            try (ResultSet tableRs = jdbcMetadata.getTables(databaseName, null, tableName, new String[]{"TABLE"})) {
+                while (tableRs.next()) {
+                    exists = exists || tableName.equalsIgnoreCase(tableRs.getString("TABLE_NAME"));
+                }
+            }
+            if (exists) {
+                existingTables.add(tableName);
+            }
+            metadata.replaceTable(tableName, exists ? loadTable(jdbcMetadata, databaseName, tableName) : null);
+        }
+        for (String tableName : existingTables) {
+            try (ResultSet fkRs = jdbcMetadata.getImportedKeys(databaseName, null, tableName)) {
+                addReferences(metadata, fkRs);
+            }
+            try (ResultSet fkRs = jdbcMetadata.getExportedKeys(databaseName, null, tableName)) {
+                addReferences(metadata, fkRs);
+            }
+        }
+    }
+
+    /**
+     * @return the table with the given name, with all columns and primary keys loaded
+     */
+    protected DatabaseTable loadTable(DatabaseMetaData jdbcMetadata, String databaseName, String tableName) throws SQLException {
+        DatabaseTable table = new DatabaseTable(databaseName, tableName);
+        try (ResultSet columnRs = jdbcMetadata.getColumns(databaseName, null, tableName, "%")) {
+            while (columnRs.next()) {
+                if (tableName.equalsIgnoreCase(columnRs.getString("TABLE_NAME"))) {
+                    String columnName = columnRs.getString("COLUMN_NAME").toLowerCase();
+                    boolean nullable = "YES".equals(columnRs.getString("IS_NULLABLE"));
+                    table.addColumn(new DatabaseColumn(databaseName, tableName, columnName, nullable));
+                }
+            }
+        }
+        try (ResultSet pkRs = jdbcMetadata.getPrimaryKeys(databaseName, null, tableName)) {
+            while (pkRs.next()) {
+                String columnName = pkRs.getString("COLUMN_NAME").toLowerCase();
+                table.getColumns().get(columnName).setPrimaryKey(true);
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Adds the foreign key references in the given result of getImportedKeys or getExportedKeys to the metadata
+     */
+    protected void addReferences(DatabaseMetadata metadata, ResultSet fkRs) throws SQLException {
+        while (fkRs.next()) {
+            String fkTableName = fkRs.getString("FKTABLE_NAME").toLowerCase();
+            String fkColumnName = fkRs.getString("FKCOLUMN_NAME").toLowerCase();
+            String pkTableName = fkRs.getString("PKTABLE_NAME").toLowerCase();
+            String pkColumnName = fkRs.getString("PKCOLUMN_NAME").toLowerCase();
+            metadata.addReference(fkTableName, fkColumnName, pkTableName, pkColumnName);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package org.openmrs.module.dbevent;
+
+import org.apache.commons.dbutils.handlers.ArrayListHandler;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * EventEnricher that attaches the value of each configured target column to every event from which it can be
+ * resolved by following foreign keys, such as the patient_id of an obs, or the encounter_type of an obs.
+ * Rather than querying for each event, the events of each batch are grouped by the JoinPathLookup that applies to
+ * them, and the distinct parameter values of each group are looked up with a single query using an in-list.
+ * If a lookup returns no value for an event, the next shortest lookup is tried, as with JoinPathResolver.
+ * The event source closes the enricher when it is stopped, which stops its resolver listening for metadata changes.
+ */
+public class JoinPathEnricher implements EventEnricher, AutoCloseable {
+
+    private static final Logger log = LogManager.getLogger(JoinPathEnricher.class);
+
+    private final Database database;
+    private final JoinPathResolver resolver;
+    private final Map<String, String[]> targetColumns = new LinkedHashMap<>();
+    private int maxValuesPerQuery = 1000;
+
+    public JoinPathEnricher(Database database) {
+        this(database, Collections.emptyList());
+    }
+
+    /**
+     * @param database the database to look up values from
+     * @param excludedTables join paths through any of these tables are not followed
+     */
+    public JoinPathEnricher(Database database, List<String> excludedTables) {
+        this(database, new JoinPathResolver(database, excludedTables));
+    }
+
+    /**
+     * @param database the database to look up values from
+     * @param resolver the resolver whose lookups are used, which is closed when this enricher is closed
+     */
+    public JoinPathEnricher(Database database, JoinPathResolver resolver) {
+        this.database = database;
+        this.resolver = resolver;
+    }
+
+    /**
+     * @param name the name of the enrichment to attach
+     * @param tableName the table of the target column
+     * @param columnName the target column, whose value is attached to each event
+     * @return this enricher, for chaining
+     */
+    public JoinPathEnricher addTargetColumn(String name, String tableName, String columnName) {
+        targetColumns.put(name, new String[] {tableName, columnName});
+        return this;
+    }
+
+    /**
+     * @param maxValuesPerQuery the maximum number of parameter values in the in-list of a single query
+     */
+    public void setMaxValuesPerQuery(int maxValuesPerQuery) {
+        this.maxValuesPerQuery = maxValuesPerQuery;
+    }
+
+    @Override
+    public void enrich(List<DbEvent> events) {
+        DatabaseMetadata metadata = database.getMetadata();
+        for (Map.Entry<String, String[]> target : targetColumns.entrySet()) {
+            DatabaseColumn targetColumn = metadata.getColumn(target.getValue()[0], target.getValue()[1]);
+            if (targetColumn == null) {
+                log.warn("Unable to enrich events with " + target.getKey() + ", column not found: " + Arrays.toString(target.getValue()));
+                continue;
+            }
+            enrich(events, target.getKey(), targetColumn);
+        }
+    }
+
+    /**
+     * Resolves the value of the target column for the given events in rounds.  In each round, every unresolved event
+     * moves on to its next lookup for which it has a value, and each distinct lookup is queried once for the values
+     * of all events that require it.
+     * @param events the events to enrich
+     * @param name the name of the enrichment to attach
+     * @param targetColumn the column whose value to attach
+     */
+    protected void enrich(List<DbEvent> events, String name, DatabaseColumn targetColumn) {
+        int[] lookupIndexes = new int[events.size()];
+        List<Integer> unresolved = new ArrayList<>(events.size());
+        for (int i = 0; i < events.size(); i++) {
+            unresolved.add(i);
+        }
+        int numQueries = 0;
+        while (!unresolved.isEmpty()) {
+            Map<JoinPathLookup, Map<String, List<Integer>>> eventsByLookup = new LinkedHashMap<>();
+            Map<JoinPathLookup, List<Object>> valuesByLookup = new HashMap<>();
+            for (Integer i : unresolved) {
+                DbEvent event = events.get(i);
+                List<JoinPathLookup> lookups = resolver.getLookups(event.getTable(), targetColumn);
+                for (; lookupIndexes[i] < lookups.size(); lookupIndexes[i]++) {
+                    JoinPathLookup lookup = lookups.get(lookupIndexes[i]);
+                    Object value = event.getValue(lookup.getColumnName());
+                    if (value != null) {
+                        if (lookup.getQuery() == null) {
+                            event.setEnrichment(name, value);
+                        }
+                        else {
+                            Map<String, List<Integer>> eventsByValue = eventsByLookup.computeIfAbsent(lookup, k -> new HashMap<>());
+                            List<Integer> eventsWithValue = eventsByValue.get(value.toString());
+                            if (eventsWithValue == null) {
+                                eventsWithValue = new ArrayList<>();
+                                eventsByValue.put(value.toString(), eventsWithValue);
+                                valuesByLookup.computeIfAbsent(lookup, k -> new ArrayList<>()).add(value);
+                            }
+                            eventsWithValue.add(i);
+                        }
+                        break;
+                    }
+                }
+            }
+            unresolved = new ArrayList<>();
+            for (Map.Entry<JoinPathLookup, Map<String, List<Integer>>> entry : eventsByLookup.entrySet()) {
+                JoinPathLookup lookup = entry.getKey();
+                Map<String, List<Integer>> eventsByValue = entry.getValue();
+                List<Object> values = valuesByLookup.get(lookup);
+                for (int start = 0; start < values.size(); start += maxValuesPerQuery) {
+                    List<Object> chunk = values.subList(start, Math.min(values.size(), start + maxValuesPerQuery));
+                    List<Object[]> rows = database.executeQuery(lookup.getBatchSql(chunk.size()), new ArrayListHandler(), chunk.toArray());
+                    numQueries++;
+                    for (Object[] row : rows) {
+                        if (row[0] != null && row[1] != null) {
+                            List<Integer> resolved = eventsByValue.remove(row[0].toString());
+                            if (resolved != null) {
+                                for (Integer i : resolved) {
+                                    events.get(i).setEnrichment(name, row[1]);
+                                }
+                            }
+                        }
+                    }
+                }
+                for (List<Integer> eventsWithValue : eventsByValue.values()) {
+                    for (Integer i : eventsWithValue) {
+                        lookupIndexes[i]++;
+                        unresolved.add(i);
+                    }
+                }
+            }
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Enriched " + events.size() + " events with " + name + " in " + numQueries + " queries");
+        }
+    }
+
+    /**
+     * Closes the JoinPathResolver used by this enricher
+     */
+    @Override
+    public void close() {
+        resolver.close();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + " " + targetColumns.keySet();
+    }
+}
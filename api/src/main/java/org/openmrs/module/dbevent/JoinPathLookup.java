@@ -0,0 +1,102 @@
+package org.openmrs.module.dbevent;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Represents a lookup of the value of a target column from the values of a row in another table, compiled from a
+ * DatabaseJoinPath.  If the query is null, the value of the column in the row is the value of the target column.
+ * Otherwise, the query returns the value of the target column given the values of its parameters in the row, and
+ * the batch sql returns the parameter value and target column value for any number of parameter values at once.
+ */
+@Data
+@AllArgsConstructor
+public class JoinPathLookup implements Serializable {
+
+    private String columnName;
+    private DatabaseQuery query;
+    private String batchSql; // The query for multiple values, up to the opening of the in-list of parameter values
+
+    public JoinPathLookup(String columnName, DatabaseQuery query) {
+        this(columnName, query, null);
+    }
+
+    /**
+     * The value of each foreign key in the path is the value of the primary key that it references, so any join whose
+     * foreign key is the primary key referenced by the previous join does not need to be queried.
+     * @param path the join path to the target column
+     * @return a lookup that returns the value of the last foreign key in the given path, from the first foreign key
+     */
+    public static JoinPathLookup compile(DatabaseJoinPath path) {
+        List<DatabaseJoin> joins = new ArrayList<>();
+        for (DatabaseJoin join : path) {
+            if (joins.isEmpty() || !join.getForeignKey().equals(joins.get(joins.size() - 1).getPrimaryKey())) {
+                joins.add(join);
+            }
+            else {
+                DatabaseJoin previous = joins.remove(joins.size() - 1);
+                joins.add(new DatabaseJoin(previous.getForeignKey(), join.getPrimaryKey()));
+            }
+        }
+        String columnName = joins.get(0).getForeignKey().getColumnName();
+        if (joins.size() == 1) {
+            return new JoinPathLookup(columnName, null);
+        }
+        String keyColumn = "t1." + joins.get(0).getPrimaryKey().getColumnName();
+        String resultColumn = "t" + (joins.size() - 1) + "." + joins.get(joins.size() - 1).getForeignKey().getColumnName();
+        SqlBuilder sb = new SqlBuilder().select(resultColumn);
+        SqlBuilder batchSb = new SqlBuilder().select(keyColumn, resultColumn);
+        for (SqlBuilder builder : new SqlBuilder[] {sb, batchSb}) {
+            builder.from(joins.get(0).getPrimaryKey().getTableName(), "t1");
+            for (int i = 1; i < joins.size() - 1; i++) {
+                DatabaseJoin join = joins.get(i);
+                builder.innerJoin(join.getPrimaryKey().getTableName(), "t" + (i + 1), join.getPrimaryKey().getColumnName(), "t" + i, join.getForeignKey().getColumnName());
+            }
+        }
+        sb.where(keyColumn + " = ?");
+        batchSb.where(keyColumn + " in");
+        DatabaseQuery query = new DatabaseQuery(sb.toString(), Collections.singletonList(columnName));
+        return new JoinPathLookup(columnName, query, batchSb.toString());
+    }
+
+    /**
+     * @param numValues the number of parameter values
+     * @return a query that returns the parameter value and the value of the target column for each of the given
+     * number of parameter values, in two columns
+     */
+    public String getBatchSql(int numValues) {
+        StringBuilder sb = new StringBuilder(batchSql).append("(");
+        for (int i = 0; i < numValues; i++) {
+            sb.append(i == 0 ? "?" : ",?");
+        }
+        return sb.append(")").toString();
+    }
+
+    /**
+     * @param values the values of a row, by column name
+     * @return the values of the parameters of the query, in order, bound from the given row values
+     */
+    public Object[] getParameterValues(Map<String, Object> values) {
+        return getParameterValues(values::get);
+    }
+
+    /**
+     * @param values returns the value of a row for a given column name
+     * @return the values of the parameters of the query, in order, bound from the given row values
+     */
+    public Object[] getParameterValues(Function<String, Object> values) {
+        List<String> parameterNames = query.getParameterNames();
+        Object[] ret = new Object[parameterNames.size()];
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = values.apply(parameterNames.get(i));
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,163 @@
+package org.openmrs.module.dbevent;
+
+import org.apache.commons.dbutils.handlers.ScalarHandler;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Resolves the value of a target column for a row in any table, such as the person_id that owns an obs, by following
+ * the shortest join paths from the table of the row to the target column.  The join paths for each table and target
+ * column are compiled into JoinPathLookups once, and cached until the metadata of the table or of any table that it
+ * references changes.  Each lookup query is the same parameterized statement for every row of a table, so it is
+ * served from the prepared statement cache of the connection.  Closing the resolver stops it from listening for
+ * metadata changes and discards its lookups, which are compiled again, and listened for, if it is used again.
+ * @see DatabaseMetadata#getPathsToColumn(DatabaseTable, DatabaseColumn, List)
+ */
+public class JoinPathResolver implements AutoCloseable {
+
+    private static final Logger log = LogManager.getLogger(JoinPathResolver.class);
+
+    private final Database database;
+    private final List<String> excludedTables;
+    private final Map<String, Map<String, List<JoinPathLookup>>> lookups = new ConcurrentHashMap<>();
+    private final DatabaseMetadataListener metadataListener = this::tablesChanged;
+    private volatile boolean listening = false;
+
+    public JoinPathResolver(Database database) {
+        this(database, Collections.emptyList());
+    }
+
+    /**
+     * @param database the database to resolve values from
+     * @param excludedTables join paths through any of these tables are not followed
+     */
+    public JoinPathResolver(Database database, List<String> excludedTables) {
+        this.database = database;
+        this.excludedTables = excludedTables;
+        listen();
+    }
+
+    /**
+     * Only the columns needed by the lookups are read from the event, so its row values are not materialized
+     * @param event the event to resolve the value for
+     * @param targetColumn the column whose value to resolve
+     * @return the value of the target column for the row of the given event, or null if this cannot be determined
+     */
+    public Object resolve(DbEvent event, DatabaseColumn targetColumn) {
+        return resolve(event.getTable(), event::getValue, targetColumn);
+    }
+
+    /**
+     * @param tableName the table of the row
+     * @param values the values of the row, by column name
+     * @param targetColumn the column whose value to resolve
+     * @return the value of the target column for the given row, or null if this cannot be determined
+     */
+    public Object resolve(String tableName, Map<String, Object> values, DatabaseColumn targetColumn) {
+        return resolve(tableName, values::get, targetColumn);
+    }
+
+    /**
+     * Tries each lookup for the given table in turn, shortest first, until one returns a value
+     * @param tableName the table of the row
+     * @param values returns the value of the row for a given column name
+     * @param targetColumn the column whose value to resolve
+     * @return the value of the target column for the given row, or null if this cannot be determined
+     */
+    protected Object resolve(String tableName, Function<String, Object> values, DatabaseColumn targetColumn) {
+        for (JoinPathLookup lookup : getLookups(tableName, targetColumn)) {
+            Object value = values.apply(lookup.getColumnName());
+            if (value != null) {
+                if (lookup.getQuery() == null) {
+                    return value;
+                }
+                Object[] parameterValues = lookup.getParameterValues(values);
+                Object result = database.executeQuery(lookup.getQuery().getSql(), new ScalarHandler<>(1), parameterValues);
+                if (result != null) {
+                    return result;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param tableName the table for which to get lookups
+     * @param targetColumn the column to look up
+     * @return the lookups that can be used to determine the value of the target column for a row in the given table,
+     * shortest first.  These are compiled on first access and cached.
+     */
+    public List<JoinPathLookup> getLookups(String tableName, DatabaseColumn targetColumn) {
+        if (!listening) {
+            listen();
+        }
+        Map<String, List<JoinPathLookup>> lookupsByTable = lookups.computeIfAbsent(targetColumn.getTableAndColumn(), k -> new ConcurrentHashMap<>());
+        return lookupsByTable.computeIfAbsent(tableName, t -> compileLookups(t, targetColumn));
+    }
+
+    /**
+     * @return the lookups for the shortest join paths from the given table to the given column
+     */
+    protected List<JoinPathLookup> compileLookups(String tableName, DatabaseColumn targetColumn) {
+        DatabaseMetadata metadata = database.getMetadata();
+        if (tableName.equals(targetColumn.getTableName())) {
+            return Collections.singletonList(new JoinPathLookup(targetColumn.getColumnName(), null));
+        }
+        DatabaseTable table = metadata.getTable(tableName);
+        if (table == null) {
+            return Collections.emptyList();
+        }
+        List<DatabaseJoinPath> paths = new ArrayList<>(metadata.getPathsToColumn(table, targetColumn, excludedTables));
+        paths.sort(Comparator.comparingInt(DatabaseJoinPath::size));
+        List<JoinPathLookup> ret = new ArrayList<>();
+        for (DatabaseJoinPath path : paths) {
+            ret.add(JoinPathLookup.compile(path));
+        }
+        log.debug("Lookups of " + targetColumn + " for " + tableName + ": " + ret);
+        return ret;
+    }
+
+    /**
+     * Invalidates the lookups of the changed tables, and of all tables that reference them directly or indirectly,
+     * as any of these may now have different join paths.  Lookups for other tables are retained.
+     * @param metadata the updated metadata
+     * @param tableNames the tables that have changed
+     */
+    protected void tablesChanged(DatabaseMetadata metadata, Set<String> tableNames) {
+        for (Map<String, List<JoinPathLookup>> lookupsByTable : lookups.values()) {
+            for (String tableName : tableNames) {
+                lookupsByTable.remove(tableName);
+                lookupsByTable.keySet().removeAll(metadata.getTablesWithReferencesTo(tableName));
+            }
+        }
+    }
+
+    /**
+     * Registers this resolver to be notified of metadata changes, if it is not already
+     */
+    protected synchronized void listen() {
+        if (!listening) {
+            database.addMetadataListener(metadataListener);
+            listening = true;
+        }
+    }
+
+    /**
+     * Stops listening for metadata changes and discards all compiled lookups
+     */
+    @Override
+    public synchronized void close() {
+        database.removeMetadataListener(metadataListener);
+        listening = false;
+        lookups.clear();
+    }
+}
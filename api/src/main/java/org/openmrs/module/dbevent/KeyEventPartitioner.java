@@ -0,0 +1,15 @@
+package org.openmrs.module.dbevent;
+
+import java.util.Arrays;
+
+/**
+ * Default EventPartitioner, which partitions events by table and primary key.
+ * This ensures all changes to a given row are processed in order, while changes to different rows may be concurrent.
+ */
+public class KeyEventPartitioner implements EventPartitioner {
+
+    @Override
+    public Object getPartitionKey(DbEvent event) {
+        return Arrays.asList(event.getTable(), event.getKey());
+    }
+}
@@ -0,0 +1,80 @@
+package org.openmrs.module.dbevent;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe meter that tracks the total number of events and the rate of events per second.
+ * The recent rate is an exponentially-weighted moving average over one minute, updated every 5 seconds.
+ */
+public class Meter {
+
+    private static final long TICK_INTERVAL = TimeUnit.SECONDS.toNanos(5);
+    private static final double ALPHA = 1 - Math.exp(-5 / 60.0);
+
+    private final long startTime = System.nanoTime();
+    private final AtomicLong lastTick = new AtomicLong(startTime);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder uncounted = new LongAdder();
+    private volatile double rate = 0;
+    private volatile boolean initialized = false;
+
+    /**
+     * @param n the number of events to mark
+     */
+    public void mark(long n) {
+        tickIfNecessary();
+        count.add(n);
+        uncounted.add(n);
+    }
+
+    /**
+     * @return the total number of events marked
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return the mean rate of events per second since this meter was created
+     */
+    public double getMeanRate() {
+        double elapsedSeconds = (System.nanoTime() - startTime) / 1e9;
+        return elapsedSeconds <= 0 ? 0 : getCount() / elapsedSeconds;
+    }
+
+    /**
+     * @return the one-minute exponentially-weighted moving average rate of events per second
+     */
+    public double getOneMinuteRate() {
+        tickIfNecessary();
+        return rate;
+    }
+
+    private void tickIfNecessary() {
+        long oldTick = lastTick.get();
+        long now = System.nanoTime();
+        long age = now - oldTick;
+        if (age > TICK_INTERVAL) {
+            long newTick = now - age % TICK_INTERVAL;
+            if (lastTick.compareAndSet(oldTick, newTick)) {
+                long ticks = age / TICK_INTERVAL;
+                for (long i = 0; i < ticks; i++) {
+                    tick();
+                }
+            }
+        }
+    }
+
+    private synchronized void tick() {
+        double instantRate = uncounted.sumThenReset() / (TICK_INTERVAL / 1e9);
+        if (initialized) {
+            rate += ALPHA * (instantRate - rate);
+        }
+        else {
+            rate = instantRate;
+            initialized = true;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package org.openmrs.module.dbevent;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Loads DatabaseMetadata for a MySQL database from information_schema.  Rather than querying each table in turn,
+ * this reads all tables, all columns, and all primary and foreign key columns of the database in three queries.
+ * Reloading specific tables uses the same queries, restricted to those tables and to keys that reference them.
+ */
+public class MysqlDatabaseMetadataLoader implements DatabaseMetadataLoader {
+
+    public static final String TABLE_QUERY = "select table_name from information_schema.tables " +
+            "where table_schema = ? and table_type = 'BASE TABLE' order by table_name";
+
+    public static final String COLUMN_QUERY = "select table_name, column_name, is_nullable " +
+            "from information_schema.columns where table_schema = ? order by table_name, ordinal_position";
+
+    public static final String KEY_QUERY = "select table_name, column_name, constraint_name, " +
+            "referenced_table_schema, referenced_table_name, referenced_column_name " +
+            "from information_schema.key_column_usage where table_schema = ? " +
+            "and (constraint_name = 'PRIMARY' or referenced_table_name is not null)";
+
+    public static final String FINGERPRINT_QUERY = "select " +
+            "(select concat(count(*), ':', coalesce(sum(crc32(concat_ws('|', table_name, table_type))), 0)) " +
+            "from information_schema.tables where table_schema = ?), " +
+            "(select concat(count(*), ':', coalesce(sum(crc32(concat_ws('|', table_name, column_name, ordinal_position, is_nullable))), 0)) " +
+            "from information_schema.columns where table_schema = ?), " +
+            "(select concat(count(*), ':', coalesce(sum(crc32(concat_ws('|', table_name, column_name, constraint_name, referenced_table_schema, referenced_table_name, referenced_column_name))), 0)) " +
+            "from information_schema.key_column_usage where table_schema = ?)";
+
+    @Override
+    public DatabaseMetadata loadMetadata(Connection connection, String databaseName) throws SQLException {
+        DatabaseMetadata metadata = new DatabaseMetadata();
+        metadata.setDatabaseName(databaseName);
+        load(connection, metadata, null);
+        return metadata;
+    }
+
+    @Override
+    public void reloadTables(Connection connection, DatabaseMetadata metadata, Collection<String> tableNames) throws SQLException {
+        if (!tableNames.isEmpty()) {
+            load(connection, metadata, new ArrayList<>(tableNames));
+        }
+    }
+
+    /**
+     * Loads the given tables, or all tables if tableNames is null, into the given metadata.
+     * Primary keys are set on all columns before any foreign key references are added, as the columns are held in
+     * hash sets by their references.
+     */
+    protected void load(Connection connection, DatabaseMetadata metadata, List<String> tableNames) throws SQLException {
+        String databaseName = metadata.getDatabaseName();
+        Map<String, DatabaseTable> tables = new LinkedHashMap<>();
+        String tableFilter = tableNames == null ? "" : " and table_name in (" + placeholders(tableNames) + ")";
+        String sql = TABLE_QUERY.replace(" order by", tableFilter + " order by");
+        try (ResultSet rs = query(connection, sql, databaseName, tableNames)) {
+            while (rs.next()) {
+                String tableName = rs.getString(1).toLowerCase();
+                tables.put(tableName, new DatabaseTable(databaseName, tableName));
+            }
+        }
+        sql = COLUMN_QUERY.replace(" order by", tableFilter + " order by");
+        try (ResultSet rs = query(connection, sql, databaseName, tableNames)) {
+            while (rs.next()) {
+                DatabaseTable table = tables.get(rs.getString(1).toLowerCase());
+                if (table != null) { // Views are excluded
+                    String columnName = rs.getString(2).toLowerCase();
+                    boolean nullable = "YES".equals(rs.getString(3));
+                    table.addColumn(new DatabaseColumn(databaseName, table.getTableName(), columnName, nullable));
+                }
+            }
+        }
+        List<String[]> foreignKeys = new ArrayList<>();
+        sql = KEY_QUERY;
+        if (tableNames != null) {
+            String placeholders = placeholders(tableNames);
+            sql += " and (table_name in (" + placeholders + ") or referenced_table_name in (" + placeholders + "))";
+        }
+        try (ResultSet rs = query(connection, sql, databaseName, tableNames, tableNames)) {
+            while (rs.next()) {
+                String tableName = rs.getString(1).toLowerCase();
+                String columnName = rs.getString(2).toLowerCase();
+                if ("PRIMARY".equals(rs.getString(3))) {
+                    DatabaseTable table = tables.get(tableName);
+                    DatabaseColumn column = (table == null ? null : table.getColumn(columnName));
+                    if (column != null) {
+                        column.setPrimaryKey(true);
+                    }
+                }
+                else if (databaseName.equalsIgnoreCase(rs.getString(4))) {
+                    foreignKeys.add(new String[] {tableName, columnName, rs.getString(5).toLowerCase(), rs.getString(6).toLowerCase()});
+                }
+            }
+        }
+        if (tableNames == null) {
+            tables.values().forEach(metadata::addTable);
+        }
+        else {
+            for (String tableName : tableNames) {
+                metadata.replaceTable(tableName, tables.get(tableName));
+            }
+        }
+        for (String[] fk : foreignKeys) {
+            metadata.addReference(fk[0], fk[1], fk[2], fk[3]);
+        }
+    }
+
+    /**
+     * Prepares and executes the given query, with the database name as the first parameter, followed by each of the
+     * given lists of values, if not null.  The statement is closed along with the returned ResultSet.
+     */
+    protected ResultSet query(Connection connection, String sql, String databaseName, List<?>... parameterLists) throws SQLException {
+        PreparedStatement stmt = connection.prepareStatement(sql);
+        stmt.closeOnCompletion();
+        int index = 1;
+        stmt.setString(index++, databaseName);
+        for (List<?> parameterList : parameterLists) {
+            if (parameterList != null) {
+                for (Object parameter : parameterList) {
+                    stmt.setObject(index++, parameter);
+                }
+            }
+        }
+        return stmt.executeQuery();
+    }
+
+    protected String placeholders(List<?> values) {
+        return String.join(",", Collections.nCopies(values.size(), "?"));
+    }
+
+    /**
+     * The fingerprint is computed on the server as the count and sum of checksums of each table, column, and key
+     * column in information_schema, and so returns only a single row
+     */
+    @Override
+    public String getSchemaFingerprint(Connection connection, String databaseName) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(FINGERPRINT_QUERY)) {
+            for (int i = 1; i <= 3; i++) {
+                stmt.setString(i, databaseName);
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                return "tables=" + rs.getString(1) + ",columns=" + rs.getString(2) + ",keys=" + rs.getString(3);
+            }
+        }
+    }
+}
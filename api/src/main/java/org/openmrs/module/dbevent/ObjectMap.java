@@ -17,6 +17,14 @@ public class ObjectMap extends HashMap<String, Object> {
         super();
     }
 
+    /**
+     * Constructs a new, empty ObjectMap with the given initial capacity
+     * @param initialCapacity the initial capacity
+     */
+    protected ObjectMap(int initialCapacity) {
+        super(initialCapacity);
+    }
+
     /**
      * Constructs a new ObjectMap from the given Struct, using the fields of the schema as keys
      * @param struct the struct to convert to an ObjectMap
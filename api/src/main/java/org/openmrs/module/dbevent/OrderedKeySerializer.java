@@ -0,0 +1,123 @@
+package org.openmrs.module.dbevent;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Serializer for keys whose byte encoding sorts in the same order as the keys themselves, so that a Rocks DB can be
+ * iterated over a range or a prefix of keys.  Supported keys are null, Integer, Long, String, and Lists of these,
+ * which act as composite keys.  Numbers are written big-endian with the sign bit flipped, and Strings are written as
+ * UTF-8 with a terminator.  A List is written as the concatenation of its elements, so that a List is a prefix of any
+ * longer List that starts with the same elements (eg. ["obs", 5] is a prefix of ["obs", 5, 100]).
+ * Lists are deserialized as ArrayLists.  Elements of different types are ordered by type before value.
+ */
+public class OrderedKeySerializer implements Serializer {
+
+    static final int NULL = 0x01;
+    static final int INTEGER = 0x02;
+    static final int LONG = 0x03;
+    static final int STRING = 0x04;
+    static final int LIST = 0x05;
+
+    @Override
+    public byte[] serialize(Serializable key) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(16);
+        if (key instanceof List) {
+            out.write(LIST);
+            for (Object element : (List<?>) key) {
+                writeElement(out, element);
+            }
+        }
+        else {
+            writeElement(out, key);
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends Serializable> T deserialize(byte[] bytes) {
+        int[] position = new int[] {0};
+        if (bytes.length > 0 && bytes[0] == LIST) {
+            ArrayList<Object> ret = new ArrayList<>();
+            position[0]++;
+            while (position[0] < bytes.length) {
+                ret.add(readElement(bytes, position));
+            }
+            return (T) ret;
+        }
+        return (T) readElement(bytes, position);
+    }
+
+    protected void writeElement(ByteArrayOutputStream out, Object value) {
+        if (value == null) {
+            out.write(NULL);
+        }
+        else if (value instanceof Integer) {
+            out.write(INTEGER);
+            int v = (Integer) value ^ Integer.MIN_VALUE;
+            for (int i = 3; i >= 0; i--) {
+                out.write(v >>> (i * 8));
+            }
+        }
+        else if (value instanceof Long) {
+            out.write(LONG);
+            long v = (Long) value ^ Long.MIN_VALUE;
+            for (int i = 7; i >= 0; i--) {
+                out.write((int) (v >>> (i * 8)));
+            }
+        }
+        else if (value instanceof String) {
+            out.write(STRING);
+            for (byte b : ((String) value).getBytes(StandardCharsets.UTF_8)) {
+                out.write(b);
+                if (b == 0) {
+                    out.write(0xFF); // Escape embedded zero bytes, so they sort before the terminator
+                }
+            }
+            out.write(0);
+            out.write(0);
+        }
+        else {
+            throw new IllegalArgumentException("Unsupported key type: " + value.getClass().getName());
+        }
+    }
+
+    protected Object readElement(byte[] bytes, int[] position) {
+        int tag = bytes[position[0]++];
+        switch (tag) {
+            case NULL: return null;
+            case INTEGER: {
+                int v = 0;
+                for (int i = 0; i < 4; i++) {
+                    v = (v << 8) | (bytes[position[0]++] & 0xFF);
+                }
+                return v ^ Integer.MIN_VALUE;
+            }
+            case LONG: {
+                long v = 0;
+                for (int i = 0; i < 8; i++) {
+                    v = (v << 8) | (bytes[position[0]++] & 0xFF);
+                }
+                return v ^ Long.MIN_VALUE;
+            }
+            case STRING: {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                while (true) {
+                    byte b = bytes[position[0]++];
+                    if (b == 0) {
+                        if (bytes[position[0]++] == 0) {
+                            break;
+                        }
+                    }
+                    out.write(b);
+                }
+                return new String(out.toByteArray(), StandardCharsets.UTF_8);
+            }
+            default: throw new IllegalArgumentException("Unknown key tag: " + tag);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package org.openmrs.module.dbevent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * EventPartitioner that partitions events by the patient that they are associated with.
+ * This ensures that all events for a given patient are processed in order, while events for different patients may
+ * be processed concurrently.  The owning person_id of each event is read from its person_id enrichment, if this has
+ * already been attached, such as by a ForeignKeyIndex with person.person_id as a target column, in which case it
+ * reflects the point in the stream at which the event occurred.  Otherwise, it is determined for the whole batch at
+ * once by following the shortest join path from each event's table to person.person_id, with a JoinPathEnricher,
+ * which looks up the values that are not available on the events themselves with one query per join path, and it is
+ * attached to each event as its person_id enrichment.
+ * Events for tables that are not patient-related, or for which the owning patient cannot be determined,
+ * (eg. delete events for rows whose parent has already been deleted), are partitioned by the fallback partitioner.
+ * The event source closes the partitioner when it is stopped, which stops its resolver listening for metadata changes.
+ * @see DatabaseMetadata#getPatientTableNames()
+ * @see JoinPathResolver
+ */
+public class PatientEventPartitioner implements EventPartitioner, AutoCloseable {
+
+    public static final List<String> EXCLUDED_TABLES = Arrays.asList("users", "provider");
+    public static final String PERSON_ID = "person_id"; // The name of the enrichment that holds the person_id
+
+    private final Database database;
+    private final EventPartitioner fallbackPartitioner;
+    private final JoinPathResolver resolver;
+    private final JoinPathEnricher enricher;
+
+    public PatientEventPartitioner(Database database) {
+        this(database, new KeyEventPartitioner());
+    }
+
+    public PatientEventPartitioner(Database database, EventPartitioner fallbackPartitioner) {
+        this.database = database;
+        this.fallbackPartitioner = fallbackPartitioner;
+        this.resolver = new JoinPathResolver(database, EXCLUDED_TABLES);
+        this.enricher = new JoinPathEnricher(database, resolver);
+    }
+
+    /**
+     * Attaches the person_id to each event in a patient-related table that does not already have it
+     */
+    @Override
+    public void prepare(List<DbEvent> events) {
+        DatabaseMetadata metadata = database.getMetadata();
+        DatabaseColumn personId = metadata.getColumn("person", "person_id");
+        if (personId == null) {
+            return;
+        }
+        Set<String> patientTableNames = metadata.getPatientTableNames();
+        List<DbEvent> unresolved = new ArrayList<>();
+        for (DbEvent event : events) {
+            if (event.getEnrichment(PERSON_ID) == null && patientTableNames.contains(event.getTable())) {
+                unresolved.add(event);
+            }
+        }
+        if (!unresolved.isEmpty()) {
+            enricher.enrich(unresolved, PERSON_ID, personId);
+        }
+    }
+
+    /**
+     * @return the person_id enrichment of the given event, as attached by prepare, or the key of the fallback
+     * partitioner if the event has no person_id
+     */
+    @Override
+    public Object getPartitionKey(DbEvent event) {
+        Object personId = event.getEnrichment(PERSON_ID);
+        return personId != null ? personId : fallbackPartitioner.getPartitionKey(event);
+    }
+
+    /**
+     * @param event the event for which to retrieve the person_id
+     * @return the person_id enrichment of the given event, if attached, or otherwise the person_id of the person
+     * that owns the given event, looked up individually, or null if this cannot be determined
+     */
+    public Object getPersonId(DbEvent event) {
+        Object personId = event.getEnrichment(PERSON_ID);
+        if (personId != null) {
+            return personId;
+        }
+        DatabaseMetadata metadata = database.getMetadata();
+        if (!metadata.getPatientTableNames().contains(event.getTable())) {
+            return null;
+        }
+        return resolver.resolve(event, metadata.getColumn("person", "person_id"));
+    }
+
+    /**
+     * @param tableName the table for which to get lookups
+     * @return the lookups that can be used to determine the person_id for a row in the given table, shortest first
+     */
+    protected List<JoinPathLookup> getPersonLookups(String tableName) {
+        return resolver.getLookups(tableName, database.getMetadata().getColumn("person", "person_id"));
+    }
+
+    /**
+     * Closes the JoinPathResolver used by this partitioner
+     */
+    @Override
+    public void close() {
+        resolver.close();
+    }
+}
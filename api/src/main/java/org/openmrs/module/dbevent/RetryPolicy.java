@@ -0,0 +1,41 @@
+package org.openmrs.module.dbevent;
+
+import lombok.Data;
+
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Determines how a DbEventSource retries processing events that fail.
+ * After each failed attempt, processing is retried after an interval that starts at initialIntervalMillis, and is
+ * multiplied by the backoffMultiplier after each subsequent attempt, up to maxIntervalMillis.
+ * If maxAttempts is greater than 0, then once an event has failed this number of times it is moved to the
+ * dead letter store for the source, and processing continues with the next event.  By default, events are retried
+ * every minute indefinitely, which blocks the source until the event is successfully processed.
+ * @see DeadLetterStore
+ */
+@Data
+public class RetryPolicy implements Serializable {
+
+    private long initialIntervalMillis = TimeUnit.MINUTES.toMillis(1);
+    private double backoffMultiplier = 1;
+    private long maxIntervalMillis = TimeUnit.HOURS.toMillis(1);
+    private int maxAttempts = 0;
+
+    /**
+     * @param attempts the number of attempts that have failed
+     * @return the number of milliseconds to wait before the next attempt
+     */
+    public long getRetryIntervalMillis(int attempts) {
+        double interval = initialIntervalMillis * Math.pow(backoffMultiplier, Math.max(attempts - 1, 0));
+        return (long) Math.min(interval, Math.max(maxIntervalMillis, initialIntervalMillis));
+    }
+
+    /**
+     * @param attempts the number of attempts that have failed
+     * @return true if no further attempts should be made
+     */
+    public boolean isExhausted(int attempts) {
+        return maxAttempts > 0 && attempts >= maxAttempts;
+    }
+}
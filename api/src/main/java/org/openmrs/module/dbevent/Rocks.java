@@ -1,53 +1,183 @@
-
 package org.openmrs.module.dbevent;
 
-import org.apache.commons.lang3.SerializationUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.rocksdb.ColumnFamilyDescriptor;
+import org.rocksdb.ColumnFamilyHandle;
+import org.rocksdb.ColumnFamilyOptions;
+import org.rocksdb.DBOptions;
 import org.rocksdb.Options;
 import org.rocksdb.RocksDB;
+import org.rocksdb.RocksIterator;
+import org.rocksdb.TtlDB;
+import org.rocksdb.WriteBatch;
+import org.rocksdb.WriteOptions;
 
 import java.io.File;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
 
 /**
  * Uses a Rocks DB as a key/value store.
+ * Keys and values are converted to bytes with the configured Serializers, which default to Java serialization.
+ * Keys are iterated in the order of their serialized bytes, so range and prefix iteration is only meaningful with a
+ * key Serializer that preserves ordering, such as the OrderedKeySerializer.
+ * A Rocks DB may be opened with a RocksConfig to tune caching, bloom filters, compression and TTL, and with named
+ * column families, each of which is accessed as a separate Rocks view that shares the same underlying DB.
  */
 public class Rocks {
 
     private static final Logger log = LogManager.getLogger(Rocks.class);
 
     private final RocksDB db;
+    private final ColumnFamilyHandle columnFamily;
+    private final Map<String, Rocks> columnFamilies;
+    private final List<ColumnFamilyHandle> handles;
+    private final List<AutoCloseable> resources;
+    private final Serializer keySerializer;
+    private final Serializer valueSerializer;
 
     public Rocks(File dbFile) {
+        this(dbFile, new JavaSerializer());
+    }
+
+    public Rocks(File dbFile, Serializer serializer) {
+        this(dbFile, serializer, serializer);
+    }
+
+    public Rocks(File dbFile, Serializer keySerializer, Serializer valueSerializer) {
+        this(dbFile, null, keySerializer, valueSerializer);
+    }
+
+    /**
+     * @param dbFile the directory of the Rocks DB
+     * @param config the tuning profile to use, or null to use the RocksDB defaults
+     * @param keySerializer the Serializer to use for keys
+     * @param valueSerializer the Serializer to use for values
+     * @param columnFamilies the names of column families to open, in addition to the default column family.
+     *                       Any that do not exist are created.
+     */
+    public Rocks(File dbFile, RocksConfig config, Serializer keySerializer, Serializer valueSerializer,
+                 String... columnFamilies) {
+        this.keySerializer = keySerializer;
+        this.valueSerializer = valueSerializer;
+        this.columnFamilies = new LinkedHashMap<>();
+        this.handles = new ArrayList<>();
+        this.resources = new ArrayList<>();
         RocksDB.loadLibrary();
-        final Options options = new Options();
-        options.setCreateIfMissing(true);
         try {
             Files.createDirectories(dbFile.getParentFile().toPath());
-            db = RocksDB.open(options, dbFile.getAbsolutePath());
+            DBOptions dbOptions = new DBOptions().setCreateIfMissing(true).setCreateMissingColumnFamilies(true);
+            resources.add(dbOptions);
+            ColumnFamilyOptions cfOptions;
+            if (config == null) {
+                cfOptions = new ColumnFamilyOptions();
+                resources.add(cfOptions);
+            }
+            else {
+                cfOptions = config.newColumnFamilyOptions(resources); // Closed along with the DB
+            }
+
+            // All existing column families must be opened, along with any requested
+            Set<String> names = new LinkedHashSet<>();
+            names.add(new String(RocksDB.DEFAULT_COLUMN_FAMILY, StandardCharsets.UTF_8));
+            try (Options options = new Options()) {
+                for (byte[] existing : RocksDB.listColumnFamilies(options, dbFile.getAbsolutePath())) {
+                    names.add(new String(existing, StandardCharsets.UTF_8));
+                }
+            }
+            names.addAll(Arrays.asList(columnFamilies));
+            List<ColumnFamilyDescriptor> descriptors = new ArrayList<>();
+            for (String name : names) {
+                descriptors.add(new ColumnFamilyDescriptor(name.getBytes(StandardCharsets.UTF_8), cfOptions));
+            }
+
+            if (config != null && config.getTtlSeconds() != null) {
+                List<Integer> ttls = Collections.nCopies(descriptors.size(), config.getTtlSeconds());
+                db = TtlDB.open(dbOptions, dbFile.getAbsolutePath(), descriptors, handles, ttls, false);
+            }
+            else {
+                db = RocksDB.open(dbOptions, dbFile.getAbsolutePath(), descriptors, handles);
+            }
+            this.columnFamily = handles.get(0);
+            int i = 0;
+            for (String name : names) {
+                if (i > 0) {
+                    this.columnFamilies.put(name, new Rocks(this, handles.get(i)));
+                }
+                i++;
+            }
         }
         catch (Exception e) {
+            handles.forEach(Rocks::closeQuietly);
+            resources.forEach(Rocks::closeQuietly);
             throw new RuntimeException("Unable to instantiate rocksdb", e);
         }
     }
 
+    /**
+     * Constructs a view of the given column family, using the same DB and Serializers as the given Rocks
+     */
+    private Rocks(Rocks parent, ColumnFamilyHandle columnFamily) {
+        this.db = parent.db;
+        this.columnFamily = columnFamily;
+        this.columnFamilies = Collections.emptyMap();
+        this.handles = Collections.emptyList();
+        this.resources = Collections.emptyList();
+        this.keySerializer = parent.keySerializer;
+        this.valueSerializer = parent.valueSerializer;
+    }
+
+    /**
+     * @param name the name of the column family
+     * @return a Rocks view of the named column family.  This is closed when the Rocks that opened it is closed.
+     */
+    public Rocks getColumnFamily(String name) {
+        Rocks ret = columnFamilies.get(name);
+        if (ret == null) {
+            throw new IllegalArgumentException("Column family " + name + " was not opened on this Rocks DB");
+        }
+        return ret;
+    }
+
     public void put(Serializable key, Serializable value) {
         try {
-            db.put(SerializationUtils.serialize(key), SerializationUtils.serialize(value));
+            db.put(columnFamily, keySerializer.serialize(key), valueSerializer.serialize(value));
         }
         catch (Exception e) {
             throw new RuntimeException("Unable to put into rocks db", e);
         }
     }
 
+    /**
+     * Puts all the given entries in a single atomic write
+     */
+    public void putAll(Map<? extends Serializable, ? extends Serializable> entries) {
+        try (Batch batch = newBatch()) {
+            for (Map.Entry<? extends Serializable, ? extends Serializable> entry : entries.entrySet()) {
+                batch.put(entry.getKey(), entry.getValue());
+            }
+            batch.write();
+        }
+    }
+
     public <T extends Serializable> T get(Serializable key) {
         try {
             if (key != null) {
-                byte[] bytes = db.get(SerializationUtils.serialize(key));
+                byte[] bytes = db.get(columnFamily, keySerializer.serialize(key));
                 if (bytes != null) {
-                    return SerializationUtils.deserialize(bytes);
+                    return valueSerializer.deserialize(bytes);
                 }
             }
             return null;
@@ -62,21 +192,225 @@ public class Rocks {
         return value == null ? defaultValue : value;
     }
 
+    /**
+     * Retrieves the values for all the given keys in a single lookup
+     * @return a Map from each key that exists to its value, in the order of the given keys
+     */
+    public <K extends Serializable, V extends Serializable> Map<K, V> multiGet(Collection<K> keys) {
+        Map<K, V> ret = new LinkedHashMap<>();
+        try {
+            List<K> keyList = new ArrayList<>(keys);
+            List<byte[]> keyBytes = new ArrayList<>(keyList.size());
+            for (K key : keyList) {
+                keyBytes.add(keySerializer.serialize(key));
+            }
+            List<byte[]> valueBytes = db.multiGetAsList(Collections.nCopies(keyBytes.size(), columnFamily), keyBytes);
+            for (int i = 0; i < keyList.size(); i++) {
+                if (valueBytes.get(i) != null) {
+                    ret.put(keyList.get(i), valueSerializer.deserialize(valueBytes.get(i)));
+                }
+            }
+        }
+        catch (Exception e) {
+            throw new RuntimeException("Unable to multi get from rocks db", e);
+        }
+        return ret;
+    }
+
+    public <K extends Serializable, V extends Serializable> Map<K, V> getAll() {
+        Map<K, V> ret = new LinkedHashMap<>();
+        iterate(null, null, null, ret::put);
+        return ret;
+    }
+
+    /**
+     * @return all entries whose keys are greater than or equal to fromKey and less than toKey, in key order
+     */
+    public <K extends Serializable, V extends Serializable> Map<K, V> getRange(Serializable fromKey, Serializable toKey) {
+        Map<K, V> ret = new LinkedHashMap<>();
+        forEachInRange(fromKey, toKey, ret::put);
+        return ret;
+    }
+
+    /**
+     * @return all entries whose serialized keys start with the serialized prefix, in key order
+     */
+    public <K extends Serializable, V extends Serializable> Map<K, V> getWithPrefix(Serializable prefix) {
+        Map<K, V> ret = new LinkedHashMap<>();
+        forEachWithPrefix(prefix, ret::put);
+        return ret;
+    }
+
+    /**
+     * Passes each entry whose key is greater than or equal to fromKey and less than toKey to the given consumer,
+     * in key order, without materializing the range in memory.  Either bound may be null to leave it unbounded.
+     */
+    public <K extends Serializable, V extends Serializable> void forEachInRange(Serializable fromKey, Serializable toKey,
+                                                                               BiConsumer<K, V> consumer) {
+        byte[] from = fromKey == null ? null : keySerializer.serialize(fromKey);
+        byte[] to = toKey == null ? null : keySerializer.serialize(toKey);
+        iterate(from, to, null, consumer);
+    }
+
+    /**
+     * Passes each entry whose serialized key starts with the serialized prefix to the given consumer, in key order
+     */
+    public <K extends Serializable, V extends Serializable> void forEachWithPrefix(Serializable prefix,
+                                                                                  BiConsumer<K, V> consumer) {
+        byte[] prefixBytes = keySerializer.serialize(prefix);
+        iterate(prefixBytes, null, prefixBytes, consumer);
+    }
+
     public void delete(Serializable key) {
         try {
-            db.delete(SerializationUtils.serialize(key));
+            db.delete(columnFamily, keySerializer.serialize(key));
         }
         catch (Exception e) {
             throw new RuntimeException("Unable to delete from rocks db", e);
         }
     }
 
+    /**
+     * Deletes all the given keys in a single atomic write
+     */
+    public void deleteAll(Collection<? extends Serializable> keys) {
+        try (Batch batch = newBatch()) {
+            for (Serializable key : keys) {
+                batch.delete(key);
+            }
+            batch.write();
+        }
+    }
+
+    /**
+     * @return a new Batch, which collects puts and deletes and applies them in a single atomic write
+     */
+    public Batch newBatch() {
+        return new Batch();
+    }
+
+    /**
+     * Closes the Rocks DB and all of its column families.  This has no effect on a column family view.
+     */
     public void close() {
+        if (resources.isEmpty()) {
+            return;
+        }
+        handles.forEach(Rocks::closeQuietly); // Column family handles must be closed before the DB
+        handles.clear();
         try {
             db.close();
         }
         catch (Exception e) {
             log.error("An error occurred while trying to close RocksDB instance", e);
         }
+        resources.forEach(Rocks::closeQuietly);
+        resources.clear();
+    }
+
+    private static void closeQuietly(AutoCloseable resource) {
+        try {
+            resource.close();
+        }
+        catch (Exception e) {
+            log.debug("Error closing rocks db resource", e);
+        }
+    }
+
+    private <K extends Serializable, V extends Serializable> void iterate(byte[] from, byte[] to, byte[] prefix,
+                                                                         BiConsumer<K, V> consumer) {
+        try (RocksIterator iterator = db.newIterator(columnFamily)) {
+            if (from == null) {
+                iterator.seekToFirst();
+            }
+            else {
+                iterator.seek(from);
+            }
+            for (; iterator.isValid(); iterator.next()) {
+                byte[] key = iterator.key();
+                if (to != null && compare(key, to) >= 0) {
+                    break;
+                }
+                if (prefix != null && !startsWith(key, prefix)) {
+                    break;
+                }
+                consumer.accept(keySerializer.deserialize(key), valueSerializer.deserialize(iterator.value()));
+            }
+        }
+        catch (Exception e) {
+            throw new RuntimeException("Unable to iterate over rocks db", e);
+        }
+    }
+
+    private static int compare(byte[] a, byte[] b) {
+        for (int i = 0; i < Math.min(a.length, b.length); i++) {
+            int diff = (a[i] & 0xFF) - (b[i] & 0xFF);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return a.length - b.length;
+    }
+
+    private static boolean startsWith(byte[] bytes, byte[] prefix) {
+        if (bytes.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Collects puts and deletes, and applies them to the Rocks DB in a single atomic write
+     */
+    public class Batch implements AutoCloseable {
+
+        private final WriteBatch writeBatch = new WriteBatch();
+
+        public Batch put(Serializable key, Serializable value) {
+            try {
+                writeBatch.put(columnFamily, keySerializer.serialize(key), valueSerializer.serialize(value));
+            }
+            catch (Exception e) {
+                throw new RuntimeException("Unable to add put to rocks db batch", e);
+            }
+            return this;
+        }
+
+        public Batch delete(Serializable key) {
+            try {
+                writeBatch.delete(columnFamily, keySerializer.serialize(key));
+            }
+            catch (Exception e) {
+                throw new RuntimeException("Unable to add delete to rocks db batch", e);
+            }
+            return this;
+        }
+
+        public int size() {
+            return writeBatch.count();
+        }
+
+        /**
+         * Writes all puts and deletes added to this Batch, and clears it so that it may be reused
+         */
+        public void write() {
+            try (WriteOptions writeOptions = new WriteOptions()) {
+                db.write(writeOptions, writeBatch);
+                writeBatch.clear();
+            }
+            catch (Exception e) {
+                throw new RuntimeException("Unable to write batch to rocks db", e);
+            }
+        }
+
+        @Override
+        public void close() {
+            writeBatch.close();
+        }
     }
-}
\ No newline at end of file
+}
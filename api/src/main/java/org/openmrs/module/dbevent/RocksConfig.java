@@ -0,0 +1,178 @@
+package org.openmrs.module.dbevent;
+
+import lombok.AccessLevel;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Setter;
+import lombok.ToString;
+import org.rocksdb.BlockBasedTableConfig;
+import org.rocksdb.BloomFilter;
+import org.rocksdb.Cache;
+import org.rocksdb.ColumnFamilyOptions;
+import org.rocksdb.CompressionType;
+import org.rocksdb.LRUCache;
+
+import java.io.Serializable;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Tuning profile for Rocks DB instances.  Any value that is null is left at the RocksDB default.
+ * All Rocks instances opened with the same RocksConfig share a single block cache of blockCacheSizeBytes, which
+ * allows the memory used for reads across all Rocks DBs of a DbEventSource to be capped.  The cache is closed when the
+ * last Rocks DB using it is closed, and DBs opened after blockCacheSizeBytes is changed use a new cache of the new size.
+ * If ttlSeconds is set, entries become eligible for removal during compaction once they are older than this.
+ * The profile can be written to and read from string properties, which allows it to be passed to stores that are
+ * instantiated by the Debezium engine from its configuration.
+ */
+@Data
+public class RocksConfig implements Serializable {
+
+    private Long blockCacheSizeBytes;
+    private Integer bloomFilterBitsPerKey = 10; // Speeds up point lookups for keys that do not exist
+    private CompressionType compressionType = CompressionType.LZ4_COMPRESSION;
+    private CompressionType bottommostCompressionType; // eg. ZSTD_COMPRESSION, for data that is rarely rewritten
+    private Long writeBufferSizeBytes;
+    private Integer ttlSeconds;
+
+    @Setter(AccessLevel.NONE)
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private transient Cache blockCache;
+
+    @Setter(AccessLevel.NONE)
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private transient Long blockCacheCapacity; // The size the current blockCache was created with
+
+    @Setter(AccessLevel.NONE)
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private transient Map<Cache, Integer> blockCacheUsers; // The number of open Rocks DBs using each cache
+
+    /**
+     * @param prefix the prefix to add to each property name
+     * @return the values of this profile as string properties, with an empty string for each value that is null
+     */
+    public Map<String, String> toProperties(String prefix) {
+        Map<String, String> ret = new LinkedHashMap<>();
+        ret.put(prefix + "blockCacheSizeBytes", toString(blockCacheSizeBytes));
+        ret.put(prefix + "bloomFilterBitsPerKey", toString(bloomFilterBitsPerKey));
+        ret.put(prefix + "compressionType", compressionType == null ? "" : compressionType.name());
+        ret.put(prefix + "bottommostCompressionType", bottommostCompressionType == null ? "" : bottommostCompressionType.name());
+        ret.put(prefix + "writeBufferSizeBytes", toString(writeBufferSizeBytes));
+        ret.put(prefix + "ttlSeconds", toString(ttlSeconds));
+        return ret;
+    }
+
+    /**
+     * @param properties the properties to read, as written by toProperties
+     * @param prefix the prefix of each property name
+     * @return a new RocksConfig with the values of the given properties, or null if none of these are present
+     */
+    public static RocksConfig fromProperties(Map<String, ?> properties, String prefix) {
+        RocksConfig ret = new RocksConfig();
+        if (ret.toProperties(prefix).keySet().stream().noneMatch(properties::containsKey)) {
+            return null;
+        }
+        ret.setBlockCacheSizeBytes(getValue(properties, prefix + "blockCacheSizeBytes", Long::valueOf));
+        ret.setBloomFilterBitsPerKey(getValue(properties, prefix + "bloomFilterBitsPerKey", Integer::valueOf));
+        ret.setCompressionType(getValue(properties, prefix + "compressionType", CompressionType::valueOf));
+        ret.setBottommostCompressionType(getValue(properties, prefix + "bottommostCompressionType", CompressionType::valueOf));
+        ret.setWriteBufferSizeBytes(getValue(properties, prefix + "writeBufferSizeBytes", Long::valueOf));
+        ret.setTtlSeconds(getValue(properties, prefix + "ttlSeconds", Integer::valueOf));
+        return ret;
+    }
+
+    /**
+     * @return the block cache shared by Rocks instances opened with this config, or null if none is configured
+     */
+    public synchronized Cache getBlockCache() {
+        return blockCacheSizeBytes == null ? null : blockCache;
+    }
+
+    /**
+     * @param resources a list to which any native resources created for these options are added.  These must be
+     *                  closed by the owner of the options once the Rocks DB that uses them has been closed.
+     * @return new ColumnFamilyOptions configured with the values of this config
+     */
+    public ColumnFamilyOptions newColumnFamilyOptions(List<AutoCloseable> resources) {
+        ColumnFamilyOptions options = new ColumnFamilyOptions();
+        resources.add(options);
+        BlockBasedTableConfig tableConfig = new BlockBasedTableConfig();
+        Cache cache = acquireBlockCache();
+        if (cache != null) {
+            resources.add(() -> releaseBlockCache(cache));
+            tableConfig.setBlockCache(cache);
+        }
+        if (bloomFilterBitsPerKey != null && bloomFilterBitsPerKey > 0) {
+            BloomFilter bloomFilter = new BloomFilter(bloomFilterBitsPerKey, false);
+            resources.add(bloomFilter);
+            tableConfig.setFilterPolicy(bloomFilter);
+        }
+        options.setTableFormatConfig(tableConfig);
+        if (compressionType != null) {
+            options.setCompressionType(compressionType);
+        }
+        if (bottommostCompressionType != null) {
+            options.setBottommostCompressionType(bottommostCompressionType);
+        }
+        if (writeBufferSizeBytes != null) {
+            options.setWriteBufferSize(writeBufferSizeBytes);
+        }
+        return options;
+    }
+
+    /**
+     * @return the current block cache, creating it if it does not exist or if blockCacheSizeBytes has changed since it
+     * was created, and registering a new user of it.  A cache that is replaced is closed once its last user releases it.
+     */
+    protected synchronized Cache acquireBlockCache() {
+        if (blockCacheSizeBytes == null) {
+            return null;
+        }
+        if (blockCacheUsers == null) {
+            blockCacheUsers = new IdentityHashMap<>();
+        }
+        if (blockCache == null || !blockCacheSizeBytes.equals(blockCacheCapacity)) {
+            Cache previous = blockCache;
+            blockCache = new LRUCache(blockCacheSizeBytes);
+            blockCacheCapacity = blockCacheSizeBytes;
+            if (previous != null && !blockCacheUsers.containsKey(previous)) {
+                previous.close();
+            }
+        }
+        blockCacheUsers.merge(blockCache, 1, Integer::sum);
+        return blockCache;
+    }
+
+    /**
+     * Releases a cache previously returned by acquireBlockCache, closing it if it has no remaining users
+     */
+    protected synchronized void releaseBlockCache(Cache cache) {
+        Integer users = blockCacheUsers.merge(cache, -1, Integer::sum);
+        if (users <= 0) {
+            blockCacheUsers.remove(cache);
+            cache.close();
+            if (cache == blockCache) {
+                blockCache = null;
+                blockCacheCapacity = null;
+            }
+        }
+    }
+
+    private static String toString(Object value) {
+        return value == null ? "" : value.toString();
+    }
+
+    private static <T> T getValue(Map<String, ?> properties, String name, Function<String, T> parser) {
+        Object value = properties.get(name);
+        if (value == null || value.toString().trim().isEmpty()) {
+            return null;
+        }
+        return parser.apply(value.toString().trim());
+    }
+}
@@ -0,0 +1,249 @@
+package org.openmrs.module.dbevent;
+
+import io.debezium.config.Configuration;
+import io.debezium.document.Array;
+import io.debezium.document.Document;
+import io.debezium.document.DocumentReader;
+import io.debezium.document.DocumentWriter;
+import io.debezium.relational.Tables;
+import io.debezium.relational.ddl.DdlParser;
+import io.debezium.relational.history.AbstractDatabaseHistory;
+import io.debezium.relational.history.DatabaseHistoryException;
+import io.debezium.relational.history.DatabaseHistoryListener;
+import io.debezium.relational.history.FileDatabaseHistory;
+import io.debezium.relational.history.HistoryRecord;
+import io.debezium.relational.history.HistoryRecordComparator;
+import io.debezium.relational.history.TableChanges;
+import io.debezium.relational.TableId;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * DatabaseHistory that stores schema history records in a Rocks DB, in the directory configured by the
+ * database.history.file.filename property.  Each time the history is recovered, typically on startup, if more than
+ * database.history.compaction.threshold records with table changes exist up to the recovered position, these are
+ * compacted into a single record containing the definition of every table at that position.  This means that startup
+ * only needs to replay the current table definitions, and the DDL recorded since the last compaction, no matter how
+ * many schema changes have occurred over the life of the source.
+ * If the database.history.migrate.filename property refers to an existing FileDatabaseHistory file, and the Rocks DB
+ * is empty, the records in this file are migrated on startup, and the file is renamed with a .migrated suffix.
+ */
+public class RocksDatabaseHistory extends AbstractDatabaseHistory {
+
+    private static final Logger log = LogManager.getLogger(RocksDatabaseHistory.class);
+
+    public static final String MIGRATE_FILENAME_PROPERTY = "database.history.migrate.filename";
+    public static final String COMPACTION_THRESHOLD_PROPERTY = "database.history.compaction.threshold";
+    public static final int DEFAULT_COMPACTION_THRESHOLD = 100;
+    public static final String ROCKS_CONFIG_PREFIX = "database.history.rocks.";
+
+    private File directory;
+    private File migrateFile;
+    private HistoryRecordComparator comparator;
+    private boolean preferDdl;
+    private int compactionThreshold;
+    private RocksConfig rocksConfig;
+    private Rocks rocks;
+    private long lastId;
+
+    @Override
+    public void configure(Configuration config, HistoryRecordComparator comparator,
+                          DatabaseHistoryListener listener, boolean useCatalogBeforeSchema) {
+        super.configure(config, comparator, listener, useCatalogBeforeSchema);
+        this.directory = new File(config.getString(FileDatabaseHistory.FILE_PATH));
+        String migrateFilename = config.getString(MIGRATE_FILENAME_PROPERTY);
+        this.migrateFile = (migrateFilename == null ? null : new File(migrateFilename));
+        this.comparator = comparator;
+        this.preferDdl = config.getBoolean(INTERNAL_PREFER_DDL);
+        this.compactionThreshold = config.getInteger(COMPACTION_THRESHOLD_PROPERTY, DEFAULT_COMPACTION_THRESHOLD);
+        this.rocksConfig = RocksConfig.fromProperties(config.asMap(), ROCKS_CONFIG_PREFIX);
+    }
+
+    @Override
+    public synchronized void start() {
+        super.start();
+        getRocks();
+    }
+
+    @Override
+    public synchronized void stop() {
+        super.stop();
+        if (rocks != null) {
+            rocks.close();
+            rocks = null;
+        }
+    }
+
+    @Override
+    protected synchronized void storeRecord(HistoryRecord record) throws DatabaseHistoryException {
+        try {
+            getRocks().put(++lastId, DocumentWriter.defaultWriter().write(record.document()));
+        }
+        catch (Exception e) {
+            throw new DatabaseHistoryException("Unable to store record: " + record, e);
+        }
+    }
+
+    @Override
+    protected synchronized void recoverRecords(Consumer<HistoryRecord> records) {
+        for (HistoryRecord record : getRecords().values()) {
+            records.accept(record);
+        }
+    }
+
+    /**
+     * Recovers the schema at the given offsets, and then compacts all records at or before these offsets
+     */
+    @Override
+    public synchronized void recover(Map<Map<String, ?>, Map<String, ?>> offsets, Tables schema, DdlParser ddlParser) {
+        super.recover(offsets, schema, ddlParser);
+        compact(offsets, schema);
+    }
+
+    /**
+     * Replaces all records at or before the given offsets that contain table changes with a single record that
+     * creates every table in the given schema, which must be the schema recovered at these offsets.  Records without
+     * table changes, such as the SET statements recorded by a snapshot, are retained, as they may affect how any
+     * later DDL is parsed.  Compaction only occurs if the records to replace are a contiguous sequence at the start of
+     * the history, there are more of them than the compaction threshold, and DDL is not preferred over table changes.
+     * As the schema has already been recovered, a failure to compact is logged, and compaction is attempted again on
+     * the next recovery.
+     */
+    protected void compact(Map<Map<String, ?>, Map<String, ?>> offsets, Tables schema) {
+        if (preferDdl) {
+            return;
+        }
+        List<Long> compactedIds = new ArrayList<>();
+        HistoryRecord lastCompacted = null;
+        for (Map.Entry<Long, HistoryRecord> entry : getRecords().entrySet()) {
+            HistoryRecord record = entry.getValue();
+            Map<String, Object> source = toMap(record.document().getDocument(HistoryRecord.Fields.SOURCE));
+            Map<String, ?> position = offsets.get(source);
+            if (position == null || !comparator.isAtOrBefore(record, new HistoryRecord(source, position, null, null, null, null))) {
+                break;
+            }
+            Array tableChanges = record.document().getArray(HistoryRecord.Fields.TABLE_CHANGES);
+            if (tableChanges != null && !tableChanges.isEmpty()) {
+                compactedIds.add(entry.getKey());
+                lastCompacted = record;
+            }
+        }
+        if (compactedIds.size() > compactionThreshold) {
+            TableChanges tableChanges = new TableChanges();
+            for (TableId tableId : schema.tableIds()) {
+                tableChanges.create(schema.forTable(tableId));
+            }
+            Document lastDocument = lastCompacted.document();
+            HistoryRecord compacted = new HistoryRecord(
+                    toMap(lastDocument.getDocument(HistoryRecord.Fields.SOURCE)),
+                    toMap(lastDocument.getDocument(HistoryRecord.Fields.POSITION)),
+                    lastDocument.getString(HistoryRecord.Fields.DATABASE_NAME),
+                    lastDocument.getString(HistoryRecord.Fields.SCHEMA_NAME),
+                    "", tableChanges
+            );
+            Long compactedId = compactedIds.get(compactedIds.size() - 1); // Replayed after any retained records
+            try (Rocks.Batch batch = getRocks().newBatch()) {
+                for (Long id : compactedIds) {
+                    batch.delete(id);
+                }
+                batch.put(compactedId, DocumentWriter.defaultWriter().write(compacted.document()));
+                batch.write();
+                log.info("Compacted " + compactedIds.size() + " schema history records for " + schema.size() + " tables");
+            }
+            catch (Exception e) {
+                log.warn("Unable to compact database history, this will be attempted again on the next recovery", e);
+            }
+        }
+    }
+
+    @Override
+    public synchronized boolean exists() {
+        getRocks();
+        return lastId > 0;
+    }
+
+    @Override
+    public boolean storageExists() {
+        return directory.exists();
+    }
+
+    @Override
+    public String toString() {
+        return "Rocks database history: " + directory;
+    }
+
+    /**
+     * @return the tuning profile read from the configuration, or null if none was configured
+     */
+    protected RocksConfig getRocksConfig() {
+        return rocksConfig;
+    }
+
+    /**
+     * @return all records in the history, keyed on their position in the history
+     */
+    protected Map<Long, HistoryRecord> getRecords() {
+        Map<Long, HistoryRecord> ret = new LinkedHashMap<>();
+        DocumentReader reader = DocumentReader.defaultReader();
+        getRocks().<Long, String>forEachInRange(null, null, (id, json) -> {
+            try {
+                ret.put(id, new HistoryRecord(reader.read(json)));
+            }
+            catch (Exception e) {
+                throw new DatabaseHistoryException("Unable to read database history record: " + json, e);
+            }
+        });
+        return ret;
+    }
+
+    private Rocks getRocks() {
+        if (rocks == null) {
+            rocks = new Rocks(directory, rocksConfig, new OrderedKeySerializer(), new BinarySerializer());
+            rocks.<Long, String>forEachInRange(null, null, (id, json) -> lastId = Math.max(lastId, id));
+            if (lastId == 0 && migrateFile != null && migrateFile.exists()) {
+                migrate();
+            }
+        }
+        return rocks;
+    }
+
+    /**
+     * Loads records from a file written by the FileDatabaseHistory, and stores them in the Rocks DB
+     */
+    protected void migrate() {
+        log.info("Migrating database history from " + migrateFile);
+        try (Rocks.Batch batch = rocks.newBatch()) {
+            for (String line : Files.readAllLines(migrateFile.toPath(), StandardCharsets.UTF_8)) {
+                if (!line.trim().isEmpty()) {
+                    batch.put(++lastId, line);
+                }
+            }
+            batch.write();
+            File migratedFile = new File(migrateFile.getParentFile(), migrateFile.getName() + ".migrated");
+            Files.move(migrateFile.toPath(), migratedFile.toPath());
+            log.info("Migrated " + lastId + " records.  Original file renamed to " + migratedFile);
+        }
+        catch (Exception e) {
+            throw new DatabaseHistoryException("Unable to migrate database history from " + migrateFile, e);
+        }
+    }
+
+    private static Map<String, Object> toMap(Document document) {
+        Map<String, Object> ret = new LinkedHashMap<>();
+        if (document != null) {
+            for (Document.Field field : document) {
+                ret.put(field.getName().toString(), field.getValue().asObject());
+            }
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,137 @@
+package org.openmrs.module.dbevent;
+
+import org.apache.commons.lang3.SerializationUtils;
+import org.apache.kafka.connect.runtime.WorkerConfig;
+import org.apache.kafka.connect.runtime.standalone.StandaloneConfig;
+import org.apache.kafka.connect.storage.MemoryOffsetBackingStore;
+import org.apache.kafka.connect.util.Callback;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+/**
+ * OffsetBackingStore that persists offsets in a Rocks DB, in the directory configured by the
+ * offset.storage.file.filename property.  Unlike the FileOffsetBackingStore, which rewrites the entire offsets file
+ * on each flush, each flush writes only the offsets that have changed, in a single atomic batch.
+ * If the offset.storage.migrate.filename property refers to an existing FileOffsetBackingStore file, and the Rocks DB
+ * is empty, the offsets in this file are migrated on startup, and the file is renamed with a .migrated suffix.
+ */
+public class RocksOffsetBackingStore extends MemoryOffsetBackingStore {
+
+    private static final Logger log = LogManager.getLogger(RocksOffsetBackingStore.class);
+
+    public static final String MIGRATE_FILENAME_PROPERTY = "offset.storage.migrate.filename";
+    public static final String ROCKS_CONFIG_PREFIX = "offset.storage.rocks.";
+
+    private File directory;
+    private File migrateFile;
+    private RocksConfig rocksConfig;
+    private Rocks rocks;
+
+    @Override
+    public void configure(WorkerConfig config) {
+        super.configure(config);
+        directory = new File(config.getString(StandaloneConfig.OFFSET_STORAGE_FILE_FILENAME_CONFIG));
+        Object migrateFilename = config.originals().get(MIGRATE_FILENAME_PROPERTY);
+        migrateFile = (migrateFilename == null ? null : new File(migrateFilename.toString()));
+        rocksConfig = RocksConfig.fromProperties(config.originals(), ROCKS_CONFIG_PREFIX);
+    }
+
+    @Override
+    public synchronized void start() {
+        super.start();
+        log.info("Starting RocksOffsetBackingStore in " + directory);
+        BinarySerializer serializer = new BinarySerializer();
+        rocks = new Rocks(directory, rocksConfig, serializer, serializer);
+        Map<byte[], byte[]> stored = rocks.getAll();
+        for (Map.Entry<byte[], byte[]> entry : stored.entrySet()) {
+            data.put(ByteBuffer.wrap(entry.getKey()), ByteBuffer.wrap(entry.getValue()));
+        }
+        if (stored.isEmpty() && migrateFile != null && migrateFile.exists()) {
+            migrate();
+        }
+    }
+
+    @Override
+    public synchronized void stop() {
+        super.stop();
+        if (rocks != null) {
+            rocks.close();
+            rocks = null;
+        }
+    }
+
+    @Override
+    public Future<Void> set(Map<ByteBuffer, ByteBuffer> values, Callback<Void> callback) {
+        return executor.submit(() -> {
+            try (Rocks.Batch batch = rocks.newBatch()) {
+                for (Map.Entry<ByteBuffer, ByteBuffer> entry : values.entrySet()) {
+                    if (entry.getValue() == null) {
+                        batch.delete(toBytes(entry.getKey()));
+                    }
+                    else {
+                        batch.put(toBytes(entry.getKey()), toBytes(entry.getValue()));
+                    }
+                }
+                batch.write();
+            }
+            catch (RuntimeException e) {
+                if (callback != null) {
+                    callback.onCompletion(e, null);
+                }
+                throw e;
+            }
+            for (Map.Entry<ByteBuffer, ByteBuffer> entry : values.entrySet()) {
+                data.put(entry.getKey(), entry.getValue());
+            }
+            if (callback != null) {
+                callback.onCompletion(null, null);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * @return the tuning profile read from the configuration, or null if none was configured
+     */
+    protected RocksConfig getRocksConfig() {
+        return rocksConfig;
+    }
+
+    /**
+     * Loads offsets from a file written by the FileOffsetBackingStore, and stores them in the Rocks DB
+     */
+    protected void migrate() {
+        log.info("Migrating offsets from " + migrateFile);
+        try {
+            Map<byte[], byte[]> raw = SerializationUtils.deserialize(Files.readAllBytes(migrateFile.toPath()));
+            try (Rocks.Batch batch = rocks.newBatch()) {
+                for (Map.Entry<byte[], byte[]> entry : raw.entrySet()) {
+                    if (entry.getKey() != null && entry.getValue() != null) {
+                        batch.put(entry.getKey(), entry.getValue());
+                        data.put(ByteBuffer.wrap(entry.getKey()), ByteBuffer.wrap(entry.getValue()));
+                    }
+                }
+                batch.write();
+            }
+            File migratedFile = new File(migrateFile.getParentFile(), migrateFile.getName() + ".migrated");
+            Files.move(migrateFile.toPath(), migratedFile.toPath());
+            log.info("Migrated " + raw.size() + " offsets.  Original file renamed to " + migratedFile);
+        }
+        catch (Exception e) {
+            throw new RuntimeException("Unable to migrate offsets from " + migrateFile, e);
+        }
+    }
+
+    private static byte[] toBytes(ByteBuffer buffer) {
+        ByteBuffer duplicate = buffer.duplicate();
+        byte[] bytes = new byte[duplicate.remaining()];
+        duplicate.get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,17 @@
+package org.openmrs.module.dbevent;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Handles each row of a streaming query, as the ResultSet is positioned on that row
+ * @see Database#executeStreamingQuery(String, RowHandler, Object...)
+ */
+@FunctionalInterface
+public interface RowHandler {
+
+    /**
+     * @param resultSet the ResultSet, positioned on the current row.  Implementations should not advance it.
+     */
+    void handleRow(ResultSet resultSet) throws SQLException;
+}
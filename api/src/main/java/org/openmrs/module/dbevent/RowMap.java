@@ -0,0 +1,314 @@
+package org.openmrs.module.dbevent;
+
+import org.apache.kafka.connect.data.Struct;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Compact ObjectMap that represents the values of a row as a flat array, indexed by a RowSchema that is shared by all
+ * rows with the same Schema.  This avoids allocating a hash table and an entry for each column of each row.
+ * Rows are read-only views of their values until they are modified, at which point the values are copied into the
+ * underlying HashMap, and the row behaves exactly as any other ObjectMap.
+ * @see RowSchema
+ */
+public class RowMap extends ObjectMap {
+
+    private final RowSchema rowSchema;
+    private Object[] values; // null once this has been converted into a standard HashMap
+
+    /**
+     * Constructs a new RowMap from the given Struct, using the fields of the schema as keys
+     * @param struct the struct to convert to a RowMap
+     */
+    public RowMap(Struct struct) {
+        super(0);
+        if (struct == null) {
+            rowSchema = RowSchema.EMPTY;
+            values = new Object[0];
+        }
+        else {
+            rowSchema = RowSchema.forSchema(struct.schema());
+            values = new Object[rowSchema.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = struct.get(rowSchema.getField(i));
+            }
+        }
+    }
+
+    private RowMap(RowSchema rowSchema, Object[] values) {
+        super(0);
+        this.rowSchema = rowSchema;
+        this.values = values;
+    }
+
+    /**
+     * @return true if the values are still held in the compact representation
+     */
+    public boolean isCompact() {
+        return values != null;
+    }
+
+    /**
+     * Copies the values into the underlying HashMap, to support modification
+     */
+    private void inflate() {
+        if (values != null) {
+            Object[] rowValues = values;
+            values = null;
+            for (int i = 0; i < rowValues.length; i++) {
+                super.put(rowSchema.getFieldName(i), rowValues[i]);
+            }
+        }
+    }
+
+    // Read operations
+
+    @Override
+    public int size() {
+        return values != null ? values.length : super.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public Object get(Object key) {
+        if (values == null) {
+            return super.get(key);
+        }
+        int index = rowSchema.indexOf(key);
+        return index < 0 ? null : values[index];
+    }
+
+    @Override
+    public Object getOrDefault(Object key, Object defaultValue) {
+        if (values == null) {
+            return super.getOrDefault(key, defaultValue);
+        }
+        int index = rowSchema.indexOf(key);
+        return index < 0 ? defaultValue : values[index];
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return values != null ? rowSchema.indexOf(key) >= 0 : super.containsKey(key);
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        if (values == null) {
+            return super.containsValue(value);
+        }
+        for (Object v : values) {
+            if (Objects.equals(v, value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super String, ? super Object> action) {
+        if (values == null) {
+            super.forEach(action);
+        }
+        else {
+            for (int i = 0; i < values.length; i++) {
+                action.accept(rowSchema.getFieldName(i), values[i]);
+            }
+        }
+    }
+
+    @Override
+    public Set<String> keySet() {
+        if (values == null) {
+            return super.keySet();
+        }
+        return new AbstractSet<String>() {
+            public Iterator<String> iterator() {
+                return new RowIterator<String>() {
+                    String get(int index) {
+                        return rowSchema.getFieldName(index);
+                    }
+                };
+            }
+            public boolean contains(Object o) {
+                return containsKey(o);
+            }
+            public int size() {
+                return RowMap.this.size();
+            }
+        };
+    }
+
+    @Override
+    public Collection<Object> values() {
+        if (values == null) {
+            return super.values();
+        }
+        return new AbstractCollection<Object>() {
+            public Iterator<Object> iterator() {
+                return new RowIterator<Object>() {
+                    Object get(int index) {
+                        return values[index];
+                    }
+                };
+            }
+            public int size() {
+                return RowMap.this.size();
+            }
+        };
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        if (values == null) {
+            return super.entrySet();
+        }
+        return new AbstractSet<Map.Entry<String, Object>>() {
+            public Iterator<Map.Entry<String, Object>> iterator() {
+                return new RowIterator<Map.Entry<String, Object>>() {
+                    Map.Entry<String, Object> get(int index) {
+                        return new AbstractMap.SimpleImmutableEntry<>(rowSchema.getFieldName(index), values[index]);
+                    }
+                };
+            }
+            public int size() {
+                return RowMap.this.size();
+            }
+        };
+    }
+
+    @Override
+    public Object clone() {
+        if (values == null) {
+            return super.clone();
+        }
+        return new RowMap(rowSchema, values.clone());
+    }
+
+    // Write operations
+
+    @Override
+    public Object put(String key, Object value) {
+        inflate();
+        return super.put(key, value);
+    }
+
+    @Override
+    public void putAll(Map<? extends String, ?> m) {
+        inflate();
+        super.putAll(m);
+    }
+
+    @Override
+    public Object remove(Object key) {
+        inflate();
+        return super.remove(key);
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        inflate();
+        return super.remove(key, value);
+    }
+
+    @Override
+    public void clear() {
+        inflate();
+        super.clear();
+    }
+
+    @Override
+    public Object putIfAbsent(String key, Object value) {
+        inflate();
+        return super.putIfAbsent(key, value);
+    }
+
+    @Override
+    public boolean replace(String key, Object oldValue, Object newValue) {
+        inflate();
+        return super.replace(key, oldValue, newValue);
+    }
+
+    @Override
+    public Object replace(String key, Object value) {
+        inflate();
+        return super.replace(key, value);
+    }
+
+    @Override
+    public void replaceAll(BiFunction<? super String, ? super Object, ?> function) {
+        inflate();
+        super.replaceAll(function);
+    }
+
+    @Override
+    public Object computeIfAbsent(String key, Function<? super String, ?> mappingFunction) {
+        inflate();
+        return super.computeIfAbsent(key, mappingFunction);
+    }
+
+    @Override
+    public Object computeIfPresent(String key, BiFunction<? super String, ? super Object, ?> remappingFunction) {
+        inflate();
+        return super.computeIfPresent(key, remappingFunction);
+    }
+
+    @Override
+    public Object compute(String key, BiFunction<? super String, ? super Object, ?> remappingFunction) {
+        inflate();
+        return super.compute(key, remappingFunction);
+    }
+
+    @Override
+    public Object merge(String key, Object value, BiFunction<? super Object, ? super Object, ?> remappingFunction) {
+        inflate();
+        return super.merge(key, value, remappingFunction);
+    }
+
+    /**
+     * RowSchema and Struct values are not serialized, so this is replaced by a standard ObjectMap when serialized
+     */
+    private Object writeReplace() {
+        ObjectMap ret = new ObjectMap();
+        forEach(ret::put);
+        return ret;
+    }
+
+    /**
+     * Read-only iterator over the positions in the compact representation
+     */
+    private abstract class RowIterator<T> implements Iterator<T> {
+
+        private int index = 0;
+
+        abstract T get(int index);
+
+        @Override
+        public boolean hasNext() {
+            return index < values.length;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return get(index++);
+        }
+    }
+}
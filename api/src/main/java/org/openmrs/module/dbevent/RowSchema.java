@@ -0,0 +1,132 @@
+package org.openmrs.module.dbevent;
+
+import org.apache.kafka.connect.data.Field;
+import org.apache.kafka.connect.data.Schema;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Immutable mapping of field names to positional indexes for a given Kafka Connect Schema.
+ * A single instance is shared by all rows with the same Schema.  Instances are cached by schema name and by Schema,
+ * so that different versions of a Schema with the same name, such as before and after a schema change, are each
+ * mapped to their own RowSchema rather than evicting each other.  At most MAX_VERSIONS versions are kept per name.
+ * @see RowMap
+ */
+public final class RowSchema {
+
+    public static final RowSchema EMPTY = new RowSchema(null);
+
+    static final int MAX_VERSIONS = 8;
+
+    private static final Map<String, RowSchema[]> cache = new ConcurrentHashMap<>();
+
+    private final Schema schema;
+    private final Field[] fields;
+    private final String[] fieldNames;
+    private final Map<String, Integer> indexes;
+
+    private RowSchema(Schema schema) {
+        this.schema = schema;
+        List<Field> schemaFields = (schema == null ? Collections.emptyList() : schema.fields());
+        this.fields = schemaFields.toArray(new Field[0]);
+        this.fieldNames = new String[fields.length];
+        Map<String, Integer> indexes = new HashMap<>(fields.length * 2);
+        for (int i = 0; i < fields.length; i++) {
+            fieldNames[i] = fields[i].name();
+            indexes.put(fieldNames[i], i);
+        }
+        this.indexes = Collections.unmodifiableMap(indexes);
+    }
+
+    /**
+     * Creates a RowSchema for the given Schema that shares the field names and indexes of the given RowSchema,
+     * whose Schema must be equal to the given Schema
+     */
+    private RowSchema(Schema schema, RowSchema equalRowSchema) {
+        this.schema = schema;
+        this.fields = schema.fields().toArray(new Field[0]);
+        this.fieldNames = equalRowSchema.fieldNames;
+        this.indexes = equalRowSchema.indexes;
+    }
+
+    /**
+     * @param schema the Schema for which to return a RowSchema
+     * @return the shared RowSchema for the given Schema instance
+     */
+    public static RowSchema forSchema(Schema schema) {
+        if (schema == null) {
+            return EMPTY;
+        }
+        if (schema.name() == null) {
+            return new RowSchema(schema);
+        }
+        RowSchema[] versions = cache.get(schema.name());
+        if (versions != null) {
+            for (RowSchema version : versions) {
+                if (version.schema == schema) {
+                    return version;
+                }
+            }
+        }
+        return addVersion(schema);
+    }
+
+    /**
+     * Adds a RowSchema for the given Schema to the versions cached for its name, replacing any cached version whose
+     * Schema is equal to the given Schema with one that shares its field names and indexes, and dropping the oldest version if MAX_VERSIONS would be exceeded.
+     * The most recently used version is kept first, so that it is found first.
+     */
+    private static RowSchema addVersion(Schema schema) {
+        RowSchema[] ret = new RowSchema[1];
+        cache.compute(schema.name(), (name, versions) -> {
+            List<RowSchema> updated = new ArrayList<>();
+            RowSchema rowSchema = null;
+            for (RowSchema version : (versions == null ? new RowSchema[0] : versions)) {
+                if (rowSchema == null && (version.schema == schema || version.schema.equals(schema))) {
+                    rowSchema = (version.schema == schema ? version : new RowSchema(schema, version));
+                }
+                else {
+                    updated.add(version);
+                }
+            }
+            ret[0] = (rowSchema == null ? new RowSchema(schema) : rowSchema);
+            updated.add(0, ret[0]);
+            return updated.subList(0, Math.min(updated.size(), MAX_VERSIONS)).toArray(new RowSchema[0]);
+        });
+        return ret[0];
+    }
+
+    /**
+     * @return the number of fields in the schema
+     */
+    public int size() {
+        return fields.length;
+    }
+
+    /**
+     * @return the Field at the given index
+     */
+    public Field getField(int index) {
+        return fields[index];
+    }
+
+    /**
+     * @return the name of the field at the given index
+     */
+    public String getFieldName(int index) {
+        return fieldNames[index];
+    }
+
+    /**
+     * @return the index of the field with the given name, or -1 if no such field exists
+     */
+    public int indexOf(Object fieldName) {
+        Integer index = indexes.get(fieldName);
+        return index == null ? -1 : index;
+    }
+}
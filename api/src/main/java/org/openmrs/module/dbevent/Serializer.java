@@ -0,0 +1,23 @@
+package org.openmrs.module.dbevent;
+
+import java.io.Serializable;
+
+/**
+ * Converts keys and values to and from the bytes that are stored in a Rocks DB
+ * @see JavaSerializer
+ * @see BinarySerializer
+ */
+public interface Serializer {
+
+    /**
+     * @param value the value to serialize, which may be null
+     * @return the serialized bytes
+     */
+    byte[] serialize(Serializable value);
+
+    /**
+     * @param bytes the bytes to deserialize, as returned from serialize
+     * @return the deserialized value
+     */
+    <T extends Serializable> T deserialize(byte[] bytes);
+}
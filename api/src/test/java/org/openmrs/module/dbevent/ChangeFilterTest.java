@@ -0,0 +1,63 @@
+package org.openmrs.module.dbevent;
+
+import org.apache.kafka.connect.data.Struct;
+import org.apache.kafka.connect.source.SourceRecord;
+import org.junit.jupiter.api.Test;
+import org.openmrs.module.dbevent.test.TestChangeEvent;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+public class ChangeFilterTest {
+
+    public static final String SOURCE = "ChangeFilterTest";
+
+    @Test
+    public void shouldIgnoreUpdatesThatOnlyChangeIgnoredColumns() {
+        ChangeFilter filter = new ChangeFilter().ignoreColumns("date_changed", "changed_by");
+        assertThat(accept(filter, "u", row(1, "A", 0, 1000L, 1), row(1, "A", 0, 2000L, 2)), equalTo(false));
+        assertThat(accept(filter, "u", row(1, "A", 0, 1000L, 1), row(1, "A", 0, 1000L, 1)), equalTo(false));
+        assertThat(accept(filter, "u", row(1, "A", 0, 1000L, 1), row(1, "B", 0, 2000L, 2)), equalTo(true));
+        assertThat(accept(filter, "c", null, row(1, "A", 0, 1000L, 1)), equalTo(true));
+    }
+
+    @Test
+    public void shouldOnlyAcceptIncludedOperations() {
+        ChangeFilter filter = new ChangeFilter().includeOperations(Operation.INSERT, Operation.DELETE);
+        assertThat(accept(filter, "c", null, row(1, "A", 0, 1000L, 1)), equalTo(true));
+        assertThat(accept(filter, "d", row(1, "A", 0, 1000L, 1), null), equalTo(true));
+        assertThat(accept(filter, "r", null, row(1, "A", 0, 1000L, 1)), equalTo(false));
+        assertThat(accept(filter, "u", row(1, "A", 0, 1000L, 1), row(1, "B", 0, 1000L, 1)), equalTo(false));
+    }
+
+    @Test
+    public void shouldOnlyAcceptRowsWithRequiredValues() {
+        ChangeFilter filter = new ChangeFilter().requireValue("voided", 0);
+        assertThat(accept(filter, "r", null, row(1, "A", 0, 1000L, 1)), equalTo(true));
+        assertThat(accept(filter, "r", null, row(1, "A", 1, 1000L, 1)), equalTo(false));
+        assertThat(accept(filter, "u", row(1, "A", 0, 1000L, 1), row(1, "A", 1, 1000L, 1)), equalTo(false));
+        assertThat(accept(filter, "d", row(1, "A", 0, 1000L, 1), null), equalTo(true));
+        assertThat(accept(new ChangeFilter().requireValue("voided", false), "r", null, row(1, "A", 0, 1000L, 1)), equalTo(true));
+        assertThat(accept(new ChangeFilter().requireValue("voided", 0L), "r", null, row(1, "A", 0, 1000L, 1)), equalTo(true));
+        assertThat(accept(new ChangeFilter().requireValue("missing", 0), "r", null, row(1, "A", 0, 1000L, 1)), equalTo(false));
+    }
+
+    protected boolean accept(ChangeFilter filter, String op, Map<String, Object> before, Map<String, Object> after) {
+        SourceRecord record = new TestChangeEvent(SOURCE, "location", op, before, after).value();
+        Struct value = (Struct) record.value();
+        return filter.accept(Operation.parse(op), value.getStruct("before"), value.getStruct("after"));
+    }
+
+    protected Map<String, Object> row(Integer id, String name, Integer voided, Long dateChanged, Integer changedBy) {
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("location_id", id);
+        row.put("name", name);
+        row.put("voided", voided);
+        row.put("date_changed", dateChanged);
+        row.put("changed_by", changedBy);
+        return row;
+    }
+}
@@ -0,0 +1,155 @@
+package org.openmrs.module.dbevent;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ConnectionPoolTest {
+
+    List<AtomicBoolean> physicalConnections = new ArrayList<>();
+    List<Map<String, Object>> settings = new ArrayList<>();
+
+    @Test
+    public void shouldReuseConnectionsReturnedToPool() throws Exception {
+        ConnectionPool pool = new ConnectionPool("test", this::newConnection, 2, 60000, 100);
+        Connection c1 = pool.getConnection();
+        assertFalse(c1.isClosed());
+        c1.close();
+        assertTrue(c1.isClosed());
+        assertThrows(SQLException.class, c1::getAutoCommit);
+        Connection c2 = pool.getConnection();
+        assertThat(physicalConnections.size(), equalTo(1));
+        assertThat(pool.getOpenConnections(), equalTo(1));
+        assertThat(pool.getIdleConnections(), equalTo(0));
+        c2.close();
+        assertThat(pool.getIdleConnections(), equalTo(1));
+        pool.close();
+        assertTrue(physicalConnections.get(0).get());
+    }
+
+    @Test
+    public void shouldLimitNumberOfOpenConnections() throws Exception {
+        ConnectionPool pool = new ConnectionPool("test", this::newConnection, 2, 60000, 100);
+        Connection c1 = pool.getConnection();
+        Connection c2 = pool.getConnection();
+        assertThrows(SQLException.class, pool::getConnection);
+        c1.close();
+        Connection c3 = pool.getConnection();
+        assertThat(physicalConnections.size(), equalTo(2));
+        c2.close();
+        c3.close();
+        pool.close();
+    }
+
+    @Test
+    public void shouldEvictIdleConnections() throws Exception {
+        ConnectionPool pool = new ConnectionPool("test", this::newConnection, 2, 50, 100);
+        Connection c1 = pool.getConnection();
+        Connection c2 = pool.getConnection();
+        c1.close();
+        c2.close();
+        assertThat(pool.getIdleConnections(), equalTo(2));
+        Thread.sleep(100);
+        pool.evictIdleConnections();
+        assertThat(pool.getIdleConnections(), equalTo(0));
+        assertThat(pool.getOpenConnections(), equalTo(0));
+        assertTrue(physicalConnections.get(0).get());
+        assertTrue(physicalConnections.get(1).get());
+        pool.close();
+    }
+
+    @Test
+    public void shouldRestoreChangedSettingsWhenReturnedToPool() throws Exception {
+        ConnectionPool pool = new ConnectionPool("test", this::newConnection, 1, 60000, 100);
+        Connection c1 = pool.getConnection();
+        c1.setReadOnly(true);
+        c1.setCatalog("other");
+        c1.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+        c1.setAutoCommit(false);
+        c1.close();
+        Connection c2 = pool.getConnection();
+        assertThat(physicalConnections.size(), equalTo(1));
+        assertFalse(c2.isReadOnly());
+        assertThat(c2.getCatalog(), equalTo("dbevent"));
+        assertThat(c2.getTransactionIsolation(), equalTo(Connection.TRANSACTION_REPEATABLE_READ));
+        assertTrue(c2.getAutoCommit());
+        assertThat(settings.get(0).get("rollback"), equalTo(true));
+        c2.close();
+        pool.close();
+    }
+
+    @Test
+    public void shouldCloseConnectionsWithChangedSessionState() throws Exception {
+        ConnectionPool pool = new ConnectionPool("test", this::newConnection, 1, 60000, 100);
+        Connection c1 = pool.getConnection();
+        Statement statement = c1.createStatement();
+        assertThat(statement.getConnection(), equalTo(c1));
+        statement.execute("select 1");
+        c1.close();
+        assertThat(pool.getIdleConnections(), equalTo(1));
+
+        Connection c2 = pool.getConnection();
+        c2.createStatement().execute(" SET @patient_id = 1");
+        c2.close();
+        assertThat(pool.getIdleConnections(), equalTo(0));
+        assertThat(pool.getOpenConnections(), equalTo(0));
+        assertTrue(physicalConnections.get(0).get());
+
+        Connection c3 = pool.getConnection();
+        c3.prepareStatement("use other").close();
+        c3.close();
+        assertThat(pool.getIdleConnections(), equalTo(0));
+        assertThat(physicalConnections.size(), equalTo(2));
+        pool.close();
+    }
+
+    protected Connection newConnection() {
+        AtomicBoolean closed = new AtomicBoolean(false);
+        physicalConnections.add(closed);
+        Map<String, Object> state = new HashMap<>();
+        state.put("readOnly", false);
+        state.put("catalog", "dbevent");
+        state.put("transactionIsolation", Connection.TRANSACTION_REPEATABLE_READ);
+        state.put("autoCommit", true);
+        settings.add(state);
+        return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {Connection.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "close": closed.set(true); return null;
+                        case "isClosed": return closed.get();
+                        case "isValid": return !closed.get();
+                        case "rollback": state.put("rollback", true); return null;
+                        case "isReadOnly": return state.get("readOnly");
+                        case "getCatalog": return state.get("catalog");
+                        case "getTransactionIsolation": return state.get("transactionIsolation");
+                        case "getAutoCommit": return state.get("autoCommit");
+                        case "setReadOnly": state.put("readOnly", args[0]); return null;
+                        case "setCatalog": state.put("catalog", args[0]); return null;
+                        case "setTransactionIsolation": state.put("transactionIsolation", args[0]); return null;
+                        case "setAutoCommit": state.put("autoCommit", args[0]); return null;
+                        case "createStatement": return newStatement(method.getReturnType());
+                        case "prepareStatement": return newStatement(method.getReturnType());
+                        default: return null;
+                    }
+                });
+    }
+
+    protected Statement newStatement(Class<?> type) {
+        return (Statement) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {type},
+                (proxy, method, args) -> method.getReturnType() == boolean.class ? false : null);
+    }
+}
@@ -0,0 +1,220 @@
+package org.openmrs.module.dbevent;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class DatabaseGraphTest {
+
+    private static final Logger log = LogManager.getLogger(DatabaseGraphTest.class);
+
+    public static final List<String> EXCLUDED_TABLES = Arrays.asList("users", "provider");
+
+    @Test
+    public void shouldMatchRecursiveTraversals() {
+        DatabaseMetadata metadata = getMetadata(40);
+        assertMatchesRecursiveTraversals(metadata);
+    }
+
+    @Test
+    public void shouldMemoizePatientTableNamesUntilMetadataChanges() {
+        DatabaseMetadata metadata = getMetadata(20);
+        Set<String> patientTables = metadata.getPatientTableNames();
+        assertThat(patientTables, equalTo(getPatientTableNames(metadata)));
+        assertThat(metadata.getPatientTableNames(), sameInstance(patientTables));
+        assertThrows(UnsupportedOperationException.class, () -> patientTables.add("test"));
+        DatabaseTable newTable = new DatabaseTable("test", "new_table");
+        newTable.addColumn(new DatabaseColumn("test", "new_table", "person_id", false));
+        metadata.addTable(newTable);
+        metadata.addReference("new_table", "person_id", "person", "person_id");
+        assertThat(metadata.getPatientTableNames().contains("new_table"), equalTo(true));
+        assertThat(metadata.getPatientTableNames(), equalTo(getPatientTableNames(metadata)));
+    }
+
+    @Test
+    public void shouldMatchRecursiveTraversalsOnLargeSchema() {
+        DatabaseMetadata metadata = getMetadata(80);
+        DatabaseColumn personId = metadata.getColumn("person", "person_id");
+        long recursiveNanos = Long.MAX_VALUE;
+        long graphNanos = Long.MAX_VALUE;
+        for (int iteration = 0; iteration < 3; iteration++) { // Timings are only logged, as they vary between machines
+            long startTime = System.nanoTime();
+            Set<String> recursivePatientTables = getPatientTableNames(metadata);
+            List<List<DatabaseJoinPath>> recursivePaths = new ArrayList<>();
+            for (DatabaseTable table : metadata.getTables().values()) {
+                recursivePaths.add(getPathsToColumn(metadata, table, personId, EXCLUDED_TABLES));
+            }
+            recursiveNanos = Math.min(recursiveNanos, System.nanoTime() - startTime);
+            DatabaseGraph graph = new DatabaseGraph(metadata); // Built once per metadata load
+            startTime = System.nanoTime();
+            Set<String> graphPatientTables = graph.getPatientTableNames();
+            List<List<DatabaseJoinPath>> graphPaths = new ArrayList<>();
+            for (DatabaseTable table : metadata.getTables().values()) {
+                graphPaths.add(graph.getPathsToColumn(table, personId, EXCLUDED_TABLES));
+            }
+            graphNanos = Math.min(graphNanos, System.nanoTime() - startTime);
+            assertThat(graphPatientTables, equalTo(recursivePatientTables));
+            assertThat(graphPaths, equalTo(recursivePaths));
+        }
+        log.info("Recursive: " + recursiveNanos / 1000 + " us, Graph: " + graphNanos / 1000 + " us");
+    }
+
+    @Test
+    public void shouldNotReachColumnOfMissingOrExcludedTable() {
+        DatabaseMetadata metadata = getMetadata(20);
+        DatabaseGraph graph = new DatabaseGraph(metadata);
+        DatabaseTable patient = metadata.getTable("patient");
+        int[] unreachable = new int[metadata.getTables().size()];
+        Arrays.fill(unreachable, Integer.MAX_VALUE);
+        DatabaseColumn missingColumn = new DatabaseColumn("test", "missing", "missing_id", false);
+        assertThat(graph.getDistancesToColumn(missingColumn, new boolean[unreachable.length]), equalTo(unreachable));
+        assertThat(graph.getPathsToColumn(patient, missingColumn, EXCLUDED_TABLES).size(), equalTo(0));
+        DatabaseColumn personId = metadata.getColumn("person", "person_id");
+        assertThat(graph.getPathsToColumn(patient, personId, Collections.singletonList("person")).size(), equalTo(0));
+        assertThat(graph.getPathsToColumn(patient, personId, EXCLUDED_TABLES).size(), equalTo(1));
+    }
+
+    /**
+     * Asserts that the graph returns the same references, patient tables, and paths to person.person_id for every
+     * table in the given metadata as the recursive traversals
+     */
+    public static void assertMatchesRecursiveTraversals(DatabaseMetadata metadata) {
+        String[] excludedTables = EXCLUDED_TABLES.toArray(new String[0]);
+        DatabaseColumn personId = metadata.getColumn("person", "person_id");
+        assertThat(metadata.getPatientTableNames(), equalTo(getPatientTableNames(metadata)));
+        for (DatabaseTable table : metadata.getTables().values()) {
+            String tableName = table.getTableName();
+            assertThat(tableName, metadata.getTablesWithReferencesTo(tableName), equalTo(getTablesWithReferencesTo(metadata, tableName)));
+            assertThat(tableName, metadata.getTablesWithReferencesTo(tableName, excludedTables), equalTo(getTablesWithReferencesTo(metadata, tableName, excludedTables)));
+            List<DatabaseJoinPath> expected = getPathsToColumn(metadata, table, personId, EXCLUDED_TABLES);
+            assertThat(tableName, metadata.getPathsToColumn(table, personId, EXCLUDED_TABLES), equalTo(expected));
+            assertThat(tableName, metadata.getPathsToColumn(table, personId, Collections.emptyList()), equalTo(getPathsToColumn(metadata, table, personId, Collections.emptyList())));
+        }
+    }
+
+    /**
+     * @return metadata with person, patient, users and provider tables, and the given number of other tables, each
+     * with creator and changed_by references to users, and a parent reference to a randomly selected previous table.
+     * Some tables have additional references, including self-references, and users and person reference each other.
+     */
+    protected DatabaseMetadata getMetadata(int numTables) {
+        Random random = new Random(42);
+        DatabaseMetadata metadata = new DatabaseMetadata();
+        metadata.setDatabaseName("test");
+        List<String> tableNames = new ArrayList<>(Arrays.asList("person", "users", "provider", "patient"));
+        for (int i = 0; i < numTables; i++) {
+            tableNames.add("table_" + i);
+        }
+        for (String tableName : tableNames) {
+            DatabaseTable table = new DatabaseTable("test", tableName);
+            DatabaseColumn pk = new DatabaseColumn("test", tableName, tableName + "_id", false);
+            pk.setPrimaryKey(true);
+            table.addColumn(pk);
+            metadata.addTable(table);
+        }
+        addForeignKey(metadata, "users", "person", false);
+        addForeignKey(metadata, "person", "users", true);
+        addForeignKey(metadata, "provider", "person", true);
+        addForeignKey(metadata, "patient", "person", false);
+        for (int i = 0; i < numTables; i++) {
+            String tableName = "table_" + i;
+            addForeignKey(metadata, tableName, "users", false);
+            addForeignKey(metadata, tableName, "users", true);
+            addForeignKey(metadata, tableName, tableNames.get(random.nextInt(4 + i)), random.nextBoolean());
+            if (random.nextInt(10) < 3) {
+                addForeignKey(metadata, tableName, tableNames.get(random.nextInt(4 + i)), true);
+            }
+            if (random.nextInt(10) == 0) {
+                addForeignKey(metadata, tableName, tableName, true);
+            }
+        }
+        return metadata;
+    }
+
+    protected void addForeignKey(DatabaseMetadata metadata, String tableName, String referencedTable, boolean nullable) {
+        DatabaseTable table = metadata.getTable(tableName);
+        String columnName = referencedTable + "_ref_" + table.getColumns().size();
+        table.addColumn(new DatabaseColumn("test", tableName, columnName, nullable));
+        metadata.addReference(tableName, columnName, referencedTable, referencedTable + "_id");
+    }
+
+    /**
+     * Recursive implementation of DatabaseMetadata.getPatientTableNames, prior to the DatabaseGraph
+     */
+    public static Set<String> getPatientTableNames(DatabaseMetadata metadata) {
+        Set<String> ret = new TreeSet<>(getTablesWithReferencesTo(metadata, "person", "users", "provider"));
+        ret.add("person");
+        return ret;
+    }
+
+    /**
+     * Recursive implementation of DatabaseMetadata.getTablesWithReferencesTo, prior to the DatabaseGraph
+     */
+    public static Set<String> getTablesWithReferencesTo(DatabaseMetadata metadata, String tableName, String... excludedTables) {
+        Set<String> ret = new TreeSet<>();
+        DatabaseTable table = metadata.getTable(tableName);
+        if (table != null) {
+            ret.addAll(table.getTablesReferencedBy());
+            Arrays.asList(excludedTables).forEach(ret::remove);
+            List<String> nestedTables = new ArrayList<>(ret);
+            for (String nestedTable : nestedTables) {
+                List<String> nestedExclusions = new ArrayList<>(Arrays.asList(excludedTables));
+                nestedExclusions.addAll(ret);
+                ret.addAll(getTablesWithReferencesTo(metadata, nestedTable, nestedExclusions.toArray(new String[0])));
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Recursive implementation of DatabaseMetadata.getPathsToColumn, prior to the DatabaseGraph
+     */
+    public static List<DatabaseJoinPath> getPathsToColumn(DatabaseMetadata metadata, DatabaseTable fromTable, DatabaseColumn toColumn, List<String> tablesToExclude) {
+        List<String> exclusions = new ArrayList<>(tablesToExclude);
+        exclusions.add(fromTable.getTableName());
+        List<DatabaseJoinPath> allPaths = new ArrayList<>();
+        Integer minPathSize = null;
+        for (DatabaseJoin join : fromTable.getForeignKeyReferences()) {
+            if (!exclusions.contains(join.getPrimaryKey().getTableName())) {
+                DatabaseJoinPath path = new DatabaseJoinPath();
+                path.add(join);
+                if (join.getPrimaryKey().equals(toColumn)) {
+                    allPaths.add(path);
+                    minPathSize = (minPathSize == null || minPathSize > path.size() ? path.size() : minPathSize);
+                } else {
+                    DatabaseTable refTable = metadata.getTable(join.getPrimaryKey().getTableName());
+                    List<DatabaseJoinPath> pathsFromRef = getPathsToColumn(metadata, refTable, toColumn, exclusions);
+                    for (DatabaseJoinPath pathFromRef : pathsFromRef) {
+                        DatabaseJoinPath refPath = path.clone();
+                        refPath.addAll(pathFromRef);
+                        allPaths.add(refPath);
+                        minPathSize = (minPathSize == null || minPathSize > refPath.size() ? refPath.size() : minPathSize);
+                    }
+                }
+            }
+        }
+        List<DatabaseJoinPath> shortestNonNullablePaths = new ArrayList<>();
+        for (DatabaseJoinPath path : allPaths) {
+            if (path.size() == minPathSize && !path.isNullable()) {
+                shortestNonNullablePaths.add(path);
+            }
+        }
+        if (!shortestNonNullablePaths.isEmpty()) {
+            return shortestNonNullablePaths;
+        }
+        return allPaths;
+    }
+}
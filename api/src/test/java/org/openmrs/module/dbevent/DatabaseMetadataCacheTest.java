@@ -0,0 +1,74 @@
+package org.openmrs.module.dbevent;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.kafka.common.Uuid;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+
+public class DatabaseMetadataCacheTest {
+
+    public static final String URL = "jdbc:mysql://localhost:3306/openmrs";
+
+    File directory = new File(System.getProperty("java.io.tmpdir"), Uuid.randomUuid().toString());
+
+    @AfterEach
+    public void cleanUp() {
+        FileUtils.deleteQuietly(directory);
+    }
+
+    @Test
+    public void shouldPersistMetadataForMatchingFingerprint() {
+        DatabaseMetadata metadata = getMetadata();
+        new DatabaseMetadataCache(directory).put(URL, "v1", metadata);
+        DatabaseMetadata cached = new DatabaseMetadataCache(directory).get(URL, "v1");
+        assertThat(cached, equalTo(metadata));
+        DatabaseColumn personId = cached.getColumn("person", "person_id");
+        DatabaseColumn patientId = cached.getColumn("patient", "patient_id");
+        DatabaseColumn creator = cached.getColumn("patient", "creator");
+        assertThat(personId.isPrimaryKey(), equalTo(true));
+        assertThat(patientId.isPrimaryKey(), equalTo(true));
+        assertThat(creator.isPrimaryKey(), equalTo(false));
+        assertThat(creator.isNullable(), equalTo(true));
+        assertThat(patientId.isNullable(), equalTo(false));
+        assertThat(patientId.getReferences(), contains(personId));
+        assertThat(personId.getReferencedBy(), contains(patientId));
+        assertThat(creator.getReferences().isEmpty(), equalTo(true));
+    }
+
+    @Test
+    public void shouldNotReturnMetadataForChangedFingerprint() {
+        DatabaseMetadataCache cache = new DatabaseMetadataCache(directory);
+        assertThat(cache.get(URL, "v1"), nullValue());
+        cache.put(URL, "v1", getMetadata());
+        assertThat(cache.get(URL, "v2"), nullValue());
+        assertThat(cache.get(URL + "_test", "v1"), nullValue());
+        cache.remove(URL);
+        assertThat(cache.get(URL, "v1"), nullValue());
+    }
+
+    protected DatabaseMetadata getMetadata() {
+        DatabaseMetadata metadata = new DatabaseMetadata();
+        metadata.setDatabaseName("openmrs");
+        DatabaseTable person = new DatabaseTable("openmrs", "person");
+        DatabaseColumn personId = new DatabaseColumn("openmrs", "person", "person_id", false);
+        personId.setPrimaryKey(true);
+        person.addColumn(personId);
+        metadata.addTable(person);
+        DatabaseTable patient = new DatabaseTable("openmrs", "patient");
+        DatabaseColumn patientId = new DatabaseColumn("openmrs", "patient", "patient_id", false);
+        patientId.setPrimaryKey(true);
+        patient.addColumn(patientId);
+        patient.addColumn(new DatabaseColumn("openmrs", "patient", "creator", true));
+        metadata.addTable(patient);
+        patientId.getReferences().add(personId);
+        personId.getReferencedBy().add(patientId);
+        return metadata;
+    }
+}
@@ -0,0 +1,74 @@
+package org.openmrs.module.dbevent;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.openmrs.module.dbevent.test.MysqlExtension;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@ExtendWith(MysqlExtension.class)
+public class DatabaseMetadataLoaderTest {
+
+    private static final Logger log = LogManager.getLogger(DatabaseMetadataLoaderTest.class);
+
+    @Test
+    public void shouldUseInformationSchemaLoaderForMysql() {
+        Database database = MysqlExtension.getEventContext().getDatabase();
+        assertThat(database.getMetadataLoader(), instanceOf(MysqlDatabaseMetadataLoader.class));
+    }
+
+    @Test
+    public void shouldLoadSameMetadataAsJdbcLoader() throws Exception {
+        Database database = MysqlExtension.getEventContext().getDatabase();
+        DatabaseMetadata jdbcMetadata = benchmark(database, new JdbcDatabaseMetadataLoader());
+        DatabaseMetadata mysqlMetadata = benchmark(database, new MysqlDatabaseMetadataLoader());
+        assertThat(mysqlMetadata, equalTo(jdbcMetadata));
+        assertThat(new ArrayList<>(mysqlMetadata.getTables().keySet()), equalTo(new ArrayList<>(jdbcMetadata.getTables().keySet())));
+        for (DatabaseTable mysqlTable : mysqlMetadata.getTables().values()) {
+            DatabaseTable jdbcTable = jdbcMetadata.getTable(mysqlTable.getTableName());
+            assertThat(new HashSet<>(mysqlTable.getColumns().values()), equalTo(new HashSet<>(jdbcTable.getColumns().values())));
+            for (DatabaseColumn mysqlColumn : mysqlTable.getColumns().values()) {
+                DatabaseColumn jdbcColumn = jdbcTable.getColumn(mysqlColumn.getColumnName());
+                assertThat(mysqlColumn.isPrimaryKey(), equalTo(jdbcColumn.isPrimaryKey()));
+                assertThat(mysqlColumn.isNullable(), equalTo(jdbcColumn.isNullable()));
+                assertReferencesEqual(mysqlColumn.getReferences(), jdbcColumn.getReferences());
+                assertReferencesEqual(mysqlColumn.getReferencedBy(), jdbcColumn.getReferencedBy());
+            }
+        }
+    }
+
+    /**
+     * Compares the actual sets of columns, which also verifies that each column can be found in the set that holds it,
+     * and so was not modified in a way that changes its hash code after it was added
+     */
+    protected void assertReferencesEqual(Set<DatabaseColumn> actual, Set<DatabaseColumn> expected) {
+        assertThat(actual, equalTo(expected));
+        for (DatabaseColumn column : actual) {
+            assertTrue(actual.contains(column), "Column " + column.getTableAndColumn() + " not found in its reference set");
+        }
+    }
+
+    protected DatabaseMetadata benchmark(Database database, DatabaseMetadataLoader loader) throws Exception {
+        DatabaseMetadata metadata = null;
+        try (Connection connection = database.openConnection()) {
+            for (int iteration = 0; iteration < 3; iteration++) { // Warm up the server and JIT on the first iterations
+                long startTime = System.nanoTime();
+                metadata = loader.loadMetadata(connection, database.getDatabaseName());
+                long millis = (System.nanoTime() - startTime) / 1000000;
+                log.info(loader.getClass().getSimpleName() + ": " + metadata.getTables().size() + " tables in " + millis + " ms");
+            }
+        }
+        return metadata;
+    }
+
+}
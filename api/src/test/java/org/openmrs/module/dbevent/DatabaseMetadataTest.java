@@ -15,7 +15,11 @@ import java.util.Map;
 import java.util.Set;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -183,6 +187,21 @@ public class DatabaseMetadataTest {
         }
     }
 
+    @Test
+    public void shouldCopyTablesColumnsAndReferences() throws Exception {
+        DatabaseMetadata metadata = JoinPathResolverTest.getMetadata();
+        DatabaseMetadata copy = metadata.copy();
+        assertThat(copy, equalTo(metadata));
+        DatabaseColumn encounterId = copy.getColumn("encounter", "encounter_id");
+        assertThat(encounterId, not(sameInstance(metadata.getColumn("encounter", "encounter_id"))));
+        assertTrue(encounterId.isPrimaryKey());
+        assertThat(copy.getColumn("obs", "encounter_id").getReferences(), contains(sameInstance(encounterId)));
+        assertTrue(encounterId.getReferencedBy().contains(copy.getColumn("obs", "encounter_id")));
+        copy.replaceTable("obs", null);
+        assertThat(metadata.getTable("obs"), notNullValue());
+        assertThat(metadata.getColumn("encounter", "encounter_id").getReferencedBy().size(), equalTo(1));
+    }
+
     @Test
     public void shouldGetPatientTableNames() throws Exception {
         EventContext ctx = MysqlExtension.getEventContext();
@@ -195,6 +214,12 @@ public class DatabaseMetadataTest {
         assertTrue(tableNames.contains("person"));
     }
 
+    @Test
+    public void shouldMatchRecursiveTraversalsOnFullSchema() throws Exception {
+        EventContext ctx = MysqlExtension.getEventContext();
+        DatabaseGraphTest.assertMatchesRecursiveTraversals(ctx.getDatabase().getMetadata());
+    }
+
     public void print(DatabaseMetadata metadata) {
         for (DatabaseTable table : metadata.getTables().values()) {
             System.out.println("=======================");
@@ -9,11 +9,17 @@ import org.openmrs.module.dbevent.test.Mysql;
 import org.openmrs.module.dbevent.test.MysqlExtension;
 
 import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
@@ -82,6 +88,76 @@ public class DatabaseTest {
         //metadata.print();
     }
 
+    @Test
+    public void shouldShareAndPersistMetadata() {
+        EventContext ctx = MysqlExtension.getEventContext();
+        Database database = ctx.getDatabase();
+        assertThat(MysqlExtension.getEventContext().getDatabase(), sameInstance(database));
+        DatabaseMetadata metadata = database.getMetadata();
+        Database restartedDatabase = new Database(ctx.getRuntimeProperties());
+        restartedDatabase.setMetadataCache(database.getMetadataCache());
+        restartedDatabase.setMetadataLoader(new MysqlDatabaseMetadataLoader() {
+            @Override
+            public DatabaseMetadata loadMetadata(Connection connection, String databaseName) {
+                throw new IllegalStateException("Metadata should be loaded from the cache");
+            }
+        });
+        assertThat(restartedDatabase.getMetadata(), equalTo(metadata));
+    }
+
+    @Test
+    public void shouldChangeFingerprintWhenSchemaChanges() throws Exception {
+        Database database = MysqlExtension.getEventContext().getDatabase();
+        DatabaseMetadataLoader loader = database.getMetadataLoader();
+        String initialFingerprint;
+        try (Connection connection = database.openConnection()) {
+            initialFingerprint = loader.getSchemaFingerprint(connection, database.getDatabaseName());
+        }
+        database.executeUpdate("alter table location add column fingerprint_test int");
+        try (Connection connection = database.openConnection()) {
+            assertThat(loader.getSchemaFingerprint(connection, database.getDatabaseName()).equals(initialFingerprint), equalTo(false));
+            database.executeUpdate("alter table location drop column fingerprint_test");
+            assertThat(loader.getSchemaFingerprint(connection, database.getDatabaseName()), equalTo(initialFingerprint));
+        }
+    }
+
+    @Test
+    public void shouldRefreshChangedTables() throws Exception {
+        Database database = new Database(MysqlExtension.getEventContext().getRuntimeProperties());
+        DatabaseMetadata metadata = database.getMetadata();
+        List<Set<String>> changes = new ArrayList<>();
+        database.addMetadataListener((m, tables) -> changes.add(tables));
+        database.executeUpdate("create table refresh_test (id int primary key, visit_id int not null, " +
+                "constraint refresh_test_visit foreign key (visit_id) references visit (visit_id))");
+        database.executeUpdate("alter table location add column refresh_test varchar(10)");
+        try {
+            database.refreshTables(Arrays.asList("refresh_test", "location"));
+            assertThat(changes.size(), equalTo(1));
+            assertThat(changes.get(0), contains("location", "refresh_test"));
+            assertThat(metadata.getTable("refresh_test"), nullValue()); // The metadata read before the refresh is unchanged
+            assertThat(metadata.getColumn("location", "refresh_test"), nullValue());
+            metadata = database.getMetadata();
+            assertThat(metadata.getColumn("refresh_test", "id").isPrimaryKey(), equalTo(true));
+            assertThat(metadata.getColumn("refresh_test", "visit_id").getReferences(), contains(metadata.getColumn("visit", "visit_id")));
+            assertTrue(metadata.getColumn("visit", "visit_id").getReferencedBy().contains(metadata.getColumn("refresh_test", "visit_id")));
+            assertTrue(metadata.getColumn("location", "refresh_test").isNullable());
+            assertThat(metadata, equalTo(new Database(MysqlExtension.getEventContext().getRuntimeProperties()).getMetadata()));
+        }
+        finally {
+            database.executeUpdate("drop table refresh_test");
+            database.executeUpdate("alter table location drop column refresh_test");
+        }
+        database.refreshTables(Arrays.asList("refresh_test", "location"));
+        metadata = database.getMetadata();
+        assertThat(metadata.getTable("refresh_test"), nullValue());
+        assertThat(metadata.getColumn("location", "refresh_test"), nullValue());
+        for (DatabaseColumn column : metadata.getTable("visit").getColumns().values()) {
+            for (DatabaseColumn referencedBy : column.getReferencedBy()) {
+                assertThat(referencedBy.getTableName().equals("refresh_test"), equalTo(false));
+            }
+        }
+    }
+
     @Test
     public void shouldExecuteQuery() {
         EventContext ctx = MysqlExtension.getEventContext();
@@ -106,4 +182,34 @@ public class DatabaseTest {
         assertThat(updatedVal, equalTo("Updated Unknown Location"));
         database.executeUpdate(updateSql, initialVal, 1);
     }
+
+    @Test
+    public void shouldExecuteBatch() {
+        EventContext ctx = MysqlExtension.getEventContext();
+        Database database = ctx.getDatabase();
+        database.executeUpdate("create table batch_test (id int primary key, name varchar(50))");
+        List<Object[]> rows = new ArrayList<>();
+        for (int i = 1; i <= 1000; i++) {
+            rows.add(new Object[] {i, "Name " + i});
+        }
+        database.executeBatch("insert into batch_test (id, name) values (?, ?)", rows);
+        Long numRows = database.executeQuery("select count(*) from batch_test", new ScalarHandler<>(1));
+        assertThat(numRows, equalTo(1000L));
+        String name = database.executeQuery("select name from batch_test where id = ?", new ScalarHandler<>(1), 500);
+        assertThat(name, equalTo("Name 500"));
+        database.executeUpdate("drop table batch_test");
+    }
+
+    @Test
+    public void shouldExecuteStreamingQuery() {
+        EventContext ctx = MysqlExtension.getEventContext();
+        Database database = ctx.getDatabase();
+        List<String> names = new ArrayList<>();
+        String sql = "select location_id, name from location where location_id > ? order by location_id";
+        long numRows = database.executeStreamingQuery(sql, rs -> names.add(rs.getString("name")), 1);
+        assertThat(numRows, equalTo(8L));
+        assertThat(names.size(), equalTo(8));
+        Long numLocations = database.executeQuery("select count(*) from location", new ScalarHandler<>(1));
+        assertThat(numLocations, equalTo(9L)); // Pooled connection is usable after streaming
+    }
 }
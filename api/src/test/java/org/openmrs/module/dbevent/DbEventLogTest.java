@@ -4,12 +4,18 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.openmrs.module.dbevent.test.EventMatcher;
 import org.openmrs.module.dbevent.test.MysqlExtension;
+import org.openmrs.module.dbevent.test.TestChangeEvent;
 import org.openmrs.module.dbevent.test.TestEventConsumer;
 import org.openmrs.module.dbevent.test.TestUtils;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
@@ -50,6 +56,36 @@ public class DbEventLogTest {
         }
     }
 
+    @Test
+    public void shouldCountEventsLoggedConcurrently() throws Exception {
+        String source = "ConcurrentSource";
+        int numThreads = 8;
+        int eventsPerThread = 10000;
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < numThreads; i++) {
+                DbEvent event = new DbEvent(TestChangeEvent.read(source, (i % 2 == 0 ? "location" : "encounter_type"), i));
+                futures.add(executor.submit(() -> {
+                    for (int j = 0; j < eventsPerThread; j++) {
+                        DbEventLog.log(event);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+        Map<String, Long> tableCounts = DbEventLog.getTableCounts(source);
+        assertThat(tableCounts.get("location"), equalTo(numThreads / 2 * (long) eventsPerThread));
+        assertThat(tableCounts.get("encounter_type"), equalTo(numThreads / 2 * (long) eventsPerThread));
+        assertNotNull(DbEventLog.getLatestEventStatus(source));
+        assertTrue(DbEventLog.getLatestEventStatuses().containsKey(source));
+    }
+
     @Test
     public void shouldLogErrorOfLatestEvent() throws Exception {
         EventContext ctx = MysqlExtension.getEventContext();
@@ -0,0 +1,64 @@
+package org.openmrs.module.dbevent;
+
+import org.junit.jupiter.api.Test;
+import org.openmrs.module.dbevent.test.TestEventContext;
+
+import java.util.Arrays;
+import java.util.Properties;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+
+public class DbEventSourceConfigTest {
+
+    @Test
+    public void shouldIncludeTablesMatchingIncludeOrNotMatchingExcludePatterns() {
+        DbEventSourceConfig config = getConfig();
+        assertThat(config.isIncluded("dbevent", "obs"), equalTo(true));
+        config.configureTablesToExclude(Arrays.asList("obs.*", "users"));
+        assertThat(config.isIncluded("dbevent", "obs"), equalTo(false));
+        assertThat(config.isIncluded("dbevent", "obs_group"), equalTo(false));
+        assertThat(config.isIncluded("dbevent", "users"), equalTo(false));
+        assertThat(config.isIncluded("dbevent", "person"), equalTo(true));
+        assertThat(config.isIncluded(new DatabaseTable("dbevent", "users")), equalTo(false));
+        config.configureTablesToInclude(Arrays.asList("person", "patient"));
+        assertThat(config.isIncluded("dbevent", "person"), equalTo(true));
+        assertThat(config.isIncluded("dbevent", "encounter"), equalTo(false));
+        assertThat(config.isIncluded("otherdb", "person"), equalTo(false));
+    }
+
+    @Test
+    public void shouldRecompileFilterOnlyWhenPropertiesChange() {
+        DbEventSourceConfig config = getConfig();
+        config.configureTablesToInclude(Arrays.asList("person"));
+        DbEventSourceConfig.TableFilter filter = config.getTableFilter();
+        assertThat(config.isIncluded("dbevent", "person"), equalTo(true));
+        assertThat(config.getTableFilter(), sameInstance(filter));
+        config.setProperty("table.include.list", "dbevent.patient");
+        assertThat(config.getTableFilter(), not(sameInstance(filter)));
+        assertThat(config.isIncluded("dbevent", "person"), equalTo(false));
+        assertThat(config.isIncluded("dbevent", "patient"), equalTo(true));
+        config.getConfig().remove("table.include.list");
+        assertThat(config.isIncluded("dbevent", "person"), equalTo(true));
+    }
+
+    @Test
+    public void shouldExcludeFilterFromEqualsAndToString() {
+        DbEventSourceConfig config = getConfig();
+        int hashCode = config.hashCode();
+        String toString = config.toString();
+        config.isIncluded("dbevent", "person");
+        assertThat(config.hashCode(), equalTo(hashCode));
+        assertThat(config.toString(), equalTo(toString));
+    }
+
+    protected DbEventSourceConfig getConfig() {
+        Properties p = new Properties();
+        p.setProperty("connection.url", "jdbc:mysql://localhost:3306/dbevent");
+        p.setProperty("connection.username", "test");
+        p.setProperty("connection.password", "test");
+        return new DbEventSourceConfig(100004, "DbEventSourceConfigTest", new TestEventContext(p));
+    }
+}
@@ -0,0 +1,66 @@
+package org.openmrs.module.dbevent;
+
+import org.apache.commons.lang3.SerializationUtils;
+import org.junit.jupiter.api.Test;
+import org.openmrs.module.dbevent.test.TestChangeEvent;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DbEventTest {
+
+    public static final String SOURCE = "DbEventTest";
+
+    @Test
+    public void shouldDecodeEventFromChangeEvent() {
+        TestChangeEvent changeEvent = new TestChangeEvent(SOURCE, "location", "u", 2, "Old Name", "New Name");
+        DbEvent event = new DbEvent(changeEvent);
+        assertThat(event.getChangeEvent(), sameInstance(changeEvent));
+        assertThat(event.getSourceName(), equalTo(SOURCE));
+        assertThat(event.getTable(), equalTo("location"));
+        assertThat(event.getOperation(), equalTo(Operation.UPDATE));
+        assertThat(event.getKey().getInteger("location_id"), equalTo(2));
+        assertThat(event.getBefore().getString("name"), equalTo("Old Name"));
+        assertThat(event.getAfter().getString("name"), equalTo("New Name"));
+        assertThat(event.getValues(), sameInstance(event.getAfter()));
+        assertThat(event.getSource().getString("table"), equalTo("location"));
+        assertThat(event.getUuid(), equalTo("location2"));
+    }
+
+    @Test
+    public void shouldReadValuesWithoutRetainingChangeEvent() {
+        DbEvent event = new DbEvent(new TestChangeEvent(SOURCE, "location", "d", 2, "Old Name", null).value());
+        assertThat(event.getChangeEvent(), nullValue());
+        assertThat(event.getValue("name"), equalTo("Old Name"));
+        assertThat(event.getValue("not_a_column"), nullValue());
+        assertTrue(event.getAfter().isEmpty());
+        assertThat(event.getValues(), sameInstance(event.getBefore()));
+    }
+
+    @Test
+    public void shouldSerializeMaterializedValues() {
+        DbEvent event = new DbEvent(new TestChangeEvent(SOURCE, "location", "c", 3, null, "Name"));
+        DbEvent copy = SerializationUtils.roundtrip(event);
+        assertThat(copy.getChangeEvent(), nullValue());
+        assertThat(copy.getOperation(), equalTo(Operation.INSERT));
+        assertThat(copy.getKey(), equalTo(event.getKey()));
+        assertThat(copy.getAfter(), equalTo(event.getAfter()));
+        assertThat(copy.getValue("name"), equalTo("Name"));
+        assertThat(copy.toString(), equalTo(event.toString()));
+    }
+
+    @Test
+    public void shouldCompareEventsByValue() {
+        TestChangeEvent changeEvent = new TestChangeEvent(SOURCE, "location", "u", 2, "Old Name", "New Name");
+        DbEvent event = new DbEvent(changeEvent);
+        DbEvent withoutChangeEvent = new DbEvent(changeEvent.value());
+        assertThat(withoutChangeEvent, equalTo(event));
+        assertThat(withoutChangeEvent.hashCode(), equalTo(event.hashCode()));
+        assertThat(SerializationUtils.roundtrip(event), equalTo(event));
+        DbEvent other = new DbEvent(new TestChangeEvent(SOURCE, "location", "u", 2, "Old Name", "Other Name").value());
+        assertThat(other.equals(event), equalTo(false));
+    }
+}
@@ -0,0 +1,645 @@
+package org.openmrs.module.dbevent;
+
+import io.debezium.engine.ChangeEvent;
+import org.apache.commons.io.FileUtils;
+import org.apache.kafka.common.Uuid;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.SchemaBuilder;
+import org.apache.kafka.connect.data.Struct;
+import org.apache.kafka.connect.source.SourceRecord;
+import org.junit.jupiter.api.Test;
+import org.openmrs.module.dbevent.test.TestChangeEvent;
+import org.openmrs.module.dbevent.test.TestEventContext;
+import org.openmrs.module.dbevent.test.TestRecordCommitter;
+
+import java.io.File;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DebeziumConsumerTest {
+
+    public static final String SOURCE = "DebeziumConsumerTest";
+
+    @Test
+    public void shouldDeliverEachPolledBatchToBatchConsumer() throws Exception {
+        List<List<DbEvent>> batches = new ArrayList<>();
+        DebeziumConsumer consumer = new DebeziumConsumer(events -> batches.add(new ArrayList<>(events)), getConfig());
+        TestRecordCommitter committer = new TestRecordCommitter();
+        List<ChangeEvent<SourceRecord, SourceRecord>> records = getRecords(1, 2, 3);
+        consumer.handleBatch(records, committer);
+        assertThat(batches.size(), equalTo(1));
+        assertThat(batches.get(0).size(), equalTo(3));
+        assertThat(batches.get(0).get(2).getValues().getInteger("location_id"), equalTo(3));
+        assertThat(committer.getProcessed(), equalTo(records));
+        assertThat(committer.getBatchesFinished(), equalTo(1));
+    }
+
+    @Test
+    public void shouldSkipRecordThatCannotBeDecodedWithoutRetrying() throws Exception {
+        List<String> retried = new ArrayList<>();
+        List<Integer> processed = new ArrayList<>();
+        DbEventSourceConfig config = getConfig();
+        config.getRetryPolicy().setMaxAttempts(0);
+        EventConsumer eventConsumer = event -> processed.add(event.getValues().getInteger("location_id"));
+        DebeziumConsumer consumer = new DebeziumConsumer(eventConsumer, config) {
+            @Override
+            protected Throwable retry(String description, Runnable action) throws InterruptedException {
+                retried.add(description);
+                return super.retry(description, action);
+            }
+        };
+        TestRecordCommitter committer = new TestRecordCommitter();
+        List<ChangeEvent<SourceRecord, SourceRecord>> records = getRecords(1, 2);
+        records.add(1, new TestChangeEvent(new SourceRecord(Collections.emptyMap(), Collections.emptyMap(), SOURCE,
+                null, null, null, "Not a change event")));
+        consumer.handleBatch(records, committer);
+        assertThat(processed, equalTo(Arrays.asList(1, 2)));
+        assertThat(retried.size(), equalTo(0));
+        assertThat(committer.getProcessed(), equalTo(records));
+        assertThat(committer.getBatchesFinished(), equalTo(1));
+    }
+
+    @Test
+    public void shouldRetryFailedEventWithoutRedeliveringProcessedEvents() throws Exception {
+        List<Integer> processed = new ArrayList<>();
+        List<Integer> failed = new ArrayList<>();
+        EventConsumer eventConsumer = event -> {
+            Integer id = event.getValues().getInteger("location_id");
+            if (id == 2 && failed.isEmpty()) {
+                failed.add(id);
+                throw new RuntimeException("TEST_ERROR");
+            }
+            processed.add(id);
+        };
+        DebeziumConsumer consumer = new DebeziumConsumer(eventConsumer, getConfig());
+        TestRecordCommitter committer = new TestRecordCommitter();
+        List<ChangeEvent<SourceRecord, SourceRecord>> records = getRecords(1, 2, 3);
+        consumer.handleBatch(records, committer);
+        assertThat(processed, equalTo(Arrays.asList(1, 2, 3)));
+        assertThat(failed, equalTo(Arrays.asList(2)));
+        assertThat(committer.getProcessed(), equalTo(records));
+        assertThat(committer.getBatchesFinished(), equalTo(1));
+        assertThat(DbEventLog.getMetrics(SOURCE, "location").getRetryCount(), greaterThanOrEqualTo(1L));
+        assertThat(DbEventLog.getMetrics(SOURCE).getEventCount(), greaterThanOrEqualTo(3L));
+        assertThat(DbEventLog.getEventMetricsAttributes(SOURCE).get("RetryCount"), notNullValue());
+    }
+
+    @Test
+    public void shouldProcessInParallelLanesAndPreserveOrderPerRow() throws Exception {
+        DbEventSourceConfig config = getConfig();
+        config.setParallelism(4);
+        Map<Integer, List<String>> namesById = new ConcurrentHashMap<>();
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        EventConsumer eventConsumer = event -> {
+            threads.add(Thread.currentThread().getName());
+            Integer id = event.getValues().getInteger("location_id");
+            namesById.computeIfAbsent(id, k -> new CopyOnWriteArrayList<>()).add(event.getValues().getString("name"));
+        };
+        DebeziumConsumer consumer = new DebeziumConsumer(eventConsumer, config);
+        TestRecordCommitter committer = new TestRecordCommitter();
+        List<ChangeEvent<SourceRecord, SourceRecord>> records = new ArrayList<>();
+        for (int update = 1; update <= 5; update++) {
+            for (int id = 1; id <= 20; id++) {
+                records.add(new TestChangeEvent(SOURCE, "location", "u", id, "Name " + (update - 1), "Name " + update));
+            }
+        }
+        try {
+            consumer.handleBatch(records, committer);
+        }
+        finally {
+            consumer.cancel();
+        }
+        assertThat(namesById.size(), equalTo(20));
+        for (List<String> names : namesById.values()) {
+            assertThat(names, equalTo(Arrays.asList("Name 1", "Name 2", "Name 3", "Name 4", "Name 5")));
+        }
+        assertTrue(threads.size() > 1);
+        assertThat(committer.getProcessed(), equalTo(records));
+        assertThat(committer.getBatchesFinished(), equalTo(1));
+    }
+
+    @Test
+    public void shouldMoveEventsThatExhaustRetriesToDeadLetterStoreAndReplay() throws Exception {
+        DbEventSourceConfig config = getConfig();
+        config.getRetryPolicy().setMaxAttempts(3);
+        config.getRetryPolicy().setBackoffMultiplier(2);
+        List<Integer> processed = new ArrayList<>();
+        List<Integer> failed = new ArrayList<>();
+        EventConsumer eventConsumer = event -> {
+            Integer id = event.getValues().getInteger("location_id");
+            if (id == 2) {
+                failed.add(id);
+                throw new RuntimeException("TEST_ERROR");
+            }
+            processed.add(id);
+        };
+        DbEventSource eventSource = new DbEventSource(config);
+        eventSource.setEventConsumer(eventConsumer);
+        DebeziumConsumer consumer = new DebeziumConsumer(eventConsumer, config, eventSource.getDeadLetterStore());
+        TestRecordCommitter committer = new TestRecordCommitter();
+        List<ChangeEvent<SourceRecord, SourceRecord>> records = getRecords(1, 2, 3);
+        try {
+            consumer.handleBatch(records, committer);
+            assertThat(processed, equalTo(Arrays.asList(1, 3)));
+            assertThat(failed, equalTo(Arrays.asList(2, 2, 2)));
+            assertThat(committer.getProcessed(), equalTo(records));
+            assertThat(DbEventLog.getMetrics(SOURCE, "location").getDeadLetterCount(), greaterThanOrEqualTo(1L));
+
+            List<DeadLetter> deadLetters = eventSource.getDeadLetters();
+            assertThat(deadLetters.size(), equalTo(1));
+            DeadLetter deadLetter = deadLetters.get(0);
+            assertThat(deadLetter.getAttempts(), equalTo(3));
+            assertThat(deadLetter.getEvent().getTable(), equalTo("location"));
+            assertThat(deadLetter.getEvent().getValues().getInteger("location_id"), equalTo(2));
+            assertTrue(deadLetter.getError().contains("TEST_ERROR"));
+
+            DbEventMetrics metrics = DbEventLog.getMetrics(SOURCE, "location");
+            long eventCount = metrics.getEventCount();
+            long retryCount = metrics.getRetryCount();
+            assertThat(eventSource.replayDeadLetters(), equalTo(0));
+            assertThat(eventSource.getDeadLetters().get(0).getAttempts(), equalTo(4));
+            assertThat(metrics.getRetryCount(), equalTo(retryCount + 1));
+
+            EventConsumer replayConsumer = event -> processed.add(event.getValues().getInteger("location_id"));
+            eventSource.setEventConsumer(replayConsumer);
+            assertThat(eventSource.replayDeadLetters(), equalTo(1));
+            assertThat(metrics.getEventCount(), equalTo(eventCount + 1));
+            assertThat(processed, equalTo(Arrays.asList(1, 3, 2)));
+            assertThat(eventSource.getDeadLetters().size(), equalTo(0));
+        }
+        finally {
+            eventSource.getDeadLetterStore().delete();
+        }
+    }
+
+    @Test
+    public void shouldCommitEveryMaxEventsOrWhenCaughtUp() throws Exception {
+        DbEventSourceConfig config = getConfig();
+        config.setProperty("max.batch.size", "3");
+        config.getCommitPolicy().setMaxEvents(5);
+        List<DbEvent> processed = new ArrayList<>();
+        DebeziumConsumer consumer = new DebeziumConsumer(processed::addAll, config);
+        TestRecordCommitter committer = new TestRecordCommitter();
+        committer.setCommitPolicy(config.getCommitPolicy());
+
+        consumer.handleBatch(getRecords(1, 2, 3), committer); // Full batch, 3 uncommitted
+        assertThat(committer.getCommits(), equalTo(0));
+        assertThat(DbEventLog.getMetrics(SOURCE).getEventsSinceLastCommit(), equalTo(3L));
+
+        consumer.handleBatch(getRecords(4, 5, 6), committer); // Full batch, 6 uncommitted exceeds max events
+        assertThat(committer.getCommits(), equalTo(1));
+        assertThat(DbEventLog.getMetrics(SOURCE).getEventsSinceLastCommit(), equalTo(0L));
+
+        long commitCount = DbEventLog.getMetrics(SOURCE).getCommitCount();
+        consumer.handleBatch(getRecords(7, 8, 9), committer); // Full batch, 3 uncommitted
+        assertThat(committer.getCommits(), equalTo(1));
+        assertTrue(config.getCommitPolicy().isCommitted()); // The previous commit is confirmed
+        assertThat(DbEventLog.getMetrics(SOURCE).getCommitCount(), greaterThanOrEqualTo(commitCount + 1));
+
+        consumer.handleBatch(getRecords(10), committer); // Partial batch, so caught up
+        assertThat(committer.getCommits(), equalTo(2));
+        assertThat(processed.size(), equalTo(10));
+    }
+
+    @Test
+    public void shouldCommitFullBatchWhenHeartbeatFollows() throws Exception {
+        DbEventSourceConfig config = getConfig();
+        config.setProperty("max.batch.size", "3");
+        List<DbEvent> processed = new ArrayList<>();
+        DebeziumConsumer consumer = new DebeziumConsumer(processed::addAll, config);
+        TestRecordCommitter committer = new TestRecordCommitter();
+        committer.setCommitPolicy(config.getCommitPolicy());
+        List<ChangeEvent<SourceRecord, SourceRecord>> records = getRecords(1, 2, 3);
+        consumer.handleBatch(records, committer); // Full batch, followed by no further changes
+        assertThat(committer.getCommits(), equalTo(0));
+
+        ChangeEvent<SourceRecord, SourceRecord> heartbeat = TestChangeEvent.heartbeat(SOURCE);
+        consumer.handleBatch(Collections.singletonList(heartbeat), committer);
+        assertThat(committer.getCommits(), equalTo(1));
+        assertThat(processed.size(), equalTo(3));
+        assertThat(committer.getProcessed().get(3), equalTo(heartbeat));
+    }
+
+    @Test
+    public void shouldOnlyReportCommittedOnceFlushCompletes() throws Exception {
+        DbEventSourceConfig config = getConfig();
+        config.setProperty("max.batch.size", "3");
+        EventCommitPolicy commitPolicy = config.getCommitPolicy();
+        DebeziumConsumer consumer = new DebeziumConsumer(events -> {}, config);
+        TestRecordCommitter committer = new TestRecordCommitter();
+        committer.setCommitPolicy(commitPolicy);
+        committer.setFlushFails(true);
+
+        consumer.handleBatch(getRecords(1), committer);
+        assertTrue(commitPolicy.isCommitRequested());
+        assertFalse(commitPolicy.isCommitted());
+
+        committer.setFlushFails(false);
+        consumer.handleBatch(getRecords(2), committer); // The previous flush failed, so this is retried
+        assertTrue(commitPolicy.isCommitRequested());
+        assertFalse(commitPolicy.isCommitted());
+
+        consumer.handleBatch(getRecords(3), committer);
+        assertTrue(commitPolicy.isCommitted());
+    }
+
+    @Test
+    public void shouldEnrichEachBatchBeforeConsuming() throws Exception {
+        DbEventSourceConfig config = getConfig();
+        List<Integer> enrichedBatchSizes = new ArrayList<>();
+        config.setEventEnricher(events -> {
+            enrichedBatchSizes.add(events.size());
+            for (DbEvent event : events) {
+                event.setEnrichment("location_name", "Location " + event.getValues().getInteger("location_id"));
+            }
+        });
+        List<String> names = new ArrayList<>();
+        EventConsumer eventConsumer = event -> names.add(event.getEnrichments().getString("location_name"));
+        DebeziumConsumer consumer = new DebeziumConsumer(eventConsumer, config);
+        TestRecordCommitter committer = new TestRecordCommitter();
+        List<ChangeEvent<SourceRecord, SourceRecord>> records = getRecords(1, 2, 3);
+        consumer.handleBatch(records, committer);
+        assertThat(enrichedBatchSizes, equalTo(Arrays.asList(3)));
+        assertThat(names, equalTo(Arrays.asList("Location 1", "Location 2", "Location 3")));
+        assertThat(committer.getProcessed(), equalTo(records));
+    }
+
+    @Test
+    public void shouldMarkEventsAsNotEnrichedWhenRetriesAreExhausted() throws Exception {
+        DbEventSourceConfig config = getConfig();
+        config.getRetryPolicy().setMaxAttempts(2);
+        int[] attempts = new int[1];
+        config.setEventEnricher(events -> {
+            attempts[0]++;
+            throw new RuntimeException("Simulated enrichment failure");
+        });
+        List<DbEvent> consumed = new ArrayList<>();
+        DebeziumConsumer consumer = new DebeziumConsumer((EventConsumer) consumed::add, config);
+        TestRecordCommitter committer = new TestRecordCommitter();
+        List<ChangeEvent<SourceRecord, SourceRecord>> records = getRecords(1, 2);
+        consumer.handleBatch(records, committer);
+        assertThat(attempts[0], equalTo(2));
+        assertThat(consumed.size(), equalTo(2));
+        for (DbEvent event : consumed) {
+            assertTrue(event.isEnrichmentFailed());
+        }
+        assertThat(committer.getProcessed(), equalTo(records));
+    }
+
+    @Test
+    public void shouldRetryForeignKeyIndexUpdatesBeyondMaxAttempts() throws Exception {
+        DbEventSourceConfig config = getConfig();
+        config.getRetryPolicy().setMaxAttempts(2);
+        File directory = new File(System.getProperty("java.io.tmpdir"), Uuid.randomUuid().toString());
+        int[] attempts = new int[1];
+        ForeignKeyIndex index = new ForeignKeyIndex(JoinPathResolverTest.getDatabase(new ArrayList<>()), directory, null, Collections.emptyList()) {
+            @Override
+            public synchronized void update(List<DbEvent> events) {
+                if (attempts[0]++ < 3) {
+                    throw new RuntimeException("Simulated index failure");
+                }
+                super.update(events);
+            }
+        };
+        index.addTargetColumn("patient_id", "patient", "patient_id");
+        config.setForeignKeyIndex(index);
+        try {
+            List<DbEvent> consumed = new ArrayList<>();
+            DebeziumConsumer consumer = new DebeziumConsumer((EventConsumer) consumed::add, config);
+            TestRecordCommitter committer = new TestRecordCommitter();
+            List<ChangeEvent<SourceRecord, SourceRecord>> records = new ArrayList<>();
+            records.add(TestChangeEvent.read(SOURCE, "encounter", "encounter_id", 1, "patient_id", 7));
+            records.add(TestChangeEvent.read(SOURCE, "obs", "obs_id", 10, "encounter_id", 1));
+            consumer.handleBatch(records, committer);
+            assertThat(attempts[0], equalTo(4));
+            assertThat(consumed.size(), equalTo(2));
+            assertThat(consumed.get(1).getEnrichment("patient_id"), equalTo(7));
+            assertFalse(consumed.get(1).isEnrichmentFailed());
+            assertThat(committer.getProcessed(), equalTo(records));
+        }
+        finally {
+            index.close();
+            FileUtils.deleteQuietly(directory);
+        }
+    }
+
+    @Test
+    public void shouldApplyFilteredChangesToForeignKeyIndex() throws Exception {
+        DbEventSourceConfig config = getConfig();
+        config.addChangeFilter("encounter", new ChangeFilter().includeOperations(Operation.INSERT));
+        File directory = new File(System.getProperty("java.io.tmpdir"), Uuid.randomUuid().toString());
+        ForeignKeyIndex index = new ForeignKeyIndex(JoinPathResolverTest.getDatabase(new ArrayList<>()), directory, null, Collections.emptyList());
+        index.addTargetColumn("patient_id", "patient", "patient_id");
+        config.setForeignKeyIndex(index);
+        int[] enrichedBatchSize = new int[1];
+        config.setEventEnricher(events -> enrichedBatchSize[0] = events.size());
+        try {
+            List<DbEvent> consumed = new ArrayList<>();
+            DebeziumConsumer consumer = new DebeziumConsumer((EventConsumer) consumed::add, config);
+            TestRecordCommitter committer = new TestRecordCommitter();
+            List<ChangeEvent<SourceRecord, SourceRecord>> records = new ArrayList<>();
+            records.add(TestChangeEvent.read(SOURCE, "encounter", "encounter_id", 1, "patient_id", 7));
+            records.add(TestChangeEvent.read(SOURCE, "obs", "obs_id", 10, "encounter_id", 1));
+            consumer.handleBatch(records, committer);
+            assertThat(consumed.size(), equalTo(1));
+            assertThat(consumed.get(0).getTable(), equalTo("obs"));
+            assertThat(consumed.get(0).getEnrichment("patient_id"), equalTo(7));
+            assertThat(enrichedBatchSize[0], equalTo(1));
+            assertThat(index.getRow("encounter", 1).get("patient_id"), equalTo(7));
+            assertThat(committer.getProcessed(), equalTo(records));
+        }
+        finally {
+            index.close();
+            FileUtils.deleteQuietly(directory);
+        }
+    }
+
+    @Test
+    public void shouldDropFilteredChangesAndStillMarkThemProcessed() throws Exception {
+        DbEventSourceConfig config = getConfig();
+        config.addChangeFilter("location", new ChangeFilter().ignoreColumns("uuid"));
+        List<List<DbEvent>> batches = new ArrayList<>();
+        DebeziumConsumer consumer = new DebeziumConsumer(events -> batches.add(new ArrayList<>(events)), config);
+        TestRecordCommitter committer = new TestRecordCommitter();
+        long filteredCount = DbEventLog.getMetrics(SOURCE, "location").getFilteredCount();
+        List<ChangeEvent<SourceRecord, SourceRecord>> records = new ArrayList<>();
+        records.add(new TestChangeEvent(SOURCE, "location", "u", 1, "Name", "Name"));
+        records.add(new TestChangeEvent(SOURCE, "location", "u", 2, "Name", "New Name"));
+        records.add(new TestChangeEvent(SOURCE, "location", "u", 3, "Name", "Name"));
+        consumer.handleBatch(records, committer);
+        assertThat(batches.size(), equalTo(1));
+        assertThat(batches.get(0).size(), equalTo(1));
+        assertThat(batches.get(0).get(0).getValues().getInteger("location_id"), equalTo(2));
+        assertThat(committer.getProcessed(), equalTo(records));
+        assertThat(DbEventLog.getMetrics(SOURCE, "location").getFilteredCount(), equalTo(filteredCount + 2));
+    }
+
+    @Test
+    public void shouldPreparePartitionerWithWholeBatchBeforePartitioning() throws Exception {
+        DbEventSourceConfig config = getConfig();
+        config.setParallelism(2);
+        config.addChangeFilter("location", new ChangeFilter().includeOperations(Operation.INSERT));
+        List<Integer> preparedBatchSizes = new ArrayList<>();
+        config.setEventPartitioner(new EventPartitioner() {
+            @Override
+            public void prepare(List<DbEvent> events) {
+                preparedBatchSizes.add(events.size());
+                for (DbEvent event : events) {
+                    event.setEnrichment("lane", event.getValues().getInteger("location_id") % 2);
+                }
+            }
+
+            @Override
+            public Object getPartitionKey(DbEvent event) {
+                assertThat(preparedBatchSizes.size(), equalTo(1));
+                return event.getEnrichment("lane");
+            }
+        });
+        List<Integer> processed = new CopyOnWriteArrayList<>();
+        DebeziumConsumer consumer = new DebeziumConsumer((EventConsumer) event -> processed.add(event.getValues().getInteger("location_id")), config);
+        TestRecordCommitter committer = new TestRecordCommitter();
+        List<ChangeEvent<SourceRecord, SourceRecord>> records = new ArrayList<>();
+        for (int id = 1; id <= 10; id++) {
+            records.add(new TestChangeEvent(SOURCE, "location", id <= 8 ? "c" : "u", id, "Name", "New Name"));
+        }
+        try {
+            consumer.handleBatch(records, committer);
+        }
+        finally {
+            consumer.cancel();
+        }
+        assertThat(preparedBatchSizes, equalTo(Collections.singletonList(8))); // Filtered events are not partitioned
+        assertThat(processed.size(), equalTo(8));
+        assertThat(committer.getProcessed(), equalTo(records));
+    }
+
+    @Test
+    public void shouldDropFilteredChangesInParallelLanes() throws Exception {
+        DbEventSourceConfig config = getConfig();
+        config.setParallelism(2);
+        config.addChangeFilter("location", new ChangeFilter().includeOperations(Operation.INSERT));
+        List<Integer> processed = new CopyOnWriteArrayList<>();
+        DebeziumConsumer consumer = new DebeziumConsumer((EventConsumer) event -> processed.add(event.getValues().getInteger("location_id")), config);
+        TestRecordCommitter committer = new TestRecordCommitter();
+        List<ChangeEvent<SourceRecord, SourceRecord>> records = new ArrayList<>();
+        for (int id = 1; id <= 10; id++) {
+            records.add(new TestChangeEvent(SOURCE, "location", id % 2 == 0 ? "c" : "u", id, "Name", "New Name"));
+        }
+        try {
+            consumer.handleBatch(records, committer);
+        }
+        finally {
+            consumer.cancel();
+        }
+        assertThat(new TreeSet<>(processed), contains(2, 4, 6, 8, 10));
+        assertThat(committer.getProcessed(), equalTo(records));
+    }
+
+    @Test
+    public void shouldRetryAndSkipRecordsThatCannotBeDecoded() throws Exception {
+        DbEventSourceConfig config = getConfig();
+        config.getRetryPolicy().setMaxAttempts(2);
+        List<Integer> processed = new ArrayList<>();
+        DebeziumConsumer consumer = new DebeziumConsumer((EventConsumer) e -> processed.add(e.getValues().getInteger("location_id")), config);
+        TestRecordCommitter committer = new TestRecordCommitter();
+        List<ChangeEvent<SourceRecord, SourceRecord>> records = getRecords(1, 3);
+        Schema invalidSchema = SchemaBuilder.struct().name("test.Invalid").field("ts_ms", Schema.INT64_SCHEMA).build();
+        Struct invalidValue = new Struct(invalidSchema).put("ts_ms", 1L);
+        records.add(1, new TestChangeEvent(new SourceRecord(Collections.emptyMap(), Collections.emptyMap(), SOURCE, null, null, invalidSchema, invalidValue)));
+        consumer.handleBatch(records, committer);
+        assertThat(processed, equalTo(Arrays.asList(1, 3)));
+        assertThat(committer.getProcessed(), equalTo(records));
+    }
+
+    @Test
+    public void shouldStopWaitingForLanesWhenCancelled() throws Exception {
+        DbEventSourceConfig config = getConfig();
+        config.setParallelism(2);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        EventConsumer eventConsumer = event -> {
+            started.countDown();
+            while (release.getCount() > 0) {
+                try {
+                    release.await(); // Ignore interrupts, to simulate a consumer stuck in a blocking call
+                }
+                catch (InterruptedException e) {
+                    // Continue waiting
+                }
+            }
+        };
+        DebeziumConsumer consumer = new DebeziumConsumer(eventConsumer, config);
+        List<Throwable> errors = new CopyOnWriteArrayList<>();
+        Thread engineThread = new Thread(() -> {
+            try {
+                consumer.handleBatch(getRecords(1, 2, 3, 4), new TestRecordCommitter());
+            }
+            catch (Throwable e) {
+                errors.add(e);
+            }
+        });
+        engineThread.start();
+        started.await();
+        consumer.cancel();
+        engineThread.join(5000);
+        release.countDown();
+        assertThat(engineThread.isAlive(), equalTo(false));
+        assertThat(errors.size(), equalTo(1));
+    }
+
+    @Test
+    public void shouldDeadLetterOnlyEventsThatStillFailWhenBatchIsSplit() throws Exception {
+        DbEventSourceConfig config = getConfig();
+        config.getRetryPolicy().setMaxAttempts(2);
+        List<Integer> processed = new ArrayList<>();
+        BatchEventConsumer eventConsumer = events -> {
+            for (DbEvent event : events) {
+                if (event.getValues().getInteger("location_id") == 3) {
+                    throw new RuntimeException("TEST_ERROR");
+                }
+            }
+            for (DbEvent event : events) {
+                processed.add(event.getValues().getInteger("location_id"));
+            }
+        };
+        DbEventSource eventSource = new DbEventSource(config);
+        DebeziumConsumer consumer = new DebeziumConsumer(eventConsumer, config, eventSource.getDeadLetterStore());
+        TestRecordCommitter committer = new TestRecordCommitter();
+        List<ChangeEvent<SourceRecord, SourceRecord>> records = getRecords(1, 2, 3, 4, 5);
+        try {
+            consumer.handleBatch(records, committer);
+            assertThat(processed, equalTo(Arrays.asList(1, 2, 4, 5)));
+            assertThat(committer.getProcessed(), equalTo(records));
+            List<DeadLetter> deadLetters = eventSource.getDeadLetters();
+            assertThat(deadLetters.size(), equalTo(1));
+            assertThat(deadLetters.get(0).getEvent().getValues().getInteger("location_id"), equalTo(3));
+        }
+        finally {
+            eventSource.getDeadLetterStore().delete();
+        }
+    }
+
+    @Test
+    public void shouldRefreshMetadataOnSchemaChangeInOrder() throws Exception {
+        List<String> reloadedTables = new ArrayList<>();
+        List<Set<String>> changedTables = new ArrayList<>();
+        List<List<DbEvent>> batches = new ArrayList<>();
+        Database database = new Database(getConfig().getContext().getRuntimeProperties()) {
+            @Override
+            public Connection openConnection() {
+                return null;
+            }
+        };
+        DatabaseMetadata initialMetadata = new DatabaseMetadata();
+        database.setMetadata(initialMetadata);
+        database.setMetadataLoader(new JdbcDatabaseMetadataLoader() {
+            @Override
+            public void reloadTables(Connection connection, DatabaseMetadata metadata, Collection<String> tableNames) {
+                assertThat(metadata, not(sameInstance(initialMetadata))); // Tables are reloaded into a copy
+                assertThat(batches.size(), equalTo(1)); // Events prior to the schema change are processed first
+                reloadedTables.addAll(tableNames);
+            }
+        });
+        database.addMetadataListener((metadata, tableNames) -> changedTables.add(tableNames));
+        EventContext context = new TestEventContext(getConfig().getContext().getRuntimeProperties()) {
+            @Override
+            public Database getDatabase() {
+                return database;
+            }
+        };
+        DbEventSourceConfig config = new DbEventSourceConfig(100003, SOURCE, context);
+        config.setIncludeSchemaChanges(true);
+        DebeziumConsumer consumer = new DebeziumConsumer(events -> batches.add(new ArrayList<>(events)), config);
+        TestRecordCommitter committer = new TestRecordCommitter();
+        List<ChangeEvent<SourceRecord, SourceRecord>> records = getRecords(1, 2);
+        records.add(1, TestChangeEvent.schemaChange(SOURCE, "dbevent", "alter table location add column test int", "ALTER", "location"));
+        consumer.handleBatch(records, committer);
+        assertThat(batches.size(), equalTo(2));
+        assertThat(batches.get(0).get(0).getValues().getInteger("location_id"), equalTo(1));
+        assertThat(batches.get(1).get(0).getValues().getInteger("location_id"), equalTo(2));
+        assertThat(reloadedTables, equalTo(Arrays.asList("location")));
+        assertThat(changedTables.size(), equalTo(1));
+        assertThat(changedTables.get(0), contains("location"));
+        assertThat(database.getMetadata(), not(sameInstance(initialMetadata)));
+        assertThat(committer.getProcessed(), equalTo(records));
+        assertThat(committer.getBatchesFinished(), equalTo(1));
+    }
+
+    @Test
+    public void shouldRetryMetadataReloadOnSchemaChange() throws Exception {
+        List<String> reloadedTables = new ArrayList<>();
+        int[] attempts = new int[1];
+        Database database = new Database(getConfig().getContext().getRuntimeProperties()) {
+            @Override
+            public Connection openConnection() {
+                return null;
+            }
+        };
+        database.setMetadata(new DatabaseMetadata());
+        database.setMetadataLoader(new JdbcDatabaseMetadataLoader() {
+            @Override
+            public void reloadTables(Connection connection, DatabaseMetadata metadata, Collection<String> tableNames) {
+                if (attempts[0]++ == 0) {
+                    throw new RuntimeException("Simulated failure reloading tables");
+                }
+                reloadedTables.addAll(tableNames);
+            }
+        });
+        EventContext context = new TestEventContext(getConfig().getContext().getRuntimeProperties()) {
+            @Override
+            public Database getDatabase() {
+                return database;
+            }
+        };
+        DbEventSourceConfig config = new DbEventSourceConfig(100003, SOURCE, context);
+        config.setIncludeSchemaChanges(true);
+        config.setRetryIntervalSeconds(0);
+        DebeziumConsumer consumer = new DebeziumConsumer(events -> {}, config);
+        TestRecordCommitter committer = new TestRecordCommitter();
+        List<ChangeEvent<SourceRecord, SourceRecord>> records = new ArrayList<>();
+        records.add(TestChangeEvent.schemaChange(SOURCE, "dbevent", "alter table location add column test int", "ALTER", "location"));
+        consumer.handleBatch(records, committer);
+        assertThat(attempts[0], equalTo(2));
+        assertThat(reloadedTables, equalTo(Arrays.asList("location")));
+        assertThat(committer.getProcessed(), equalTo(records));
+    }
+
+    protected DbEventSourceConfig getConfig() {
+        Properties p = new Properties();
+        p.setProperty("connection.url", "jdbc:mysql://localhost:3306/dbevent");
+        p.setProperty("connection.username", "test");
+        p.setProperty("connection.password", "test");
+        DbEventSourceConfig config = new DbEventSourceConfig(100003, SOURCE, new TestEventContext(p));
+        config.setRetryIntervalSeconds(0);
+        return config;
+    }
+
+    protected List<ChangeEvent<SourceRecord, SourceRecord>> getRecords(Integer... ids) {
+        List<ChangeEvent<SourceRecord, SourceRecord>> ret = new ArrayList<>();
+        for (Integer id : ids) {
+            ret.add(TestChangeEvent.read(SOURCE, "location", id));
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,24 @@
+package org.openmrs.module.dbevent;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+public class EventCommitPolicyTest {
+
+    @Test
+    public void shouldCommitAfterMaxInterval() {
+        EventCommitPolicy commitPolicy = new EventCommitPolicy();
+        commitPolicy.setCommitWhenCaughtUp(false);
+        commitPolicy.setMaxIntervalMillis(1000);
+        commitPolicy.batchProcessed(1, 2048);
+        assertThat(commitPolicy.performCommit(0, Duration.ofMillis(2000)), equalTo(false));
+        assertThat(commitPolicy.performCommit(1, Duration.ofMillis(500)), equalTo(false));
+        assertThat(commitPolicy.getEventsSinceLastCommit(), equalTo(1L));
+        assertThat(commitPolicy.performCommit(1, Duration.ofMillis(1000)), equalTo(true));
+        assertThat(commitPolicy.getEventsSinceLastCommit(), equalTo(0L));
+    }
+}
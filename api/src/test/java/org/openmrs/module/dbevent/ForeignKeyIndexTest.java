@@ -0,0 +1,132 @@
+package org.openmrs.module.dbevent;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.kafka.common.Uuid;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.openmrs.module.dbevent.test.TestChangeEvent;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.nullValue;
+
+public class ForeignKeyIndexTest {
+
+    public static final String SOURCE = "ForeignKeyIndexTest";
+
+    File directory;
+    Database database;
+    ForeignKeyIndex index;
+
+    @BeforeEach
+    public void setup() {
+        directory = new File(System.getProperty("java.io.tmpdir"), Uuid.randomUuid().toString());
+        Properties p = new Properties();
+        p.setProperty("connection.url", "jdbc:mysql://localhost:3306/dbevent");
+        database = new Database(p);
+        database.setMetadata(JoinPathResolverTest.getMetadata());
+        index = new ForeignKeyIndex(database, directory, null, Collections.emptyList());
+        index.addTargetColumn("patient_id", "patient", "patient_id");
+    }
+
+    @AfterEach
+    public void teardown() {
+        index.close();
+        FileUtils.deleteQuietly(directory);
+    }
+
+    @Test
+    public void shouldResolveEachEventAsOfItsPositionInTheStream() {
+        List<DbEvent> events = Arrays.asList(
+                event("encounter", "r", "encounter_id", 1, "patient_id", 7, "location_id", 2),
+                event("obs", "c", "obs_id", 10, "encounter_id", 1, "location_id", 2),
+                event("encounter", "u", "encounter_id", 1, "patient_id", 8, "location_id", 2),
+                event("obs", "c", "obs_id", 11, "encounter_id", 1, "location_id", 2)
+        );
+        index.update(events);
+        assertThat(events.get(0).getEnrichment("patient_id"), equalTo(7));
+        assertThat(events.get(1).getEnrichment("patient_id"), equalTo(7));
+        assertThat(events.get(2).getEnrichment("patient_id"), equalTo(8));
+        assertThat(events.get(3).getEnrichment("patient_id"), equalTo(8));
+        Map<String, Object> row = index.getRow("obs", 10);
+        assertThat(row.get("encounter_id"), equalTo(1));
+        assertThat(row.get("location_id"), equalTo(2));
+    }
+
+    @Test
+    public void shouldPersistIndexAcrossBatchesAndRemoveDeletedRows() {
+        index.update(Collections.singletonList(event("encounter", "r", "encounter_id", 1, "patient_id", 7, "location_id", 2)));
+        index.close();
+        DbEvent obs = event("obs", "c", "obs_id", 10, "encounter_id", 1, "location_id", 2);
+        index.update(Collections.singletonList(obs));
+        assertThat(obs.getEnrichment("patient_id"), equalTo(7));
+        assertThat(index.resolve(obs, database.getMetadata().getColumn("patient", "patient_id")), equalTo(7));
+        index.update(Collections.singletonList(event("encounter", "d", "encounter_id", 1, "patient_id", 7, "location_id", 2)));
+        assertThat(index.getRow("encounter", 1L), nullValue());
+        obs = event("obs", "u", "obs_id", 10, "encounter_id", 1, "location_id", 2);
+        index.update(Collections.singletonList(obs));
+        assertThat(obs.getEnrichment("patient_id"), nullValue());
+    }
+
+    @Test
+    public void shouldNotIndexReferencesToExcludedTables() {
+        index.close();
+        index = new ForeignKeyIndex(database, directory, null, Collections.singletonList("location"));
+        index.update(Collections.singletonList(event("encounter", "r", "encounter_id", 1, "patient_id", 7, "location_id", 2)));
+        assertThat(index.getRow("encounter", 1).keySet(), equalTo(Collections.singleton("patient_id")));
+        index.update(Collections.singletonList(event("location", "r", "location_id", 2)));
+        assertThat(index.getRow("location", 2), nullValue());
+    }
+
+    @Test
+    public void shouldStoreRowsAsCompactMapsAndResolveWithoutMaterializingValues() {
+        index.update(Collections.singletonList(event("encounter", "r", "encounter_id", 1, "patient_id", 7, "location_id", 2)));
+        assertThat(index.getRow("encounter", 1), instanceOf(LinkedHashMap.class)); // Not Java serialized
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("obs_id", 10);
+        row.put("encounter_id", 1);
+        DbEvent obs = new DbEvent(new TestChangeEvent(SOURCE, "obs", "c", null, row)) {
+            @Override
+            public ObjectMap getValues() {
+                throw new IllegalStateException("Row values should not be materialized");
+            }
+        };
+        assertThat(index.resolve(obs, database.getMetadata().getColumn("patient", "patient_id")), equalTo(7));
+    }
+
+    @Test
+    public void shouldStopListeningForMetadataChangesWhenClosed() {
+        List<DatabaseMetadataListener> listeners = new ArrayList<>();
+        index.close();
+        database = JoinPathResolverTest.getDatabase(listeners);
+        index = new ForeignKeyIndex(database, directory, null, Collections.emptyList());
+        index.addTargetColumn("patient_id", "patient", "patient_id");
+        assertThat(listeners.size(), equalTo(1));
+        index.close();
+        assertThat(listeners.isEmpty(), equalTo(true));
+        DbEvent encounter = event("encounter", "r", "encounter_id", 1, "patient_id", 7, "location_id", 2);
+        index.update(Collections.singletonList(encounter));
+        assertThat(encounter.getEnrichment("patient_id"), equalTo(7));
+        assertThat(listeners.size(), equalTo(1));
+    }
+
+    protected DbEvent event(String table, String op, Object... columnsAndValues) {
+        Map<String, Object> row = new LinkedHashMap<>();
+        for (int i = 0; i < columnsAndValues.length; i += 2) {
+            row.put((String) columnsAndValues[i], columnsAndValues[i + 1]);
+        }
+        boolean delete = "d".equals(op);
+        return new DbEvent(new TestChangeEvent(SOURCE, table, op, delete ? row : null, delete ? null : row));
+    }
+}
@@ -0,0 +1,53 @@
+package org.openmrs.module.dbevent;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+public class HistogramTest {
+
+    @Test
+    public void shouldReportExactValuesForSmallValues() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 10; i++) {
+            histogram.record(i);
+        }
+        assertThat(histogram.getCount(), equalTo(10L));
+        assertThat(histogram.getMax(), equalTo(10L));
+        assertThat(histogram.getMean(), equalTo(5.5));
+        assertThat(histogram.getPercentile(50), equalTo(5L));
+        assertThat(histogram.getPercentile(100), equalTo(10L));
+    }
+
+    @Test
+    public void shouldReportPercentilesWithinBoundedError() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 100000; i++) {
+            histogram.record(i);
+        }
+        assertWithinError(histogram.getPercentile(50), 50000);
+        assertWithinError(histogram.getPercentile(95), 95000);
+        assertWithinError(histogram.getPercentile(99), 99000);
+        assertThat(histogram.getPercentile(100), equalTo(100000L));
+    }
+
+    @Test
+    public void shouldMapEveryValueToBucketContainingIt() {
+        for (long value = 0; value < 100000; value += 7) {
+            int bucket = Histogram.getBucket(value);
+            assertThat(Histogram.getUpperBound(bucket), greaterThanOrEqualTo(value));
+            if (bucket > 0) {
+                assertThat(Histogram.getUpperBound(bucket - 1), lessThanOrEqualTo(value - 1));
+            }
+        }
+        assertThat(Histogram.getBucket(Long.MAX_VALUE), equalTo(Histogram.getBucket(1L << 50)));
+    }
+
+    protected void assertWithinError(long actual, long expected) {
+        assertThat(actual, greaterThanOrEqualTo(expected));
+        assertThat(actual, lessThanOrEqualTo((long) (expected * 1.125)));
+    }
+}
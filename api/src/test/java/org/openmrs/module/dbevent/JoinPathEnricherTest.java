@@ -0,0 +1,94 @@
+package org.openmrs.module.dbevent;
+
+import org.apache.commons.dbutils.ResultSetHandler;
+import org.junit.jupiter.api.Test;
+import org.openmrs.module.dbevent.test.TestChangeEvent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+
+public class JoinPathEnricherTest {
+
+    public static final String SOURCE = "JoinPathEnricherTest";
+
+    @Test
+    public void shouldLookUpDistinctValuesOfEachBatchInSingleQuery() {
+        List<String> queries = new ArrayList<>();
+        Map<Integer, Integer> patientsByEncounter = new HashMap<>();
+        patientsByEncounter.put(1, 10);
+        patientsByEncounter.put(2, 20);
+        JoinPathEnricher enricher = new JoinPathEnricher(getDatabase(queries, patientsByEncounter));
+        enricher.addTargetColumn("patient_id", "patient", "patient_id");
+        List<DbEvent> events = getEvents();
+        enricher.enrich(events);
+        assertThat(queries, equalTo(Arrays.asList("select t1.encounter_id , t1.patient_id from encounter t1 where t1.encounter_id in (?,?,?) [1, 2, 3]")));
+        assertThat(events.get(0).getEnrichment("patient_id"), equalTo(10));
+        assertThat(events.get(1).getEnrichment("patient_id"), equalTo(20));
+        assertThat(events.get(2).getEnrichment("patient_id"), equalTo(10));
+        assertThat(events.get(3).getEnrichment("patient_id"), nullValue());
+        assertThat(events.get(4).getEnrichment("patient_id"), nullValue());
+        assertThat(events.get(5).getEnrichment("patient_id"), equalTo(7));
+        assertThat(events.get(5).getEnrichments().getInteger("patient_id"), equalTo(7));
+    }
+
+    @Test
+    public void shouldLimitValuesPerQuery() {
+        List<String> queries = new ArrayList<>();
+        Map<Integer, Integer> patientsByEncounter = new HashMap<>();
+        patientsByEncounter.put(3, 30);
+        JoinPathEnricher enricher = new JoinPathEnricher(getDatabase(queries, patientsByEncounter));
+        enricher.addTargetColumn("patient_id", "patient", "patient_id");
+        enricher.setMaxValuesPerQuery(2);
+        List<DbEvent> events = getEvents();
+        enricher.enrich(events);
+        assertThat(queries.size(), equalTo(2));
+        assertThat(queries.get(1).endsWith("in (?) [3]"), equalTo(true));
+        assertThat(events.get(3).getEnrichment("patient_id"), equalTo(30));
+        assertThat(events.get(0).getEnrichment("patient_id"), nullValue());
+    }
+
+    /**
+     * @return obs events for encounters 1, 2, 1, 3 and none, followed by an encounter event for patient 7
+     */
+    protected List<DbEvent> getEvents() {
+        List<DbEvent> events = new ArrayList<>();
+        Integer[] encounterIds = {1, 2, 1, 3, null};
+        for (int i = 0; i < encounterIds.length; i++) {
+            events.add(new DbEvent(TestChangeEvent.read(SOURCE, "obs", "obs_id", 100 + i, "encounter_id", encounterIds[i])));
+        }
+        events.add(new DbEvent(TestChangeEvent.read(SOURCE, "encounter", "encounter_id", 4, "patient_id", 7)));
+        return events;
+    }
+
+    /**
+     * @return a Database that records each query, and answers it from the given patient ids by encounter id
+     */
+    protected Database getDatabase(List<String> queries, Map<Integer, Integer> patientsByEncounter) {
+        Properties p = new Properties();
+        p.setProperty("connection.url", "jdbc:mysql://localhost:3306/dbevent");
+        Database database = new Database(p) {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <T> T executeQuery(String sql, ResultSetHandler<T> handler, Object... values) {
+                queries.add(sql.trim() + " " + Arrays.asList(values));
+                List<Object[]> rows = new ArrayList<>();
+                for (Object value : values) {
+                    if (patientsByEncounter.containsKey(value)) {
+                        rows.add(new Object[] {value, patientsByEncounter.get(value)});
+                    }
+                }
+                return (T) rows;
+            }
+        };
+        database.setMetadata(JoinPathResolverTest.getMetadata());
+        return database;
+    }
+}
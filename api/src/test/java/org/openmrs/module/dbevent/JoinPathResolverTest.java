@@ -0,0 +1,140 @@
+package org.openmrs.module.dbevent;
+
+import org.junit.jupiter.api.Test;
+import org.openmrs.module.dbevent.test.TestChangeEvent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+public class JoinPathResolverTest {
+
+    public static final String SOURCE = "JoinPathResolverTest";
+
+    @Test
+    public void shouldCompileAndCacheLookupsPerTableAndColumn() {
+        Database database = getDatabase();
+        JoinPathResolver resolver = new JoinPathResolver(database);
+        DatabaseColumn patientId = database.getMetadata().getColumn("patient", "patient_id");
+        List<JoinPathLookup> lookups = resolver.getLookups("obs", patientId);
+        assertThat(lookups.size(), equalTo(1));
+        assertThat(lookups.get(0).getColumnName(), equalTo("encounter_id"));
+        assertThat(lookups.get(0).getQuery().getSql().trim(), equalTo("select t1.patient_id from encounter t1 where t1.encounter_id = ?"));
+        assertThat(lookups.get(0).getQuery().getParameterNames(), equalTo(Collections.singletonList("encounter_id")));
+        assertThat(resolver.getLookups("obs", patientId), sameInstance(lookups));
+        lookups = resolver.getLookups("encounter", patientId);
+        assertThat(lookups.get(0).getColumnName(), equalTo("patient_id"));
+        assertThat(lookups.get(0).getQuery(), nullValue());
+        assertThat(resolver.getLookups("patient", patientId).get(0).getColumnName(), equalTo("patient_id"));
+        assertThat(resolver.getLookups("location", patientId).isEmpty(), equalTo(true));
+    }
+
+    @Test
+    public void shouldResolveValuesAvailableOnEvent() {
+        Database database = getDatabase();
+        JoinPathResolver resolver = new JoinPathResolver(database);
+        DatabaseColumn patientId = database.getMetadata().getColumn("patient", "patient_id");
+        DbEvent event = new DbEvent(TestChangeEvent.read(SOURCE, "encounter", "encounter_id", 10, "patient_id", 7));
+        assertThat(resolver.resolve(event, patientId), equalTo(7));
+        event = new DbEvent(TestChangeEvent.read(SOURCE, "obs", "obs_id", 10, "encounter_id", null));
+        assertThat(resolver.resolve(event, patientId), nullValue());
+    }
+
+    @Test
+    public void shouldInvalidateLookupsOfChangedAndReferencingTables() {
+        Database database = getDatabase();
+        JoinPathResolver resolver = new JoinPathResolver(database);
+        DatabaseMetadata metadata = database.getMetadata();
+        DatabaseColumn patientId = metadata.getColumn("patient", "patient_id");
+        List<JoinPathLookup> obsLookups = resolver.getLookups("obs", patientId);
+        List<JoinPathLookup> encounterLookups = resolver.getLookups("encounter", patientId);
+        List<JoinPathLookup> locationLookups = resolver.getLookups("location", patientId);
+        resolver.tablesChanged(metadata, Collections.singleton("encounter"));
+        assertThat(resolver.getLookups("obs", patientId), not(sameInstance(obsLookups)));
+        assertThat(resolver.getLookups("encounter", patientId), not(sameInstance(encounterLookups)));
+        assertThat(resolver.getLookups("location", patientId), sameInstance(locationLookups));
+    }
+
+    @Test
+    public void shouldStopListeningForMetadataChangesWhenClosed() {
+        List<DatabaseMetadataListener> listeners = new ArrayList<>();
+        Database database = getDatabase(listeners);
+        JoinPathResolver resolver = new JoinPathResolver(database);
+        DatabaseColumn patientId = database.getMetadata().getColumn("patient", "patient_id");
+        List<JoinPathLookup> obsLookups = resolver.getLookups("obs", patientId);
+        assertThat(listeners.size(), equalTo(1));
+        resolver.close();
+        assertThat(listeners.isEmpty(), equalTo(true));
+        assertThat(resolver.getLookups("obs", patientId), not(sameInstance(obsLookups)));
+        assertThat(listeners.size(), equalTo(1));
+        resolver.close();
+        assertThat(listeners.isEmpty(), equalTo(true));
+    }
+
+    protected Database getDatabase() {
+        Properties p = new Properties();
+        p.setProperty("connection.url", "jdbc:mysql://localhost:3306/dbevent");
+        Database database = new Database(p);
+        database.setMetadata(getMetadata());
+        return database;
+    }
+
+    /**
+     * @return a database with the test metadata, which adds each registered metadata listener to the given list
+     */
+    public static Database getDatabase(List<DatabaseMetadataListener> listeners) {
+        Properties p = new Properties();
+        p.setProperty("connection.url", "jdbc:mysql://localhost:3306/dbevent");
+        Database database = new Database(p) {
+            @Override
+            public void addMetadataListener(DatabaseMetadataListener listener) {
+                listeners.add(listener);
+                super.addMetadataListener(listener);
+            }
+
+            @Override
+            public void removeMetadataListener(DatabaseMetadataListener listener) {
+                listeners.remove(listener);
+                super.removeMetadataListener(listener);
+            }
+        };
+        database.setMetadata(getMetadata());
+        return database;
+    }
+
+    /**
+     * @return metadata with patient, location, encounter and obs tables, where encounter references patient and
+     * location, and obs references encounter and location
+     */
+    public static DatabaseMetadata getMetadata() {
+        DatabaseMetadata metadata = new DatabaseMetadata();
+        metadata.setDatabaseName("dbevent");
+        addTable(metadata, "patient");
+        addTable(metadata, "location");
+        addTable(metadata, "encounter", "patient_id", "location_id");
+        addTable(metadata, "obs", "encounter_id", "location_id");
+        metadata.addReference("encounter", "patient_id", "patient", "patient_id");
+        metadata.addReference("encounter", "location_id", "location", "location_id");
+        metadata.addReference("obs", "encounter_id", "encounter", "encounter_id");
+        metadata.addReference("obs", "location_id", "location", "location_id");
+        return metadata;
+    }
+
+    protected static void addTable(DatabaseMetadata metadata, String tableName, String... foreignKeys) {
+        DatabaseTable table = new DatabaseTable("dbevent", tableName);
+        DatabaseColumn pk = new DatabaseColumn("dbevent", tableName, tableName + "_id", false);
+        pk.setPrimaryKey(true);
+        table.addColumn(pk);
+        for (String fk : foreignKeys) {
+            table.addColumn(new DatabaseColumn("dbevent", tableName, fk, false));
+        }
+        metadata.addTable(table);
+    }
+}
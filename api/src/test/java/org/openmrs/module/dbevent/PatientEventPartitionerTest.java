@@ -0,0 +1,77 @@
+package org.openmrs.module.dbevent;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.openmrs.module.dbevent.test.MysqlExtension;
+import org.openmrs.module.dbevent.test.TestChangeEvent;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+
+@ExtendWith(MysqlExtension.class)
+public class PatientEventPartitionerTest {
+
+    public static final String SOURCE = "PatientEventPartitionerTest";
+
+    @Test
+    public void shouldPartitionEventsByPerson() {
+        EventContext ctx = MysqlExtension.getEventContext();
+        PatientEventPartitioner partitioner = new PatientEventPartitioner(ctx.getDatabase());
+        List<DbEvent> events = Arrays.asList(
+                event("person", "person_id", 7),
+                event("patient", "patient_id", 7),
+                event("obs", "obs_id", 100, "person_id", 7),
+                event("encounter", "encounter_id", 100, "patient_id", 7),
+                event("visit", "visit_id", 100, "patient_id", 7)
+        );
+        partitioner.prepare(events);
+        for (DbEvent event : events) {
+            assertThat(partitioner.getPartitionKey(event), equalTo(7));
+            assertThat(event.getEnrichment(PatientEventPartitioner.PERSON_ID), equalTo(7));
+        }
+    }
+
+    @Test
+    public void shouldPartitionByAttachedPersonIdWithoutQuerying() {
+        EventContext ctx = MysqlExtension.getEventContext();
+        PatientEventPartitioner partitioner = new PatientEventPartitioner(ctx.getDatabase());
+        DbEvent event = event("encounter_provider", "encounter_provider_id", 1, "encounter_id", -1);
+        event.setEnrichment(PatientEventPartitioner.PERSON_ID, 8);
+        partitioner.prepare(Collections.singletonList(event));
+        assertThat(partitioner.getPartitionKey(event), equalTo(8));
+        assertThat(partitioner.getPersonId(event), equalTo(8));
+    }
+
+    @Test
+    public void shouldLookupPersonThroughIntermediateTables() {
+        EventContext ctx = MysqlExtension.getEventContext();
+        PatientEventPartitioner partitioner = new PatientEventPartitioner(ctx.getDatabase());
+        List<JoinPathLookup> lookups = partitioner.getPersonLookups("encounter_provider");
+        assertThat(lookups.size(), equalTo(1));
+        assertThat(lookups.get(0).getColumnName(), equalTo("encounter_id"));
+        assertThat(lookups.get(0).getQuery().getSql().trim(), equalTo("select t1.patient_id from encounter t1 where t1.encounter_id = ?"));
+        lookups = partitioner.getPersonLookups("patient_state");
+        assertThat(lookups.get(0).getColumnName(), equalTo("patient_program_id"));
+        assertThat(lookups.get(0).getQuery().getSql().trim(), equalTo("select t1.patient_id from patient_program t1 where t1.patient_program_id = ?"));
+        assertThat(partitioner.getPersonId(event("encounter_provider", "encounter_provider_id", 1, "encounter_id", -1)), nullValue());
+    }
+
+    @Test
+    public void shouldFallBackToKeyPartitioningForNonPatientTables() {
+        EventContext ctx = MysqlExtension.getEventContext();
+        PatientEventPartitioner partitioner = new PatientEventPartitioner(ctx.getDatabase());
+        DbEvent event = event("location", "location_id", 1, "name", "Unknown Location");
+        partitioner.prepare(Collections.singletonList(event));
+        assertThat(partitioner.getPersonId(event), nullValue());
+        assertThat(partitioner.getPartitionKey(event), equalTo(Arrays.asList("location", event.getKey())));
+    }
+
+    protected DbEvent event(String table, Object... columnsAndValues) {
+        return new DbEvent(TestChangeEvent.read(SOURCE, table, columnsAndValues));
+    }
+}
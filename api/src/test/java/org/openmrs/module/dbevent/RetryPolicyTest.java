@@ -0,0 +1,25 @@
+package org.openmrs.module.dbevent;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+public class RetryPolicyTest {
+
+    @Test
+    public void shouldBackOffExponentiallyUpToMaxInterval() {
+        RetryPolicy retryPolicy = new RetryPolicy();
+        retryPolicy.setInitialIntervalMillis(100);
+        retryPolicy.setBackoffMultiplier(2);
+        retryPolicy.setMaxIntervalMillis(500);
+        assertThat(retryPolicy.getRetryIntervalMillis(1), equalTo(100L));
+        assertThat(retryPolicy.getRetryIntervalMillis(2), equalTo(200L));
+        assertThat(retryPolicy.getRetryIntervalMillis(3), equalTo(400L));
+        assertThat(retryPolicy.getRetryIntervalMillis(4), equalTo(500L));
+        assertThat(retryPolicy.isExhausted(1000), equalTo(false));
+        retryPolicy.setMaxAttempts(3);
+        assertThat(retryPolicy.isExhausted(2), equalTo(false));
+        assertThat(retryPolicy.isExhausted(3), equalTo(true));
+    }
+}
@@ -0,0 +1,204 @@
+package org.openmrs.module.dbevent;
+
+import io.debezium.config.Configuration;
+import io.debezium.pipeline.spi.Offsets;
+import io.debezium.pipeline.spi.Partition;
+import io.debezium.relational.Column;
+import io.debezium.relational.Table;
+import io.debezium.relational.TableEditor;
+import io.debezium.relational.TableId;
+import io.debezium.relational.Tables;
+import io.debezium.relational.history.DatabaseHistory;
+import io.debezium.relational.history.DatabaseHistoryListener;
+import io.debezium.relational.history.FileDatabaseHistory;
+import io.debezium.relational.history.HistoryRecord;
+import io.debezium.relational.history.HistoryRecordComparator;
+import io.debezium.relational.history.TableChanges;
+import org.apache.commons.io.FileUtils;
+import org.apache.kafka.common.Uuid;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.openmrs.module.dbevent.test.TestOffsetContext;
+
+import java.io.File;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RocksDatabaseHistoryTest {
+
+    static final Map<String, String> SOURCE = Collections.singletonMap("server", "test");
+    static final String SET_DDL = "SET character_set_server=utf8mb4, collation_server=utf8mb4_general_ci";
+    static final HistoryRecordComparator COMPARATOR = HistoryRecordComparator.usingPositions(
+            (recorded, desired) -> recorded.getLong("pos") <= desired.getLong("pos")
+    );
+
+    File dataDir;
+
+    @BeforeEach
+    public void setup() {
+        dataDir = new File(System.getProperty("java.io.tmpdir"), Uuid.randomUuid().toString());
+    }
+
+    @AfterEach
+    public void teardown() {
+        FileUtils.deleteQuietly(dataDir);
+    }
+
+    @Test
+    public void shouldCompactHistoryOnRecovery() {
+        File directory = new File(dataDir, "history");
+        RocksDatabaseHistory history = newHistory(directory, null, 1);
+        assertFalse(history.exists());
+        recordChanges(history);
+        assertTrue(history.exists());
+        assertThat(history.getRecords().size(), equalTo(6));
+
+        Tables schema = new Tables();
+        recover(history, 4, schema);
+        assertSchemaAtPosition4(schema);
+        // The SET statement, the compacted record, and the record after the offset
+        assertThat(history.getRecords().size(), equalTo(3));
+        assertThat(getDdl(history), contains(SET_DDL, "", "drop table location"));
+        history.stop();
+
+        history = newHistory(directory, null, 1);
+        schema = new Tables();
+        recover(history, 4, schema);
+        assertSchemaAtPosition4(schema);
+        assertThat(history.getRecords().size(), equalTo(3));
+
+        schema = new Tables();
+        recover(history, 5, schema);
+        assertThat(schema.forTable(tableId("location")), nullValue());
+        assertThat(getDdl(history), contains(SET_DDL, ""));
+        history.stop();
+    }
+
+    @Test
+    public void shouldNotCompactHistoryBelowThreshold() {
+        RocksDatabaseHistory history = newHistory(new File(dataDir, "history"), null, 4);
+        recordChanges(history);
+        Tables schema = new Tables();
+        recover(history, 4, schema);
+        assertSchemaAtPosition4(schema);
+        assertThat(history.getRecords().size(), equalTo(6));
+        recover(history, 5, new Tables());
+        assertThat(getDdl(history), contains(SET_DDL, ""));
+        history.stop();
+    }
+
+    @Test
+    public void shouldOpenRocksWithRocksConfigOfSource() {
+        RocksConfig rocksConfig = new RocksConfig();
+        rocksConfig.setBlockCacheSizeBytes(8L * 1024 * 1024);
+        rocksConfig.setCompressionType(null);
+        Configuration config = Configuration.from(rocksConfig.toProperties(RocksDatabaseHistory.ROCKS_CONFIG_PREFIX)).edit()
+                .with(FileDatabaseHistory.FILE_PATH, new File(dataDir, "history").getAbsolutePath()).build();
+        RocksDatabaseHistory history = new RocksDatabaseHistory();
+        history.configure(config, COMPARATOR, DatabaseHistoryListener.NOOP, true);
+        assertThat(history.getRocksConfig(), equalTo(rocksConfig));
+        history.start();
+        assertThat(history.getRocksConfig().getBlockCache(), notNullValue());
+        recordChanges(history);
+        history.stop();
+    }
+
+    @Test
+    public void shouldMigrateFromFileDatabaseHistory() {
+        File historyFile = new File(dataDir, "history.dat");
+        FileDatabaseHistory fileHistory = new FileDatabaseHistory();
+        fileHistory.configure(getConfig(historyFile, null), COMPARATOR, DatabaseHistoryListener.NOOP, true);
+        fileHistory.start();
+        recordChanges(fileHistory);
+        fileHistory.stop();
+
+        RocksDatabaseHistory history = newHistory(new File(dataDir, "history"), historyFile, 1);
+        assertThat(history.getRecords().size(), equalTo(6));
+        Tables schema = new Tables();
+        recover(history, 4, schema);
+        assertSchemaAtPosition4(schema);
+        history.stop();
+        assertFalse(historyFile.exists());
+        assertTrue(new File(dataDir, "history.dat.migrated").exists());
+    }
+
+    protected void recordChanges(DatabaseHistory history) {
+        Table location = table("location", "location_id", "name");
+        Table locationWithDescription = table("location", "location_id", "name", "description");
+        Table person = table("person", "person_id");
+        Table temp = table("temp", "temp_id");
+        history.record(SOURCE, position(0), "db", null, SET_DDL, new TableChanges());
+        history.record(SOURCE, position(1), "db", null, "create table location", new TableChanges().create(location));
+        history.record(SOURCE, position(2), "db", null, "create table person", new TableChanges().create(person));
+        history.record(SOURCE, position(3), "db", null, "create table temp", new TableChanges().create(temp));
+        history.record(SOURCE, position(4), "db", null, "alter table location; drop table temp",
+                new TableChanges().alter(locationWithDescription).drop(temp));
+        history.record(SOURCE, position(5), "db", null, "drop table location", new TableChanges().drop(location));
+    }
+
+    protected void assertSchemaAtPosition4(Tables schema) {
+        assertThat(schema.size(), equalTo(2));
+        assertThat(schema.forTable(tableId("location")).columnWithName("description"), notNullValue());
+        assertThat(schema.forTable(tableId("person")), notNullValue());
+        assertThat(schema.forTable(tableId("temp")), nullValue());
+    }
+
+    protected void recover(DatabaseHistory history, long pos, Tables schema) {
+        Partition partition = () -> SOURCE;
+        history.recover(Offsets.of(partition, new TestOffsetContext(position(pos))), schema, null);
+    }
+
+    protected List<String> getDdl(RocksDatabaseHistory history) {
+        List<String> ret = new ArrayList<>();
+        for (HistoryRecord record : history.getRecords().values()) {
+            ret.add(record.document().getString(HistoryRecord.Fields.DDL_STATEMENTS));
+        }
+        return ret;
+    }
+
+    protected RocksDatabaseHistory newHistory(File directory, File migrateFile, int compactionThreshold) {
+        RocksDatabaseHistory history = new RocksDatabaseHistory();
+        Configuration config = getConfig(directory, migrateFile).edit()
+                .with(RocksDatabaseHistory.COMPACTION_THRESHOLD_PROPERTY, compactionThreshold).build();
+        history.configure(config, COMPARATOR, DatabaseHistoryListener.NOOP, true);
+        history.start();
+        return history;
+    }
+
+    protected Configuration getConfig(File file, File migrateFile) {
+        Configuration.Builder builder = Configuration.create().with(FileDatabaseHistory.FILE_PATH, file.getAbsolutePath());
+        if (migrateFile != null) {
+            builder.with(RocksDatabaseHistory.MIGRATE_FILENAME_PROPERTY, migrateFile.getAbsolutePath());
+        }
+        return builder.build();
+    }
+
+    protected Map<String, ?> position(long pos) {
+        return Collections.singletonMap("pos", pos);
+    }
+
+    protected TableId tableId(String table) {
+        return new TableId("db", null, table);
+    }
+
+    protected Table table(String name, String... columns) {
+        TableEditor editor = Table.editor().tableId(tableId(name));
+        for (String column : columns) {
+            editor.addColumn(Column.editor().name(column).type("INT").jdbcType(Types.INTEGER).create());
+        }
+        editor.setPrimaryKeyNames(columns[0]);
+        return editor.create();
+    }
+}
@@ -0,0 +1,130 @@
+package org.openmrs.module.dbevent;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.kafka.common.Uuid;
+import org.apache.kafka.connect.runtime.standalone.StandaloneConfig;
+import org.apache.kafka.connect.storage.FileOffsetBackingStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RocksOffsetBackingStoreTest {
+
+    File dataDir;
+
+    @BeforeEach
+    public void setup() {
+        dataDir = new File(System.getProperty("java.io.tmpdir"), Uuid.randomUuid().toString());
+    }
+
+    @AfterEach
+    public void teardown() {
+        FileUtils.deleteQuietly(dataDir);
+    }
+
+    @Test
+    public void shouldPersistOffsetsAcrossRestarts() throws Exception {
+        File directory = new File(dataDir, "offsets");
+        RocksOffsetBackingStore store = new RocksOffsetBackingStore();
+        store.configure(getConfig(directory, null));
+        store.start();
+        store.set(Collections.singletonMap(buffer("key1"), buffer("value1")), null).get();
+        store.set(Collections.singletonMap(buffer("key2"), buffer("value2")), null).get();
+        store.set(Collections.singletonMap(buffer("key1"), buffer("value3")), null).get();
+        store.stop();
+
+        store = new RocksOffsetBackingStore();
+        store.configure(getConfig(directory, null));
+        store.start();
+        Map<ByteBuffer, ByteBuffer> offsets = store.get(Arrays.asList(buffer("key1"), buffer("key2"), buffer("key3"))).get();
+        assertThat(offsets.get(buffer("key1")), equalTo(buffer("value3")));
+        assertThat(offsets.get(buffer("key2")), equalTo(buffer("value2")));
+        assertThat(offsets.get(buffer("key3")), nullValue());
+        store.stop();
+    }
+
+    @Test
+    public void shouldMigrateOffsetsFromFileOffsetBackingStore() throws Exception {
+        File offsetsFile = new File(dataDir, "offsets.dat");
+        assertTrue(dataDir.mkdirs());
+        FileOffsetBackingStore fileStore = new FileOffsetBackingStore();
+        fileStore.configure(getConfig(offsetsFile, null));
+        fileStore.start();
+        fileStore.set(Collections.singletonMap(buffer("key1"), buffer("value1")), null).get();
+        fileStore.stop();
+
+        RocksOffsetBackingStore store = new RocksOffsetBackingStore();
+        store.configure(getConfig(new File(dataDir, "offsets"), offsetsFile));
+        store.start();
+        Map<ByteBuffer, ByteBuffer> offsets = store.get(Collections.singletonList(buffer("key1"))).get();
+        assertThat(offsets.get(buffer("key1")), equalTo(buffer("value1")));
+        store.stop();
+        assertFalse(offsetsFile.exists());
+        assertTrue(new File(dataDir, "offsets.dat.migrated").exists());
+    }
+
+    @Test
+    public void shouldConfigureSourceToUseRocksOffsetBackingStore() {
+        DbEventSourceConfig config = new DebeziumConsumerTest().getConfig();
+        File offsetsFile = config.getOffsetsFile();
+        config.configureRocksOffsetBackingStore();
+        assertThat(config.getConfig().getProperty("offset.storage"), equalTo(RocksOffsetBackingStore.class.getName()));
+        assertThat(config.getOffsetsFile().getName(), equalTo("100003_offsets"));
+        assertThat(config.getMigrateOffsetsFile(), equalTo(offsetsFile));
+        config.configureRocksOffsetBackingStore();
+        assertThat(config.getMigrateOffsetsFile(), equalTo(offsetsFile));
+    }
+
+    @Test
+    public void shouldOpenRocksWithRocksConfigOfSource() throws Exception {
+        DbEventSourceConfig config = new DebeziumConsumerTest().getConfig();
+        config.configureRocksOffsetBackingStore();
+        config.getRocksConfig().setBlockCacheSizeBytes(8L * 1024 * 1024);
+        config.getRocksConfig().setTtlSeconds(null);
+        config.updateRocksProperties();
+
+        Map<String, String> props = new HashMap<>(getConfig(new File(dataDir, "offsets"), null).originalsStrings());
+        for (String name : config.getConfig().stringPropertyNames()) {
+            if (name.startsWith(RocksOffsetBackingStore.ROCKS_CONFIG_PREFIX)) {
+                props.put(name, config.getConfig().getProperty(name));
+            }
+        }
+        RocksOffsetBackingStore store = new RocksOffsetBackingStore();
+        store.configure(new StandaloneConfig(props));
+        assertThat(store.getRocksConfig(), equalTo(config.getRocksConfig()));
+        store.start();
+        assertThat(store.getRocksConfig().getBlockCache(), notNullValue());
+        store.set(Collections.singletonMap(buffer("key1"), buffer("value1")), null).get();
+        store.stop();
+    }
+
+    protected StandaloneConfig getConfig(File offsetsFile, File migrateFile) {
+        Map<String, String> props = new HashMap<>();
+        props.put(StandaloneConfig.OFFSET_STORAGE_FILE_FILENAME_CONFIG, offsetsFile.getAbsolutePath());
+        props.put("key.converter", "org.apache.kafka.connect.json.JsonConverter");
+        props.put("value.converter", "org.apache.kafka.connect.json.JsonConverter");
+        if (migrateFile != null) {
+            props.put(RocksOffsetBackingStore.MIGRATE_FILENAME_PROPERTY, migrateFile.getAbsolutePath());
+        }
+        return new StandaloneConfig(props);
+    }
+
+    protected ByteBuffer buffer(String value) {
+        return ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8));
+    }
+}
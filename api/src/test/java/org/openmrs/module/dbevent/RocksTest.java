@@ -0,0 +1,223 @@
+package org.openmrs.module.dbevent;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.kafka.common.Uuid;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.rocksdb.Cache;
+import org.rocksdb.CompressionType;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RocksTest {
+
+    File dbFile;
+    Rocks rocks;
+
+    @BeforeEach
+    public void setup() {
+        dbFile = new File(System.getProperty("java.io.tmpdir"), Uuid.randomUuid().toString());
+        rocks = new Rocks(dbFile, new OrderedKeySerializer(), new BinarySerializer());
+    }
+
+    @AfterEach
+    public void teardown() {
+        rocks.close();
+        FileUtils.deleteQuietly(dbFile);
+    }
+
+    @Test
+    public void shouldEncodeKeysInOrder() {
+        OrderedKeySerializer serializer = new OrderedKeySerializer();
+        List<List<Serializable>> keys = Arrays.asList(
+                Arrays.asList(null, 1),
+                Arrays.asList(Integer.MIN_VALUE, "a"),
+                Arrays.asList(-1, "a"),
+                Arrays.asList(0, "a"),
+                Arrays.asList(0, "a\u0000"),
+                Arrays.asList(0, "a\u0000b"),
+                Arrays.asList(0, "ab"),
+                Arrays.asList(0, "b", Long.MIN_VALUE),
+                Arrays.asList(0, "b", -100L),
+                Arrays.asList(0, "b", 100L),
+                Arrays.asList(0, "b", Long.MAX_VALUE),
+                Arrays.asList(1, "\u00e9"),
+                Arrays.asList(Integer.MAX_VALUE, "")
+        );
+        for (int i = 0; i < keys.size(); i++) {
+            byte[] bytes = serializer.serialize(new ArrayList<>(keys.get(i)));
+            assertThat(serializer.deserialize(bytes), equalTo(keys.get(i)));
+            if (i > 0) {
+                byte[] previous = serializer.serialize(new ArrayList<>(keys.get(i - 1)));
+                assertThat(compare(previous, bytes), lessThan(0));
+            }
+        }
+    }
+
+    @Test
+    public void shouldPutAndDeleteInBatches() {
+        Map<Serializable, Serializable> entries = new LinkedHashMap<>();
+        for (int i = 0; i < 100; i++) {
+            entries.put(i, "value " + i);
+        }
+        rocks.putAll(entries);
+        assertThat(rocks.get(50), equalTo("value 50"));
+        assertThat(rocks.getAll().size(), equalTo(100));
+        try (Rocks.Batch batch = rocks.newBatch()) {
+            batch.put(100, "value 100").delete(0);
+            assertThat(batch.size(), equalTo(2));
+            assertThat(rocks.get(100), equalTo(null));
+            batch.write();
+        }
+        assertThat(rocks.get(100), equalTo("value 100"));
+        assertThat(rocks.get(0), equalTo(null));
+        rocks.deleteAll(Arrays.asList(1, 2, 3));
+        assertThat(rocks.getAll().size(), equalTo(97));
+    }
+
+    @Test
+    public void shouldMultiGet() {
+        rocks.put(1L, "one");
+        rocks.put(3L, "three");
+        Map<Long, String> values = rocks.multiGet(Arrays.asList(3L, 2L, 1L));
+        assertThat(new ArrayList<>(values.keySet()), equalTo(Arrays.asList(3L, 1L)));
+        assertThat(values.get(1L), equalTo("one"));
+        assertThat(rocks.multiGet(Collections.emptyList()).size(), equalTo(0));
+    }
+
+    @Test
+    public void shouldIterateOverRangesAndPrefixes() {
+        for (int patientId = -2; patientId <= 2; patientId++) {
+            for (String table : Arrays.asList("encounter", "obs")) {
+                for (long id = 1; id <= 3; id++) {
+                    rocks.put(new ArrayList<>(Arrays.asList(patientId, table, id)), table + " " + id);
+                }
+            }
+        }
+        Map<ArrayList<Object>, String> patientRows = rocks.getWithPrefix(new ArrayList<>(Collections.singletonList(-1)));
+        assertThat(patientRows.size(), equalTo(6));
+        assertThat(patientRows.keySet().iterator().next(), equalTo(Arrays.asList(-1, "encounter", 1L)));
+
+        Map<ArrayList<Object>, String> obsRows = rocks.getWithPrefix(new ArrayList<>(Arrays.asList(1, "obs")));
+        assertThat(new ArrayList<>(obsRows.values()), equalTo(Arrays.asList("obs 1", "obs 2", "obs 3")));
+
+        Map<ArrayList<Object>, String> range = rocks.getRange(
+                new ArrayList<>(Arrays.asList(-2, "obs", 3L)), new ArrayList<>(Arrays.asList(-1, "encounter", 3L))
+        );
+        assertThat(new ArrayList<>(range.values()), equalTo(Arrays.asList("obs 3", "encounter 1", "encounter 2")));
+
+        List<Integer> patients = new ArrayList<>();
+        rocks.<ArrayList<Object>, String>forEachInRange(new ArrayList<>(Collections.singletonList(1)), null, (k, v) -> {
+            if (!patients.contains((Integer) k.get(0))) {
+                patients.add((Integer) k.get(0));
+            }
+        });
+        assertThat(patients, equalTo(Arrays.asList(1, 2)));
+    }
+
+    @Test
+    public void shouldStoreColumnFamiliesSeparatelyWithTuningProfile() {
+        File tunedFile = new File(System.getProperty("java.io.tmpdir"), Uuid.randomUuid().toString());
+        RocksConfig config = new RocksConfig();
+        config.setBlockCacheSizeBytes(8L * 1024 * 1024);
+        config.setBloomFilterBitsPerKey(10);
+        config.setCompressionType(CompressionType.LZ4_COMPRESSION);
+        config.setBottommostCompressionType(CompressionType.ZSTD_COMPRESSION);
+        config.setWriteBufferSizeBytes(4L * 1024 * 1024);
+        config.setTtlSeconds(3600);
+        BinarySerializer serializer = new BinarySerializer();
+        try {
+            Rocks tuned = new Rocks(tunedFile, config, serializer, serializer, "patients", "encounters");
+            tuned.put(1, "default");
+            tuned.getColumnFamily("patients").put(1, "patient");
+            tuned.getColumnFamily("encounters").put(1, "encounter");
+            assertThat(tuned.get(1), equalTo("default"));
+            assertThat(tuned.getColumnFamily("patients").get(1), equalTo("patient"));
+            assertThat(tuned.getColumnFamily("encounters").getAll().size(), equalTo(1));
+            tuned.close();
+
+            // Existing column families are reopened, even if not requested
+            tuned = new Rocks(tunedFile, config, serializer, serializer, "patients");
+            assertThat(tuned.getColumnFamily("patients").get(1), equalTo("patient"));
+            assertThat(tuned.getColumnFamily("encounters").get(1), equalTo("encounter"));
+            tuned.close();
+        }
+        finally {
+            FileUtils.deleteQuietly(tunedFile);
+        }
+    }
+
+    @Test
+    public void shouldWriteAndReadRocksConfigAsProperties() {
+        RocksConfig config = new RocksConfig();
+        config.setBlockCacheSizeBytes(8L * 1024 * 1024);
+        config.setBottommostCompressionType(CompressionType.ZSTD_COMPRESSION);
+        config.setCompressionType(null);
+        config.setTtlSeconds(3600);
+        Map<String, String> properties = config.toProperties("rocks.");
+        assertThat(properties.get("rocks.blockCacheSizeBytes"), equalTo("8388608"));
+        assertThat(properties.get("rocks.compressionType"), equalTo(""));
+        assertThat(RocksConfig.fromProperties(properties, "rocks."), equalTo(config));
+        assertThat(RocksConfig.fromProperties(properties, "other."), nullValue());
+    }
+
+    @Test
+    public void shouldShareBlockCacheUntilLastRocksIsClosed() {
+        File file1 = new File(System.getProperty("java.io.tmpdir"), Uuid.randomUuid().toString());
+        File file2 = new File(System.getProperty("java.io.tmpdir"), Uuid.randomUuid().toString());
+        RocksConfig config = new RocksConfig();
+        config.setBlockCacheSizeBytes(8L * 1024 * 1024);
+        try {
+            Rocks rocks1 = new Rocks(file1, config, new JavaSerializer(), new JavaSerializer());
+            Cache cache = config.getBlockCache();
+            Rocks rocks2 = new Rocks(file2, config, new JavaSerializer(), new JavaSerializer());
+            assertThat(config.getBlockCache(), sameInstance(cache));
+            rocks1.close();
+            assertTrue(cache.isOwningHandle());
+            rocks2.close();
+            assertFalse(cache.isOwningHandle());
+            assertThat(config.getBlockCache(), nullValue());
+
+            rocks1 = new Rocks(file1, config, new JavaSerializer(), new JavaSerializer());
+            cache = config.getBlockCache();
+            config.setBlockCacheSizeBytes(16L * 1024 * 1024);
+            rocks2 = new Rocks(file2, config, new JavaSerializer(), new JavaSerializer());
+            assertThat(config.getBlockCache(), not(sameInstance(cache)));
+            assertTrue(cache.isOwningHandle());
+            rocks1.close();
+            assertFalse(cache.isOwningHandle());
+            rocks2.close();
+        }
+        finally {
+            FileUtils.deleteQuietly(file1);
+            FileUtils.deleteQuietly(file2);
+        }
+    }
+
+    private int compare(byte[] a, byte[] b) {
+        for (int i = 0; i < Math.min(a.length, b.length); i++) {
+            int diff = (a[i] & 0xFF) - (b[i] & 0xFF);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return a.length - b.length;
+    }
+}
@@ -0,0 +1,109 @@
+package org.openmrs.module.dbevent;
+
+import org.apache.commons.lang3.SerializationUtils;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.SchemaBuilder;
+import org.apache.kafka.connect.data.Struct;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RowMapTest {
+
+    public static final Schema SCHEMA = SchemaBuilder.struct().name("RowMapTest.location.Value")
+            .field("location_id", Schema.INT32_SCHEMA)
+            .field("name", Schema.OPTIONAL_STRING_SCHEMA)
+            .field("retired", Schema.OPTIONAL_INT16_SCHEMA)
+            .field("date_created", Schema.OPTIONAL_INT64_SCHEMA)
+            .build();
+
+    @Test
+    public void shouldBehaveAsObjectMapForStruct() {
+        Struct struct = getStruct(1, "Unknown Location");
+        RowMap row = new RowMap(struct);
+        ObjectMap expected = new ObjectMap(struct);
+        assertTrue(row.isCompact());
+        assertThat(row, equalTo(expected));
+        assertThat(expected, equalTo(row));
+        assertThat(row.hashCode(), equalTo(expected.hashCode()));
+        assertThat(row.size(), equalTo(4));
+        assertThat(row.getInteger("location_id"), equalTo(1));
+        assertThat(row.getString("name"), equalTo("Unknown Location"));
+        assertThat(row.getBoolean("retired"), equalTo(false));
+        assertThat(row.getLong("date_created"), equalTo(1000L));
+        assertTrue(row.containsKey("date_created"));
+        assertFalse(row.containsKey("description"));
+        assertThat(row.get("description"), nullValue());
+        assertThat(new ArrayList<>(row.keySet()), equalTo(Arrays.asList("location_id", "name", "retired", "date_created")));
+        assertThat(new HashMap<>(row), equalTo(expected));
+    }
+
+    @Test
+    public void shouldShareRowSchemaForSameSchema() {
+        assertThat(RowSchema.forSchema(SCHEMA), sameInstance(RowSchema.forSchema(SCHEMA)));
+        Schema changedSchema = SchemaBuilder.struct().name(SCHEMA.name()).field("location_id", Schema.INT32_SCHEMA).build();
+        assertThat(RowSchema.forSchema(changedSchema), not(sameInstance(RowSchema.forSchema(SCHEMA))));
+        assertThat(RowSchema.forSchema(changedSchema).size(), equalTo(1));
+    }
+
+    @Test
+    public void shouldCacheEachVersionOfSchemaWithSameName() {
+        Schema version1 = SchemaBuilder.struct().name("test.versions").field("a", Schema.INT32_SCHEMA).build();
+        Schema version2 = SchemaBuilder.struct().name("test.versions").field("a", Schema.INT32_SCHEMA).field("b", Schema.INT32_SCHEMA).build();
+        RowSchema rowSchema1 = RowSchema.forSchema(version1);
+        RowSchema rowSchema2 = RowSchema.forSchema(version2);
+        assertThat(RowSchema.forSchema(version1), sameInstance(rowSchema1));
+        assertThat(RowSchema.forSchema(version2), sameInstance(rowSchema2));
+        assertThat(RowSchema.forSchema(version1).size(), equalTo(1));
+        assertThat(RowSchema.forSchema(version2).size(), equalTo(2));
+        Schema equalToVersion1 = SchemaBuilder.struct().name("test.versions").field("a", Schema.INT32_SCHEMA).build();
+        assertThat(RowSchema.forSchema(equalToVersion1).size(), equalTo(1));
+        for (int i = 0; i < RowSchema.MAX_VERSIONS * 2; i++) {
+            RowSchema.forSchema(SchemaBuilder.struct().name("test.versions").field("c" + i, Schema.INT32_SCHEMA).build());
+        }
+        assertThat(RowSchema.forSchema(version2).size(), equalTo(2));
+    }
+
+    @Test
+    public void shouldConvertToStandardMapWhenModified() {
+        RowMap row = new RowMap(getStruct(2, "Name"));
+        row.put("description", "Description");
+        assertFalse(row.isCompact());
+        assertThat(row.size(), equalTo(5));
+        assertThat(row.getString("name"), equalTo("Name"));
+        assertThat(row.getString("description"), equalTo("Description"));
+        row.remove("name");
+        assertFalse(row.containsKey("name"));
+    }
+
+    @Test
+    public void shouldSerializeAsObjectMap() {
+        RowMap row = new RowMap(getStruct(3, "Name"));
+        Map<String, Object> copy = SerializationUtils.roundtrip(row);
+        assertThat(copy, instanceOf(ObjectMap.class));
+        assertThat(copy, equalTo(row));
+    }
+
+    @Test
+    public void shouldBeEmptyForNullStruct() {
+        RowMap row = new RowMap(null);
+        assertTrue(row.isEmpty());
+        assertThat(row, equalTo(new ObjectMap()));
+    }
+
+    protected Struct getStruct(Integer id, String name) {
+        return new Struct(SCHEMA).put("location_id", id).put("name", name).put("retired", (short) 0).put("date_created", 1000L);
+    }
+}
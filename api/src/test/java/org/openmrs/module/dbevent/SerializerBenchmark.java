@@ -0,0 +1,36 @@
+package org.openmrs.module.dbevent;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the throughput and size of the JavaSerializer and BinarySerializer on typical row images.
+ * This is not run as part of the unit tests, as timings depend on the machine; run the main method directly.
+ */
+public class SerializerBenchmark {
+
+    public static void main(String[] args) {
+        int numRows = (args.length > 0 ? Integer.parseInt(args[0]) : 10000);
+        List<ObjectMap> rows = new ArrayList<>();
+        for (int i = 0; i < numRows; i++) {
+            rows.add(SerializerTest.getRow(i));
+        }
+        benchmark(new JavaSerializer(), rows);
+        benchmark(new BinarySerializer(), rows);
+    }
+
+    protected static void benchmark(Serializer serializer, List<ObjectMap> rows) {
+        for (int iteration = 0; iteration < 3; iteration++) { // Warm up the JIT on the first iterations
+            long numBytes = 0;
+            long startTime = System.nanoTime();
+            for (ObjectMap row : rows) {
+                byte[] bytes = serializer.serialize(row);
+                numBytes += bytes.length;
+                serializer.deserialize(bytes);
+            }
+            long nanos = System.nanoTime() - startTime;
+            System.out.println(serializer.getClass().getSimpleName() + ": " + (rows.size() * 1000000000L / nanos) +
+                    " rows/second, " + (numBytes / rows.size()) + " bytes/row");
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package org.openmrs.module.dbevent;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.kafka.common.Uuid;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.lessThan;
+
+public class SerializerTest {
+
+    @Test
+    public void shouldRoundTripCommonTypes() {
+        BinarySerializer serializer = new BinarySerializer();
+        for (Serializable value : Arrays.asList("", "test \u00fcnicode", 0, -1, Integer.MAX_VALUE, Integer.MIN_VALUE,
+                0L, Long.MAX_VALUE, Long.MIN_VALUE, (short) -1, Short.MAX_VALUE, (byte) 1, Byte.MIN_VALUE, 1.5d, 2.5f,
+                true, false, new Date(), new BigDecimal("-12345678901234567890.125"), BigDecimal.ZERO,
+                new ArrayList<>(Arrays.asList(1, "a")))) {
+            assertThat(serializer.deserialize(serializer.serialize(value)), equalTo(value));
+        }
+        assertThat(serializer.deserialize(serializer.serialize(null)), equalTo(null));
+        byte[] bytes = new byte[] {1, 2, 3};
+        assertThat(serializer.deserialize(serializer.serialize(bytes)), equalTo(bytes));
+        ObjectMap row = getRow(1);
+        Object deserializedRow = serializer.deserialize(serializer.serialize(row));
+        assertThat(deserializedRow, instanceOf(ObjectMap.class));
+        assertThat(deserializedRow, equalTo(row));
+    }
+
+    @Test
+    public void shouldWriteFloatsAsFourBytes() {
+        BinarySerializer serializer = new BinarySerializer();
+        assertThat(serializer.serialize(2.5f).length, equalTo(5));
+        assertThat(serializer.deserialize(serializer.serialize(Float.NaN)), equalTo(Float.NaN));
+        assertThat(serializer.deserialize(serializer.serialize(-Float.MAX_VALUE)), equalTo(-Float.MAX_VALUE));
+    }
+
+    @Test
+    public void shouldWriteDebeziumColumnTypesWithoutJavaSerialization() {
+        BinarySerializer serializer = new BinarySerializer();
+        assertThat(serializer.serialize((short) 1).length, equalTo(2));
+        assertThat(serializer.serialize((byte) 0).length, equalTo(2));
+        assertThat(serializer.serialize(new BigDecimal("70.50")).length, equalTo(5));
+        assertThat(serializer.serialize(new Date(1660000000000L)).length, lessThan(10));
+        Object decimal = serializer.deserialize(serializer.serialize(new BigDecimal("70.50")));
+        assertThat(decimal.toString(), equalTo("70.50")); // Scale is retained
+    }
+
+    @Test
+    public void shouldReadValuesButNotKeysWrittenWithJavaSerializer() {
+        File dbFile = new File(System.getProperty("java.io.tmpdir"), Uuid.randomUuid().toString());
+        try {
+            Rocks javaRocks = new Rocks(dbFile);
+            javaRocks.put(1L, getRow(1));
+            javaRocks.close();
+            Rocks binaryRocks = new Rocks(dbFile, new JavaSerializer(), new BinarySerializer());
+            try {
+                assertThat(binaryRocks.get(1L), equalTo(getRow(1)));
+            }
+            finally {
+                binaryRocks.close();
+            }
+            binaryRocks = new Rocks(dbFile, new BinarySerializer());
+            try {
+                assertThat(binaryRocks.get(1L), equalTo(null)); // Keys written by the JavaSerializer are not found
+                assertThat(binaryRocks.getAll().values().iterator().next(), equalTo(getRow(1)));
+            }
+            finally {
+                binaryRocks.close();
+            }
+        }
+        finally {
+            FileUtils.deleteQuietly(dbFile);
+        }
+    }
+
+    @Test
+    public void shouldBeSmallerThanJavaSerialization() {
+        JavaSerializer javaSerializer = new JavaSerializer();
+        BinarySerializer binarySerializer = new BinarySerializer();
+        for (int i = 0; i < 100; i++) {
+            ObjectMap row = getRow(i);
+            assertThat(binarySerializer.serialize(row).length, lessThan(javaSerializer.serialize(row).length / 2));
+        }
+    }
+
+    public static ObjectMap getRow(int id) {
+        ObjectMap row = new ObjectMap();
+        row.put("obs_id", id);
+        row.put("person_id", 1000 + id % 100);
+        row.put("concept_id", 5089);
+        row.put("obs_datetime", 1660000000000L + id);
+        row.put("value_numeric", 70.5 + id);
+        row.put("value_text", null);
+        row.put("value_boolean", (byte) 1);
+        row.put("dose", new BigDecimal("2.50").add(BigDecimal.valueOf(id % 10)));
+        row.put("date_created", new Date(1660000000000L + id * 1000L));
+        row.put("voided", (short) 0);
+        row.put("uuid", "6b8a5bd6-" + Integer.toHexString(id) + "-4f3c-9b7e-2b1b7c6f0a1d");
+        return row;
+    }
+}
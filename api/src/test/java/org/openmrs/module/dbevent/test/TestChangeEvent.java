@@ -0,0 +1,179 @@
+package org.openmrs.module.dbevent.test;
+
+import io.debezium.engine.ChangeEvent;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.SchemaBuilder;
+import org.apache.kafka.connect.data.Struct;
+import org.apache.kafka.connect.source.SourceRecord;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Simple ChangeEvent implementation that enables constructing Debezium-like change events without a database
+ * The first column of each row is treated as the primary key, and the schema is inferred from the row values
+ */
+public class TestChangeEvent implements ChangeEvent<SourceRecord, SourceRecord> {
+
+    public static final Schema SOURCE_SCHEMA = SchemaBuilder.struct().name("test.Source")
+            .field("name", Schema.STRING_SCHEMA)
+            .field("table", Schema.STRING_SCHEMA)
+            .build();
+
+    public static final Schema TABLE_CHANGE_SCHEMA = SchemaBuilder.struct().name("io.debezium.connector.schema.Change")
+            .field("type", Schema.STRING_SCHEMA)
+            .field("id", Schema.STRING_SCHEMA)
+            .build();
+
+    public static final Schema SCHEMA_CHANGE_SCHEMA = SchemaBuilder.struct().name("io.debezium.connector.mysql.SchemaChangeValue")
+            .field("databaseName", Schema.STRING_SCHEMA)
+            .field("ddl", Schema.STRING_SCHEMA)
+            .field("tableChanges", SchemaBuilder.array(TABLE_CHANGE_SCHEMA).build())
+            .build();
+
+    public static final Schema HEARTBEAT_SCHEMA = SchemaBuilder.struct().name("io.debezium.connector.common.Heartbeat")
+            .field("ts_ms", Schema.INT64_SCHEMA)
+            .build();
+
+    private final SourceRecord record;
+
+    public TestChangeEvent(SourceRecord record) {
+        this.record = record;
+    }
+
+    public TestChangeEvent(String sourceName, String table, String op, Map<String, Object> before, Map<String, Object> after) {
+        Map<String, Object> row = (after != null ? after : before);
+        SchemaBuilder rowSchemaBuilder = SchemaBuilder.struct().name(sourceName + "." + table + ".Value").optional();
+        for (Map.Entry<String, Object> e : row.entrySet()) {
+            rowSchemaBuilder.field(e.getKey(), getSchema(e.getValue()));
+        }
+        Schema rowSchema = rowSchemaBuilder.build();
+        Map.Entry<String, Object> pk = row.entrySet().iterator().next();
+        Schema keySchema = SchemaBuilder.struct().name(sourceName + "." + table + ".Key").field(pk.getKey(), getSchema(pk.getValue())).build();
+        Schema valueSchema = SchemaBuilder.struct().name(sourceName + "." + table + ".Envelope")
+                .field("before", rowSchema)
+                .field("after", rowSchema)
+                .field("source", SOURCE_SCHEMA)
+                .field("op", Schema.STRING_SCHEMA)
+                .field("ts_ms", Schema.INT64_SCHEMA)
+                .build();
+        Struct key = new Struct(keySchema).put(pk.getKey(), pk.getValue());
+        Struct value = new Struct(valueSchema)
+                .put("source", new Struct(SOURCE_SCHEMA).put("name", sourceName).put("table", table))
+                .put("op", op)
+                .put("ts_ms", System.currentTimeMillis());
+        if (before != null) {
+            value.put("before", toStruct(rowSchema, before));
+        }
+        if (after != null) {
+            value.put("after", toStruct(rowSchema, after));
+        }
+        record = new SourceRecord(Collections.emptyMap(), Collections.emptyMap(), sourceName, keySchema, key, valueSchema, value);
+    }
+
+    /**
+     * Convenience constructor for a table with an integer primary key named [table]_id and a name and uuid column
+     */
+    public TestChangeEvent(String sourceName, String table, String op, Integer id, String beforeName, String afterName) {
+        this(sourceName, table, op, row(table, id, beforeName), row(table, id, afterName));
+    }
+
+    /**
+     * @return a new snapshot read event for the given table and id
+     */
+    public static TestChangeEvent read(String sourceName, String table, Integer id) {
+        return new TestChangeEvent(sourceName, table, "r", id, null, "Name " + id);
+    }
+
+    /**
+     * @return a new snapshot read event for the given row, whose first column is the primary key
+     */
+    public static TestChangeEvent read(String sourceName, String table, Object... columnsAndValues) {
+        Map<String, Object> row = new LinkedHashMap<>();
+        for (int i = 0; i < columnsAndValues.length; i += 2) {
+            row.put((String) columnsAndValues[i], columnsAndValues[i + 1]);
+        }
+        return new TestChangeEvent(sourceName, table, "r", null, row);
+    }
+
+    /**
+     * @return a new schema change event for the given ddl, which changes the given tables
+     */
+    public static TestChangeEvent schemaChange(String sourceName, String databaseName, String ddl, String type, String... tables) {
+        List<Struct> tableChanges = new ArrayList<>();
+        for (String table : tables) {
+            tableChanges.add(new Struct(TABLE_CHANGE_SCHEMA).put("type", type).put("id", "\"" + databaseName + "\".\"" + table + "\""));
+        }
+        Struct value = new Struct(SCHEMA_CHANGE_SCHEMA)
+                .put("databaseName", databaseName)
+                .put("ddl", ddl)
+                .put("tableChanges", tableChanges);
+        return new TestChangeEvent(new SourceRecord(Collections.emptyMap(), Collections.emptyMap(), sourceName, null, null, SCHEMA_CHANGE_SCHEMA, value));
+    }
+
+    /**
+     * @return a new heartbeat event, as emitted periodically by the connector while no changes occur
+     */
+    public static TestChangeEvent heartbeat(String sourceName) {
+        Struct value = new Struct(HEARTBEAT_SCHEMA).put("ts_ms", System.currentTimeMillis());
+        return new TestChangeEvent(new SourceRecord(Collections.emptyMap(), Collections.emptyMap(), "__debezium-heartbeat." + sourceName, null, null, HEARTBEAT_SCHEMA, value));
+    }
+
+    private static Map<String, Object> row(String table, Integer id, String name) {
+        if (name == null) {
+            return null;
+        }
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put(table + "_id", id);
+        row.put("name", name);
+        row.put("uuid", table + id);
+        return row;
+    }
+
+    private static Schema getSchema(Object value) {
+        if (value instanceof Integer) {
+            return Schema.OPTIONAL_INT32_SCHEMA;
+        }
+        if (value instanceof Long) {
+            return Schema.OPTIONAL_INT64_SCHEMA;
+        }
+        if (value instanceof Double) {
+            return Schema.OPTIONAL_FLOAT64_SCHEMA;
+        }
+        if (value instanceof Boolean) {
+            return Schema.OPTIONAL_BOOLEAN_SCHEMA;
+        }
+        return Schema.OPTIONAL_STRING_SCHEMA;
+    }
+
+    private static Struct toStruct(Schema schema, Map<String, Object> row) {
+        Struct struct = new Struct(schema);
+        for (Map.Entry<String, Object> e : row.entrySet()) {
+            struct.put(e.getKey(), e.getValue());
+        }
+        return struct;
+    }
+
+    @Override
+    public SourceRecord key() {
+        return record;
+    }
+
+    @Override
+    public SourceRecord value() {
+        return record;
+    }
+
+    @Override
+    public String destination() {
+        return record.topic();
+    }
+
+    @Override
+    public String toString() {
+        return record.toString();
+    }
+}
@@ -0,0 +1,67 @@
+package org.openmrs.module.dbevent.test;
+
+import io.debezium.pipeline.spi.OffsetContext;
+import io.debezium.pipeline.txmetadata.TransactionContext;
+import io.debezium.schema.DataCollectionId;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.Struct;
+
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * OffsetContext that only provides an offset, for recovering a DatabaseHistory at a given position
+ */
+public class TestOffsetContext implements OffsetContext {
+
+    private final Map<String, ?> offset;
+
+    public TestOffsetContext(Map<String, ?> offset) {
+        this.offset = offset;
+    }
+
+    @Override
+    public Map<String, ?> getOffset() {
+        return offset;
+    }
+
+    @Override
+    public Schema getSourceInfoSchema() {
+        return null;
+    }
+
+    @Override
+    public Struct getSourceInfo() {
+        return null;
+    }
+
+    @Override
+    public boolean isSnapshotRunning() {
+        return false;
+    }
+
+    @Override
+    public void markLastSnapshotRecord() {
+    }
+
+    @Override
+    public void preSnapshotStart() {
+    }
+
+    @Override
+    public void preSnapshotCompletion() {
+    }
+
+    @Override
+    public void postSnapshotCompletion() {
+    }
+
+    @Override
+    public void event(DataCollectionId collectionId, Instant timestamp) {
+    }
+
+    @Override
+    public TransactionContext getTransactionContext() {
+        return null;
+    }
+}
@@ -0,0 +1,57 @@
+package org.openmrs.module.dbevent.test;
+
+import io.debezium.engine.ChangeEvent;
+import io.debezium.engine.DebeziumEngine;
+import io.debezium.engine.spi.OffsetCommitPolicy;
+import lombok.Data;
+import org.apache.kafka.connect.source.SourceRecord;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Simple RecordCommitter that tracks the records that have been marked as processed and the number of batches finished
+ * If a commit policy is set, this is consulted when each batch is finished, as the Debezium engine does
+ * If flushFails is set, commits requested by the policy fail, and the count of records since the last commit is kept
+ */
+@Data
+public class TestRecordCommitter implements DebeziumEngine.RecordCommitter<ChangeEvent<SourceRecord, SourceRecord>> {
+
+    private final List<ChangeEvent<SourceRecord, SourceRecord>> processed = new CopyOnWriteArrayList<>();
+    private int batchesFinished = 0;
+    private OffsetCommitPolicy commitPolicy;
+    private long processedSinceLastCommit = 0;
+    private int commits = 0;
+    private boolean flushFails = false;
+    private final List<Map<String, Object>> builtOffsets = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void markProcessed(ChangeEvent<SourceRecord, SourceRecord> record) {
+        processed.add(record);
+        processedSinceLastCommit++;
+    }
+
+    @Override
+    public void markBatchFinished() {
+        batchesFinished++;
+        if (commitPolicy != null && commitPolicy.performCommit(processedSinceLastCommit, Duration.ZERO) && !flushFails) {
+            commits++;
+            processedSinceLastCommit = 0;
+        }
+    }
+
+    @Override
+    public void markProcessed(ChangeEvent<SourceRecord, SourceRecord> record, DebeziumEngine.Offsets offsets) {
+        processed.add(record);
+    }
+
+    @Override
+    public DebeziumEngine.Offsets buildOffsets() {
+        Map<String, Object> offsets = new HashMap<>();
+        builtOffsets.add(offsets);
+        return offsets::put;
+    }
+}